@@ -0,0 +1,24 @@
+package com.availtec.infopoint.client;
+
+/**
+ * The InfoPoint REST endpoints used by {@link InfopointClient}. Each has its
+ * own rate limit.
+ */
+public enum Endpoint {
+    ROUTES("InfoPoint/rest/Routes/GetAllRoutes"),
+    PUBLIC_MESSAGES("InfoPoint/rest/PublicMessages/GetAllMessages"),
+    VEHICLES("InfoPoint/rest/Vehicles/GetAllVehicles");
+
+    private final String path;
+
+    Endpoint(String path) {
+        this.path = path;
+    }
+
+    /**
+     * @return the endpoint's path, relative to the API base URL
+     */
+    public String getPath() {
+        return path;
+    }
+}
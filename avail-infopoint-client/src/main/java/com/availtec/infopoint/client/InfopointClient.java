@@ -1,97 +1,517 @@
 package com.availtec.infopoint.client;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.ArrayOfPublicMessage;
 import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.ArrayOfRoute;
 import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.ArrayOfVehicleLocation;
 
+import javax.annotation.Nullable;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import static java.net.http.HttpClient.Redirect.NORMAL;
 import static java.net.http.HttpResponse.BodyHandlers.ofInputStream;
 
+/**
+ * Client for the Avail InfoPoint REST API. Instances are safe for use by
+ * multiple threads.
+ * <p>
+ * Every call is available both as a blocking method and as a method returning
+ * a {@link CompletableFuture}, which completes exceptionally with an
+ * {@link InfopointClientException} on failure. Each {@link Endpoint} has its
+ * own rate limit, so that a slow or busy endpoint does not hold up the others.
+ */
 public class InfopointClient {
 
-    private final Unmarshaller um;
+    private static final double DEFAULT_RATE_LIMIT = 2.0;
+    private static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private final JAXBContext jc;
+    // Unmarshallers are not thread-safe, so each call borrows one from this pool.
+    private final Queue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<>();
+    private final ExecutorService executor;
     private final HttpClient client;
-    private final RateLimiter rl;
+    private final Map<Endpoint, RateLimiter> rateLimiters = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Validators> validators = new ConcurrentHashMap<>();
+    private final Map<Endpoint, LongAdder> transferredBytes = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, LongAdder> decodedBytes = new EnumMap<>(Endpoint.class);
 
     private final URI urlBase;
 
+    private volatile Duration requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+    private volatile RequestTimingListener timingListener = RequestTimingListener.NONE;
+
     public InfopointClient(URL urlBase) throws URISyntaxException, InfopointClientException {
         this(urlBase.toURI());
     }
 
     public InfopointClient(URI urlBase) throws InfopointClientException {
         try {
-            JAXBContext jc = JAXBContext.newInstance(ArrayOfRoute.class, ArrayOfPublicMessage.class, ArrayOfVehicleLocation.class);
-            this.um = jc.createUnmarshaller();
+            this.jc = JAXBContext.newInstance(ArrayOfRoute.class, ArrayOfPublicMessage.class, ArrayOfVehicleLocation.class);
+            unmarshallers.add(jc.createUnmarshaller());
         } catch (JAXBException e) {
             throw new InfopointClientException(e);
         }
 
+        // Runs the HTTP client, rate limit waits and response parsing.
+        this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("infopoint-client-%d")
+                .setDaemon(true)
+                .build());
+
         this.client = HttpClient.newBuilder()
                 .followRedirects(NORMAL)
+                .executor(executor)
                 .build();
 
-        this.rl = RateLimiter.create(2.0);
+        for (Endpoint endpoint : Endpoint.values()) {
+            rateLimiters.put(endpoint, RateLimiter.create(DEFAULT_RATE_LIMIT));
+            transferredBytes.put(endpoint, new LongAdder());
+            decodedBytes.put(endpoint, new LongAdder());
+        }
 
         this.urlBase = urlBase;
     }
 
+    /**
+     * Sets the maximum rate of requests to an endpoint. The default is two
+     * requests per second.
+     */
+    public void setRateLimit(Endpoint endpoint, double permitsPerSecond) {
+        rateLimiters.get(endpoint).setRate(permitsPerSecond);
+    }
+
+    /**
+     * Sets how long to wait for the response to a request to begin. The
+     * default is 30 seconds.
+     */
+    public void setRequestTimeout(Duration requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public void setRequestTimingListener(RequestTimingListener timingListener) {
+        this.timingListener = timingListener;
+    }
+
+    /**
+     * @return the number of response body bytes received from an endpoint, as
+     * sent over the wire, which may be compressed
+     */
+    public long getTransferredBytes(Endpoint endpoint) {
+        return transferredBytes.get(endpoint).sum();
+    }
+
+    /**
+     * @return the number of response body bytes received from an endpoint,
+     * after decompression
+     */
+    public long getDecodedBytes(Endpoint endpoint) {
+        return decodedBytes.get(endpoint).sum();
+    }
+
     public ArrayOfRoute getAllRoutes() throws InfopointClientException {
-        try {
-            return get(ArrayOfRoute.class, "InfoPoint/rest/Routes/GetAllRoutes");
-        } catch (Exception e) {
-            throw new InfopointClientException(e);
-        }
+        return await(getAllRoutesAsync());
+    }
+
+    public CompletableFuture<ArrayOfRoute> getAllRoutesAsync() {
+        return fetch(Endpoint.ROUTES, unmarshaller(ArrayOfRoute.class));
     }
 
     public ArrayOfPublicMessage getAllMessages() throws InfopointClientException {
-        try {
-            return get(ArrayOfPublicMessage.class, "InfoPoint/rest/PublicMessages/GetAllMessages");
-        } catch (Exception e) {
-            throw new InfopointClientException(e);
-        }
+        return await(getAllMessagesAsync());
+    }
+
+    public CompletableFuture<ArrayOfPublicMessage> getAllMessagesAsync() {
+        return fetch(Endpoint.PUBLIC_MESSAGES, unmarshaller(ArrayOfPublicMessage.class));
+    }
+
+    /**
+     * Fetches the public messages unless they are unchanged since the last
+     * call to this method.
+     *
+     * @return the messages, or empty if they have not changed
+     */
+    public Optional<ArrayOfPublicMessage> getAllMessagesIfModified() throws InfopointClientException {
+        return await(getAllMessagesIfModifiedAsync());
+    }
+
+    public CompletableFuture<Optional<ArrayOfPublicMessage>> getAllMessagesIfModifiedAsync() {
+        return fetchIfModified(Endpoint.PUBLIC_MESSAGES, unmarshaller(ArrayOfPublicMessage.class));
     }
 
     public ArrayOfVehicleLocation getAllVehicles() throws InfopointClientException {
+        return await(getAllVehiclesAsync());
+    }
+
+    public CompletableFuture<ArrayOfVehicleLocation> getAllVehiclesAsync() {
+        return fetch(Endpoint.VEHICLES, unmarshaller(ArrayOfVehicleLocation.class));
+    }
+
+    /**
+     * Streams the current vehicle locations to {@code consumer} as they are
+     * read from the response, without building the JAXB object graph.
+     *
+     * @param timeZone zone in which to interpret {@code LastUpdated} values that carry no offset
+     */
+    public void getAllVehicles(ZoneId timeZone, Consumer<VehicleLocation> consumer) throws InfopointClientException {
+        await(getAllVehiclesAsync(timeZone, consumer));
+    }
+
+    /**
+     * Asynchronous form of {@link #getAllVehicles(ZoneId, Consumer)}. The
+     * consumer is called from a single client thread.
+     */
+    public CompletableFuture<Void> getAllVehiclesAsync(ZoneId timeZone, Consumer<VehicleLocation> consumer) {
+        return fetch(Endpoint.VEHICLES, vehicleLocationReader(timeZone, consumer)).thenApply(read -> null);
+    }
+
+    /**
+     * Streams the current vehicle locations to {@code consumer}, as
+     * {@link #getAllVehicles(ZoneId, Consumer)} does, unless they are
+     * unchanged since the last call to this method.
+     * <p>
+     * A server which supports conditional requests says so itself, and
+     * {@code consumer} is not called. Otherwise the response has to be read in
+     * full to tell, so {@code consumer} sees the same vehicles as last time
+     * before false is returned.
+     *
+     * @return false if the vehicle locations have not changed
+     */
+    public boolean getAllVehiclesIfModified(ZoneId timeZone, Consumer<VehicleLocation> consumer) throws InfopointClientException {
+        return await(getAllVehiclesIfModifiedAsync(timeZone, consumer));
+    }
+
+    public CompletableFuture<Boolean> getAllVehiclesIfModifiedAsync(ZoneId timeZone, Consumer<VehicleLocation> consumer) {
+        return fetchIfModified(Endpoint.VEHICLES, vehicleLocationReader(timeZone, consumer)).thenApply(Optional::isPresent);
+    }
+
+    private <T> BodyReader<T> unmarshaller(Class<T> contentClass) {
+        return body -> {
+            Unmarshaller um = unmarshallers.poll();
+
+            if (um == null) {
+                um = jc.createUnmarshaller();
+            }
+
+            try {
+                return contentClass.cast(um.unmarshal(body));
+            } finally {
+                unmarshallers.add(um);
+            }
+        };
+    }
+
+    private static BodyReader<Boolean> vehicleLocationReader(ZoneId timeZone, Consumer<VehicleLocation> consumer) {
+        return body -> {
+            new VehicleLocationReader(timeZone).read(body, consumer);
+            return true;
+        };
+    }
+
+    private <T> CompletableFuture<T> fetch(Endpoint endpoint, BodyReader<T> reader) {
+        return translateFailures(send(endpoint, null).thenApplyAsync(response -> {
+            try (InputStream raw = response.body()) {
+                checkStatus(response);
+
+                try (InputStream body = decode(endpoint, response)) {
+                    final long started = System.nanoTime();
+                    final T result = reader.read(body);
+                    timingListener.bodyParsed(endpoint, System.nanoTime() - started);
+                    return result;
+                }
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor));
+    }
+
+    /**
+     * Fetches an endpoint, sending the validators from the previous response
+     * so that the server can answer 304 Not Modified. For servers which send
+     * neither an {@code ETag} nor a {@code Last-Modified} header, a hash of
+     * the response body, taken as it is read, is compared with that of the
+     * previous response instead.
+     */
+    private <T> CompletableFuture<Optional<T>> fetchIfModified(Endpoint endpoint, BodyReader<T> reader) {
+        final Validators previous = validators.get(endpoint);
+
+        return translateFailures(send(endpoint, previous).thenApplyAsync(response -> {
+            try (InputStream raw = response.body()) {
+                if (response.statusCode() == 304) {
+                    // Without validators there is no previous response for it to refer to.
+                    if (previous == null) {
+                        throw new InfopointClientException("HTTP 304 to an unconditional request from " + response.uri());
+                    }
+
+                    return Optional.<T>empty();
+                }
+
+                checkStatus(response);
+
+                final T result;
+                final HashCode bodyHash;
+
+                try (HashingInputStream body = new HashingInputStream(Hashing.murmur3_128(), decode(endpoint, response))) {
+                    final long started = System.nanoTime();
+                    result = reader.read(new FilterInputStream(body) {
+                        @Override
+                        public void close() {
+                            // Parsers close their input at the end of the document, which may come
+                            // before the end of the body; the rest still has to be hashed.
+                        }
+                    });
+                    timingListener.bodyParsed(endpoint, System.nanoTime() - started);
+
+                    ByteStreams.exhaust(body);
+                    bodyHash = body.hash();
+                }
+
+                final Validators current = new Validators(
+                        response.headers().firstValue("ETag").orElse(null),
+                        response.headers().firstValue("Last-Modified").orElse(null),
+                        bodyHash);
+
+                // Only remember the response once it has been read successfully, so that a
+                // payload which failed to parse is not later mistaken for an unchanged one.
+                validators.put(endpoint, current);
+
+                if (current.etag == null && current.lastModified == null
+                        && previous != null && previous.bodyHash.equals(current.bodyHash)) {
+                    return Optional.<T>empty();
+                }
+
+                return Optional.of(result);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor));
+    }
+
+    private CompletableFuture<HttpResponse<InputStream>> send(Endpoint endpoint, @Nullable Validators validators) {
+        final RateLimiter rl = rateLimiters.get(endpoint);
+
+        // Only hop to another thread when the request actually has to wait for a permit.
+        final CompletableFuture<Void> permit = rl.tryAcquire()
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.runAsync(rl::acquire, executor);
+
+        final HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .uri(urlBase.resolve(endpoint.getPath()))
+                .headers("Accept", "application/xml", "Accept-Encoding", "gzip, deflate")
+                .timeout(requestTimeout)
+                .GET();
+
+        if (validators != null && validators.etag != null) {
+            requestBuilder.header("If-None-Match", validators.etag);
+        }
+
+        if (validators != null && validators.lastModified != null) {
+            requestBuilder.header("If-Modified-Since", validators.lastModified);
+        }
+
+        final HttpRequest request = requestBuilder.build();
+
+        return permit.thenCompose(v -> {
+            final long sent = System.nanoTime();
+
+            return client.sendAsync(request, ofInputStream()).thenApply(response -> {
+                timingListener.responseReceived(endpoint, System.nanoTime() - sent);
+                return response;
+            });
+        });
+    }
+
+    /**
+     * Wraps the body of a successful response so that it is decompressed
+     * according to its {@code Content-Encoding}, counting the bytes read on
+     * either side of the decompression.
+     */
+    private InputStream decode(Endpoint endpoint, HttpResponse<InputStream> response) throws IOException, InfopointClientException {
+        final InputStream transferred = new CountingInputStream(response.body(), transferredBytes.get(endpoint));
+        final String encoding = response.headers().firstValue("Content-Encoding").orElse("identity").trim().toLowerCase(Locale.ROOT);
+
+        final InputStream decoded;
+
+        switch (encoding) {
+            case "identity":
+                return new CountingInputStream(transferred, decodedBytes.get(endpoint));
+            case "gzip":
+            case "x-gzip":
+                decoded = new GZIPInputStream(transferred);
+                break;
+            case "deflate":
+                decoded = inflate(transferred);
+                break;
+            default:
+                transferred.close();
+                throw new InfopointClientException("Unsupported Content-Encoding " + encoding + " from " + response.uri());
+        }
+
+        return new CountingInputStream(decoded, decodedBytes.get(endpoint));
+    }
+
+    /**
+     * HTTP deflate is meant to be zlib-wrapped, but some servers send a raw
+     * deflate stream, so check for a zlib header before choosing.
+     */
+    private static InputStream inflate(InputStream in) throws IOException {
+        final PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        final byte[] header = new byte[2];
+        final int read = pushback.readNBytes(header, 0, 2);
+
+        pushback.unread(header, 0, read);
+
+        final int cmf = header[0] & 0xff;
+        final int flg = header[1] & 0xff;
+        final boolean zlib = read == 2 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+
+        final Inflater inflater = new Inflater(!zlib);
+
+        return new InflaterInputStream(pushback, inflater) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    private static void checkStatus(HttpResponse<?> response) throws InfopointClientException {
+        if (400 <= response.statusCode() && response.statusCode() < 600) {
+            throw new InfopointClientException("HTTP " + response.statusCode() + " from " + response.uri());
+        }
+    }
+
+    /**
+     * Completes the returned future with an {@link InfopointClientException}
+     * whatever the cause of the failure.
+     */
+    private static <T> CompletableFuture<T> translateFailures(CompletableFuture<T> future) {
+        return future.handle((result, t) -> {
+            if (t == null) {
+                return result;
+            }
+
+            final Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+
+            throw new CompletionException(cause instanceof InfopointClientException
+                    ? cause
+                    : new InfopointClientException(cause));
+        });
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws InfopointClientException {
         try {
-            return get(ArrayOfVehicleLocation.class, "InfoPoint/rest/Vehicles/GetAllVehicles");
-        } catch (Exception e) {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
             throw new InfopointClientException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InfopointClientException) {
+                throw (InfopointClientException) e.getCause();
+            }
+
+            throw new InfopointClientException(e.getCause());
         }
     }
 
-    private <T> T get(Class<T> contentClass, String endpoint) throws JAXBException, IOException, InterruptedException, URISyntaxException {
-        rl.acquire();
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(InputStream body) throws Exception;
+    }
 
-        final URI uri = urlBase.resolve(endpoint);
+    private static final class CountingInputStream extends FilterInputStream {
+        private final LongAdder count;
 
-        final HttpRequest request = HttpRequest.newBuilder()
-                .uri(uri)
-                .headers("Accept", "application/xml")
-                .GET()
-                .build();
+        CountingInputStream(InputStream in, LongAdder count) {
+            super(in);
+            this.count = count;
+        }
 
-        final HttpResponse<InputStream> response = client.send(request, ofInputStream());
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
 
-        if (400 <= response.statusCode() && response.statusCode() < 600) {
-            throw new RuntimeException(String.valueOf(response.statusCode()));
+            if (b >= 0) {
+                count.increment();
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int n = super.read(b, off, len);
+
+            if (n > 0) {
+                count.add(n);
+            }
+
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            count.add(skipped);
+            return skipped;
         }
 
-        return contentClass.cast(um.unmarshal(response.body()));
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
     }
 
-}
+    private static final class Validators {
+        private final String etag;
+        private final String lastModified;
+        private final HashCode bodyHash;
+
+        Validators(@Nullable String etag, @Nullable String lastModified, HashCode bodyHash) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.bodyHash = bodyHash;
+        }
+    }
 
+}
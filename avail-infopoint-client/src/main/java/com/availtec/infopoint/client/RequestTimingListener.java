@@ -0,0 +1,32 @@
+package com.availtec.infopoint.client;
+
+/**
+ * Receives the time spent on each request made by an {@link InfopointClient}.
+ * Methods are called on client threads, so implementations must be
+ * thread-safe and return quickly.
+ */
+public interface RequestTimingListener {
+
+    RequestTimingListener NONE = new RequestTimingListener() {
+    };
+
+    /**
+     * Called when the response headers have arrived.
+     *
+     * @param nanos time from sending the request, after any wait for the rate
+     *              limit, until the response headers arrived
+     */
+    default void responseReceived(Endpoint endpoint, long nanos) {
+    }
+
+    /**
+     * Called when the response body has been parsed. Responses which are
+     * unchanged since the previous request are not parsed, and are not
+     * reported.
+     *
+     * @param nanos time spent parsing the body; when the body is parsed as it
+     *              is received, this includes the time spent receiving it
+     */
+    default void bodyParsed(Endpoint endpoint, long nanos) {
+    }
+}
@@ -0,0 +1,105 @@
+package com.availtec.infopoint.client;
+
+import java.util.Objects;
+
+/**
+ * The subset of a GetAllVehicles {@code VehicleLocation} element needed to
+ * place a vehicle on a trip, as read by the streaming vehicle parser.
+ * Two locations are equal when every field is equal, so an unchanged vehicle
+ * can be recognised from one response to the next.
+ */
+public final class VehicleLocation {
+
+    private final int vehicleId;
+    private final String name;
+    private final int routeId;
+    private final String destination;
+    private final int deviation;
+    private final String lastStop;
+    private final long lastUpdated;
+    private final double latitude;
+    private final double longitude;
+
+    public VehicleLocation(int vehicleId, String name, int routeId, String destination, int deviation,
+                           String lastStop, long lastUpdated, double latitude, double longitude) {
+        this.vehicleId = vehicleId;
+        this.name = name;
+        this.routeId = routeId;
+        this.destination = destination;
+        this.deviation = deviation;
+        this.lastStop = lastStop;
+        this.lastUpdated = lastUpdated;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    public int getVehicleId() {
+        return vehicleId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getRouteId() {
+        return routeId;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    /**
+     * @return schedule deviation in minutes, positive when late
+     */
+    public int getDeviation() {
+        return deviation;
+    }
+
+    public String getLastStop() {
+        return lastStop;
+    }
+
+    /**
+     * @return time of the vehicle's last report, in seconds since the epoch
+     */
+    public long getLastUpdated() {
+        return lastUpdated;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof VehicleLocation)) {
+            return false;
+        }
+
+        final VehicleLocation that = (VehicleLocation) o;
+
+        return vehicleId == that.vehicleId
+                && routeId == that.routeId
+                && deviation == that.deviation
+                && lastUpdated == that.lastUpdated
+                && Double.compare(latitude, that.latitude) == 0
+                && Double.compare(longitude, that.longitude) == 0
+                && Objects.equals(name, that.name)
+                && Objects.equals(destination, that.destination)
+                && Objects.equals(lastStop, that.lastStop);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(vehicleId, lastUpdated, latitude, longitude);
+    }
+}
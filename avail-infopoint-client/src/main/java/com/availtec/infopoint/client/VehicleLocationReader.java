@@ -0,0 +1,242 @@
+package com.availtec.infopoint.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+import java.util.function.Consumer;
+
+import static javax.xml.stream.XMLStreamConstants.END_ELEMENT;
+import static javax.xml.stream.XMLStreamConstants.START_ELEMENT;
+
+/**
+ * Pulls {@code VehicleLocation} elements out of a GetAllVehicles response one
+ * at a time, reading only the fields {@link VehicleLocation} holds. A
+ * vehicle with a malformed field is logged and skipped, and the rest of the
+ * response is still read.
+ * <p>
+ * {@link InfopointClient} uses a reader for every GetAllVehicles request;
+ * a reader can also be used on its own, on a response obtained some other
+ * way. Instances cache time zone offsets and are not thread-safe.
+ */
+public class VehicleLocationReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VehicleLocationReader.class);
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+
+    static {
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    private final ZoneRules zoneRules;
+
+    private long cachedLocalHour = Long.MIN_VALUE;
+    private int cachedOffsetSeconds;
+
+    /**
+     * @param timeZone zone used for {@code LastUpdated} values that carry no offset
+     */
+    public VehicleLocationReader(ZoneId timeZone) {
+        this.zoneRules = timeZone.getRules();
+    }
+
+    /**
+     * Reads a GetAllVehicles response, passing each vehicle to the consumer
+     * as soon as it has been read.
+     */
+    public void read(InputStream in, Consumer<VehicleLocation> consumer) throws XMLStreamException {
+        final XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == START_ELEMENT && reader.getLocalName().equals("VehicleLocation")) {
+                    final VehicleLocation vl = readVehicleLocation(reader);
+
+                    if (vl != null) {
+                        consumer.accept(vl);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the vehicle, or null if one of its fields is malformed
+     */
+    @Nullable
+    private VehicleLocation readVehicleLocation(XMLStreamReader reader) throws XMLStreamException {
+        int vehicleId = 0;
+        String name = null;
+        int routeId = 0;
+        String destination = null;
+        int deviation = 0;
+        String lastStop = null;
+        long lastUpdated = 0;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        boolean malformed = false;
+
+        while (reader.nextTag() == START_ELEMENT) {
+            // Each field's text is read in full before it is parsed, so a parse failure leaves the
+            // reader at the field's end tag, and the vehicle's remaining fields can be skipped over.
+            try {
+                switch (reader.getLocalName()) {
+                    case "VehicleId":
+                        vehicleId = Integer.parseInt(reader.getElementText().trim());
+                        break;
+                    case "Name":
+                        name = reader.getElementText();
+                        break;
+                    case "RouteId":
+                        routeId = Integer.parseInt(reader.getElementText().trim());
+                        break;
+                    case "Destination":
+                        destination = reader.getElementText();
+                        break;
+                    case "Deviation":
+                        deviation = Integer.parseInt(reader.getElementText().trim());
+                        break;
+                    case "LastStop":
+                        lastStop = reader.getElementText();
+                        break;
+                    case "LastUpdated":
+                        lastUpdated = parseDateTime(reader.getElementText().trim());
+                        break;
+                    case "Latitude":
+                        latitude = Double.parseDouble(reader.getElementText().trim());
+                        break;
+                    case "Longitude":
+                        longitude = Double.parseDouble(reader.getElementText().trim());
+                        break;
+                    default:
+                        skipElement(reader);
+                }
+            } catch (NumberFormatException | DateTimeException e) {
+                LOG.warn("Skipping VehicleLocation with malformed {}: {}", reader.getLocalName(), e.getMessage());
+                malformed = true;
+            }
+        }
+
+        if (malformed) {
+            return null;
+        }
+
+        return new VehicleLocation(vehicleId, name, routeId, destination, deviation, lastStop, lastUpdated, latitude, longitude);
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+
+        while (depth > 0) {
+            final int event = reader.next();
+
+            if (event == START_ELEMENT) {
+                depth++;
+            } else if (event == END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Parses an {@code xs:dateTime} of the form {@code yyyy-MM-ddTHH:mm:ss},
+     * with optional fractional seconds and an optional {@code Z},
+     * {@code +hh:mm} or {@code -hh:mm} offset, to seconds since the epoch.
+     * A value without an offset is in the reader's time zone.
+     *
+     * @throws NumberFormatException if the text is not of that form
+     * @throws DateTimeException     if a field is out of range
+     */
+    long parseDateTime(String text) {
+        if (text.length() < 19 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            throw invalidDateTime(text);
+        }
+
+        final int year = digits(text, 0, 4);
+        final int month = digits(text, 5, 2);
+        final int day = digits(text, 8, 2);
+        final int hour = digits(text, 11, 2);
+        final int minute = digits(text, 14, 2);
+        final int second = digits(text, 17, 2);
+
+        final long localEpochSecond = LocalDate.of(year, month, day).toEpochDay() * 86400
+                + hour * 3600 + minute * 60 + second;
+
+        int position = 19;
+
+        if (position < text.length() && text.charAt(position) == '.') {
+            position++;
+
+            while (position < text.length() && Character.isDigit(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        if (position == text.length()) {
+            return localEpochSecond - localOffsetSeconds(localEpochSecond);
+        }
+
+        final char designator = text.charAt(position);
+
+        if (designator == 'Z' && position + 1 == text.length()) {
+            return localEpochSecond;
+        }
+
+        if ((designator != '+' && designator != '-') || position + 6 != text.length() || text.charAt(position + 3) != ':') {
+            throw invalidDateTime(text);
+        }
+
+        final int offsetSeconds = digits(text, position + 1, 2) * 3600 + digits(text, position + 4, 2) * 60;
+
+        return designator == '-' ? localEpochSecond + offsetSeconds : localEpochSecond - offsetSeconds;
+    }
+
+    private int localOffsetSeconds(long localEpochSecond) {
+        // Offsets only change on hour boundaries, and a response's timestamps are nearly all within the same hour.
+        final long localHour = Math.floorDiv(localEpochSecond, 3600);
+
+        if (localHour != cachedLocalHour) {
+            cachedOffsetSeconds = zoneRules.getOffset(LocalDateTime.ofEpochSecond(localEpochSecond, 0, ZoneOffset.UTC))
+                    .getTotalSeconds();
+            cachedLocalHour = localHour;
+        }
+
+        return cachedOffsetSeconds;
+    }
+
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+
+        for (int i = start; i < start + count; i++) {
+            final char c = text.charAt(i);
+
+            if (c < '0' || c > '9') {
+                throw invalidDateTime(text);
+            }
+
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    private static NumberFormatException invalidDateTime(String text) {
+        return new NumberFormatException("Invalid dateTime: " + text);
+    }
+}
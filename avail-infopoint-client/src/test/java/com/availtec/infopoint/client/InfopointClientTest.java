@@ -0,0 +1,208 @@
+package com.availtec.infopoint.client;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InfopointClientTest {
+
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    private final Queue<HttpHandler> responses = new ConcurrentLinkedQueue<>();
+    private final List<Headers> requests = new CopyOnWriteArrayList<>();
+
+    private HttpServer server;
+    private InfopointClient client;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requests.add(exchange.getRequestHeaders());
+            responses.remove().handle(exchange);
+        });
+        server.start();
+
+        client = new InfopointClient(URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/"));
+        client.setRateLimit(Endpoint.VEHICLES, 100);
+        client.setRequestTimeout(Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void notModifiedResponse() throws Exception {
+        responses.add(ok(vehicles("3201"), "ETag", "\"1\""));
+        responses.add(notModified());
+
+        final List<VehicleLocation> first = new ArrayList<>();
+        assertTrue(client.getAllVehiclesIfModified(NEW_YORK, first::add));
+        assertEquals(1, first.size());
+
+        final List<VehicleLocation> second = new ArrayList<>();
+        assertFalse(client.getAllVehiclesIfModified(NEW_YORK, second::add));
+        assertTrue(second.isEmpty());
+
+        assertNull(requests.get(0).getFirst("If-None-Match"));
+        assertEquals("\"1\"", requests.get(1).getFirst("If-None-Match"));
+    }
+
+    @Test
+    void unchangedBodyWithoutValidators() throws Exception {
+        responses.add(ok(vehicles("3201")));
+        responses.add(ok(vehicles("3201")));
+        responses.add(ok(vehicles("3202")));
+
+        final List<VehicleLocation> read = new ArrayList<>();
+
+        assertTrue(client.getAllVehiclesIfModified(NEW_YORK, read::add));
+        // The body has to be read in full to tell it is unchanged.
+        assertFalse(client.getAllVehiclesIfModified(NEW_YORK, read::add));
+        assertTrue(client.getAllVehiclesIfModified(NEW_YORK, read::add));
+
+        assertEquals(3, read.size());
+        assertEquals(3202, read.get(2).getVehicleId());
+    }
+
+    @Test
+    void notModifiedResponseToUnconditionalRequest() {
+        responses.add(notModified());
+
+        final List<VehicleLocation> read = new ArrayList<>();
+
+        final InfopointClientException e = assertThrows(InfopointClientException.class,
+                () -> client.getAllVehiclesIfModified(NEW_YORK, read::add));
+
+        // Rejected as it stands, rather than read as an empty document.
+        assertTrue(e.getMessage().startsWith("HTTP 304"));
+        assertTrue(read.isEmpty());
+    }
+
+    @Test
+    void gzipBody() throws Exception {
+        responses.add(ok(gzip(vehicles("3201", "3202")), "Content-Encoding", "gzip"));
+
+        assertEquals(List.of(3201, 3202), vehicleIds());
+        assertEquals("gzip, deflate", requests.get(0).getFirst("Accept-Encoding"));
+    }
+
+    @Test
+    void zlibDeflateBody() throws Exception {
+        responses.add(ok(deflate(vehicles("3201", "3202"), false), "Content-Encoding", "deflate"));
+
+        assertEquals(List.of(3201, 3202), vehicleIds());
+    }
+
+    @Test
+    void rawDeflateBody() throws Exception {
+        // Sent by some servers in place of the zlib stream HTTP calls for.
+        responses.add(ok(deflate(vehicles("3201", "3202"), true), "Content-Encoding", "Deflate"));
+
+        assertEquals(List.of(3201, 3202), vehicleIds());
+    }
+
+    @Test
+    void unsupportedEncoding() {
+        responses.add(ok(vehicles("3201"), "Content-Encoding", "br"));
+
+        final InfopointClientException e = assertThrows(InfopointClientException.class, this::vehicleIds);
+
+        assertTrue(e.getMessage().startsWith("Unsupported Content-Encoding br"));
+    }
+
+    private List<Integer> vehicleIds() throws InfopointClientException {
+        final List<Integer> vehicleIds = new ArrayList<>();
+        client.getAllVehicles(NEW_YORK, vl -> vehicleIds.add(vl.getVehicleId()));
+        return vehicleIds;
+    }
+
+    private static HttpHandler ok(byte[] body, String... headers) {
+        return exchange -> {
+            for (int i = 0; i < headers.length; i += 2) {
+                exchange.getResponseHeaders().add(headers[i], headers[i + 1]);
+            }
+
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        };
+    }
+
+    private static HttpHandler notModified() {
+        return exchange -> {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+        };
+    }
+
+    private static byte[] gzip(byte[] body) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(body);
+        }
+
+        return compressed.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] body, boolean nowrap) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap);
+
+        try (OutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+            out.write(body);
+        } finally {
+            deflater.end();
+        }
+
+        return compressed.toByteArray();
+    }
+
+    private static byte[] vehicles(String... vehicleIds) {
+        final StringBuilder response = new StringBuilder("<ArrayOfVehicleLocation xmlns=\"http://schemas.datacontract.org/2004/07/Availtec.MyAvail.TIDS.DataManager.Models\">");
+
+        for (String vehicleId : vehicleIds) {
+            response.append("<VehicleLocation>")
+                    .append("<Destination>B43 Amherst</Destination>")
+                    .append("<Deviation>2</Deviation>")
+                    .append("<LastStop>Haigis Mall</LastStop>")
+                    .append("<LastUpdated>2019-05-14T08:00:30</LastUpdated>")
+                    .append("<Latitude>42.39</Latitude>")
+                    .append("<Longitude>-72.52</Longitude>")
+                    .append("<Name>").append(vehicleId).append("</Name>")
+                    .append("<RouteId>43</RouteId>")
+                    .append("<VehicleId>").append(vehicleId).append("</VehicleId>")
+                    .append("</VehicleLocation>");
+        }
+
+        return response.append("</ArrayOfVehicleLocation>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
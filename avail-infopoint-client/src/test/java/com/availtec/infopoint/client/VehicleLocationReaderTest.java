@@ -0,0 +1,111 @@
+package com.availtec.infopoint.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VehicleLocationReaderTest {
+
+    private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    private final VehicleLocationReader reader = new VehicleLocationReader(NEW_YORK);
+
+    @Test
+    void readsVehicles() throws Exception {
+        final List<VehicleLocation> vehicles = read(
+                vehicle("3201", "B43", "2019-05-14T08:00:30", "42.39", "-72.52")
+                        + vehicle("3202", "R10", "2019-05-14T08:00:45", "42.10", "-72.59"));
+
+        assertEquals(2, vehicles.size());
+        assertEquals(new VehicleLocation(3201, "3201", 43, "B43 Amherst", 2, "Haigis Mall",
+                epochSecond("2019-05-14T08:00:30-04:00"), 42.39, -72.52), vehicles.get(0));
+        assertEquals(3202, vehicles.get(1).getVehicleId());
+    }
+
+    @Test
+    void skipsMalformedVehicles() throws Exception {
+        final List<VehicleLocation> vehicles = read(
+                vehicle("32O1", "B43", "2019-05-14T08:00:30", "42.39", "-72.52")
+                        + vehicle("3202", "B43", "2019-05-14T08:00", "42.39", "-72.52")
+                        + vehicle("3203", "B43", "2019-13-14T08:00:30", "42.39", "-72.52")
+                        + vehicle("3204", "B43", "2019-05-14T08:00:30", "", "-72.52")
+                        + vehicle("3205", "B43", "2019-05-14T08:00:30", "42.39", "-72.52"));
+
+        assertEquals(1, vehicles.size());
+        assertEquals(3205, vehicles.get(0).getVehicleId());
+    }
+
+    @Test
+    void dateTimeWithOffset() {
+        assertEquals(epochSecond("2019-05-14T12:00:30Z"), reader.parseDateTime("2019-05-14T12:00:30Z"));
+        assertEquals(epochSecond("2019-05-14T12:00:30Z"), reader.parseDateTime("2019-05-14T17:30:30+05:30"));
+        assertEquals(epochSecond("2019-05-14T12:00:30Z"), reader.parseDateTime("2019-05-14T08:00:30-04:00"));
+        assertEquals(epochSecond("2019-05-14T12:00:30Z"), reader.parseDateTime("2019-05-14T08:00:30.9876543-04:00"));
+    }
+
+    @Test
+    void dateTimeWithoutOffset() {
+        assertEquals(epochSecond("2019-05-14T08:00:30-04:00"), reader.parseDateTime("2019-05-14T08:00:30"));
+        assertEquals(epochSecond("2019-05-14T08:00:30-04:00"), reader.parseDateTime("2019-05-14T08:00:30.25"));
+        assertEquals(epochSecond("2019-01-14T08:00:30-05:00"), reader.parseDateTime("2019-01-14T08:00:30"));
+    }
+
+    @Test
+    void dateTimeAcrossDaylightSavingTime() {
+        // Parsed in turn, so that each hour is looked up after the cached offset of the one before.
+        for (String local : new String[]{
+                "2019-03-10T01:59:59", "2019-03-10T02:30:00", "2019-03-10T03:00:00", "2019-03-10T03:00:01",
+                "2019-11-03T00:59:59", "2019-11-03T01:30:00", "2019-11-03T02:00:00", "2019-11-03T01:30:00"}) {
+            assertEquals(LocalDateTime.parse(local).atZone(NEW_YORK).toEpochSecond(), reader.parseDateTime(local), local);
+        }
+    }
+
+    @Test
+    void invalidDateTime() {
+        for (String text : new String[]{"", "2019-05-14", "2019-05-14 08:00:30", "2019-05-14T08:00:3x",
+                "2019-05-14T08:00:30+05", "2019-05-14T08:00:30+0530", "2019-05-14T08:00:30Zulu", "2019-05-14T08:00:30?"}) {
+            assertThrows(NumberFormatException.class, () -> reader.parseDateTime(text));
+        }
+
+        assertThrows(DateTimeException.class, () -> reader.parseDateTime("2019-02-30T08:00:30"));
+    }
+
+    private List<VehicleLocation> read(String vehicles) throws Exception {
+        final String response = "<ArrayOfVehicleLocation xmlns=\"http://schemas.datacontract.org/2004/07/Availtec.MyAvail.TIDS.DataManager.Models\">"
+                + vehicles + "</ArrayOfVehicleLocation>";
+        final List<VehicleLocation> result = new ArrayList<>();
+
+        reader.read(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), result::add);
+
+        return result;
+    }
+
+    private static String vehicle(String vehicleId, String route, String lastUpdated, String latitude, String longitude) {
+        return "<VehicleLocation>"
+                + "<Destination>" + route + " Amherst</Destination>"
+                + "<Deviation>2</Deviation>"
+                + "<Heading>90</Heading>"
+                + "<LastStop>Haigis Mall</LastStop>"
+                + "<LastUpdated>" + lastUpdated + "</LastUpdated>"
+                + "<Latitude>" + latitude + "</Latitude>"
+                + "<Longitude>" + longitude + "</Longitude>"
+                + "<Name>" + vehicleId + "</Name>"
+                + "<OnBoard><Count>3</Count></OnBoard>"
+                + "<RouteId>" + route.substring(1) + "</RouteId>"
+                + "<VehicleId>" + vehicleId + "</VehicleId>"
+                + "</VehicleLocation>";
+    }
+
+    private static long epochSecond(String dateTime) {
+        return OffsetDateTime.parse(dateTime).toEpochSecond();
+    }
+}
@@ -0,0 +1,111 @@
+package com.kurtraschke.pvtagtfsrealtime.benchmarks;
+
+import com.kurtraschke.pvtagtfsrealtime.resolvers.DistanceMetric;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranks candidate positions by their distance from a vehicle, as trip
+ * resolution does, with each {@link DistanceMetric}.
+ * <p>
+ * Before measuring, checks that both metrics pick the same nearest candidate
+ * for every vehicle, unless the two nearest are within
+ * {@link #TIE_METERS} of each other, and fails the trial if they do not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DistanceMetricBenchmark {
+
+    private static final int VEHICLES = 1000;
+    private static final int CANDIDATES = 16;
+
+    private static final double TIE_METERS = 1;
+
+    @Param({"EQUIRECTANGULAR", "ELLIPSOIDAL"})
+    public DistanceMetric distanceMetric;
+
+    private final double[] vehicleLats = new double[VEHICLES];
+    private final double[] vehicleLons = new double[VEHICLES];
+    private final double[] candidateLats = new double[VEHICLES * CANDIDATES];
+    private final double[] candidateLons = new double[VEHICLES * CANDIDATES];
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+
+        // Vehicles across a 40 km square, with candidates up to 2 km away.
+        for (int i = 0; i < VEHICLES; i++) {
+            vehicleLats[i] = 42.1 + (random.nextDouble() - 0.5) * 0.36;
+            vehicleLons[i] = -72.6 + (random.nextDouble() - 0.5) * 0.48;
+
+            for (int j = 0; j < CANDIDATES; j++) {
+                candidateLats[i * CANDIDATES + j] = vehicleLats[i] + (random.nextDouble() - 0.5) * 0.036;
+                candidateLons[i * CANDIDATES + j] = vehicleLons[i] + (random.nextDouble() - 0.5) * 0.048;
+            }
+        }
+
+        int disagreements = 0;
+
+        for (int i = 0; i < VEHICLES; i++) {
+            final int fast = nearest(DistanceMetric.EQUIRECTANGULAR, i);
+            final int exact = nearest(DistanceMetric.ELLIPSOIDAL, i);
+
+            if (fast != exact && distance(DistanceMetric.ELLIPSOIDAL, i, fast) - distance(DistanceMetric.ELLIPSOIDAL, i, exact) > TIE_METERS) {
+                disagreements++;
+            }
+        }
+
+        if (disagreements > 0) {
+            throw new IllegalStateException(disagreements + " of " + VEHICLES
+                    + " vehicles ranked differently by equirectangular and ellipsoidal distance");
+        }
+    }
+
+    @Benchmark
+    public int rankCandidates() {
+        int sum = 0;
+
+        for (int i = 0; i < VEHICLES; i++) {
+            sum += nearest(distanceMetric, i);
+        }
+
+        return sum;
+    }
+
+    private int nearest(DistanceMetric metric, int vehicle) {
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+
+        for (int j = 0; j < CANDIDATES; j++) {
+            final double distance = distance(metric, vehicle, j);
+
+            if (distance < bestDistance) {
+                best = j;
+                bestDistance = distance;
+            }
+        }
+
+        return best;
+    }
+
+    private double distance(DistanceMetric metric, int vehicle, int candidate) {
+        return metric.distance(candidateLats[vehicle * CANDIDATES + candidate], candidateLons[vehicle * CANDIDATES + candidate],
+                vehicleLats[vehicle], vehicleLons[vehicle]);
+    }
+}
@@ -0,0 +1,213 @@
+package com.kurtraschke.pvtagtfsrealtime.benchmarks;
+
+import com.availtec.infopoint.client.VehicleLocation;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.name.Names;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.predictions.TripUpdatePredictor;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.CurrentStopResolver;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.DistanceMetric;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.ServiceDayCache;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.ShapeGeometry;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.ShapeSegmentIndex;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.TripAssignment;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.TripCandidateIndex;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.TripEnvelopeTable;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.VehicleToTripResolver;
+import org.nnsoft.guice.sli4j.slf4j.Slf4jLoggingModule;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matches a whole fleet, one GetAllVehicles response at a time, as the
+ * vehicle producer does: by route and headsign, falling back to location.
+ * <p>
+ * {@link #resolveFleet} cycles through the snapshots with one resolver, so
+ * that, as in production, most vehicles continue their previous assignment.
+ * {@link #resolveFleetFromScratch} gives each invocation a new resolver, so
+ * that every vehicle is searched for among all candidate trips with cold
+ * caches, as after a restart or a GTFS reload. {@link #stopsAndPredictions}
+ * covers the stages after a vehicle is matched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResolutionBenchmark {
+
+    private static final int SNAPSHOTS = 20;
+
+    @Param({"EQUIRECTANGULAR", "ELLIPSOIDAL"})
+    public DistanceMetric distanceMetric;
+
+    private Path gtfsDirectory;
+    private Injector injector;
+    private GtfsStore store;
+
+    private List<List<VehicleLocation>> snapshots;
+    private int[][] routeIndices;
+    private int nextSnapshot;
+
+    private VehicleToTripResolver resolver;
+    private CurrentStopResolver currentStopResolver;
+    private TripUpdatePredictor tripUpdatePredictor;
+
+    private List<VehicleLocation> matchedVehicles;
+    private List<TripAssignment> assignments;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final SyntheticFeed feed = new SyntheticFeed(SyntheticFeed.DEFAULT_ROUTE_COUNT, SNAPSHOTS);
+
+        gtfsDirectory = Files.createTempDirectory("pvta-benchmark-gtfs");
+        feed.writeGtfs(gtfsDirectory);
+        store = GtfsStore.fromDao(readGtfs(gtfsDirectory));
+
+        injector = Guice.createInjector(new Slf4jLoggingModule(), binder -> {
+            binder.bind(GtfsStore.class).toInstance(store);
+            binder.bindConstant().annotatedWith(Names.named("tripResolution.distanceMetric")).to(distanceMetric);
+        });
+
+        snapshots = new ArrayList<>();
+        routeIndices = new int[SNAPSHOTS][];
+
+        for (int snapshot = 0; snapshot < SNAPSHOTS; snapshot++) {
+            final List<VehicleLocation> vehicles = feed.vehicles(snapshot);
+
+            snapshots.add(vehicles);
+            routeIndices[snapshot] = vehicles.stream()
+                    .mapToInt(vl -> store.routeIndexOf(new AgencyAndId(SyntheticFeed.AGENCY_ID,
+                            SyntheticFeed.routeId(vl.getRouteId() - SyntheticFeed.infopointRouteId(0)))))
+                    .toArray();
+        }
+
+        resolver = injector.getInstance(VehicleToTripResolver.class);
+        currentStopResolver = injector.getInstance(CurrentStopResolver.class);
+        tripUpdatePredictor = injector.getInstance(TripUpdatePredictor.class);
+
+        matchedVehicles = new ArrayList<>();
+        assignments = new ArrayList<>();
+
+        for (int i = 0; i < snapshots.get(0).size(); i++) {
+            final VehicleLocation vl = snapshots.get(0).get(i);
+            final TripAssignment assignment = resolve(resolver, vl, routeIndices[0][i]);
+
+            if (assignment != null) {
+                matchedVehicles.add(vl);
+                assignments.add(assignment);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        MoreFiles.deleteRecursively(gtfsDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Benchmark
+    public void resolveFleet(Blackhole bh) {
+        final int snapshot = nextSnapshot;
+        nextSnapshot = (nextSnapshot + 1) % SNAPSHOTS;
+
+        resolveSnapshot(resolver, snapshot, bh);
+    }
+
+    @Benchmark
+    public void resolveFleetFromScratch(FreshResolver fresh, Blackhole bh) {
+        resolveSnapshot(fresh.resolver, 0, bh);
+    }
+
+    @Benchmark
+    public void stopsAndPredictions(Blackhole bh) {
+        for (int i = 0; i < assignments.size(); i++) {
+            final VehicleLocation vl = matchedVehicles.get(i);
+            final TripAssignment assignment = assignments.get(i);
+            final int currentStopTime = currentStopResolver.resolveCurrentStop(assignment, vl.getLastStop());
+
+            bh.consume(tripUpdatePredictor.predict(assignment, currentStopTime, 60 * vl.getDeviation()));
+        }
+    }
+
+    private void resolveSnapshot(VehicleToTripResolver resolver, int snapshot, Blackhole bh) {
+        final List<VehicleLocation> vehicles = snapshots.get(snapshot);
+
+        for (int i = 0; i < vehicles.size(); i++) {
+            bh.consume(resolve(resolver, vehicles.get(i), routeIndices[snapshot][i]));
+        }
+    }
+
+    private static TripAssignment resolve(VehicleToTripResolver resolver, VehicleLocation vl, int routeIndex) {
+        try {
+            return resolver.resolveVehicle(vl, routeIndex);
+        } catch (NoSuchElementException e) {
+            try {
+                return resolver.resolveVehicleByLocation(vl, routeIndex);
+            } catch (NoSuchElementException e2) {
+                return null;
+            }
+        }
+    }
+
+    private static GtfsRelationalDaoImpl readGtfs(Path gtfsDirectory) throws IOException {
+        final GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+        final GtfsReader reader = new GtfsReader();
+
+        reader.setEntityStore(dao);
+        reader.setInputLocation(gtfsDirectory.toFile());
+        reader.run();
+        reader.close();
+
+        return dao;
+    }
+
+    /**
+     * A resolver with no previous assignments and empty caches, built anew for
+     * each invocation from the shared indexes.
+     */
+    @State(Scope.Thread)
+    public static class FreshResolver {
+        private VehicleToTripResolver resolver;
+
+        @Setup(Level.Invocation)
+        public void setUp(ResolutionBenchmark benchmark) {
+            final Injector injector = benchmark.injector;
+
+            resolver = new VehicleToTripResolver(benchmark.store,
+                    injector.getInstance(TripEnvelopeTable.class),
+                    injector.getInstance(TripCandidateIndex.class),
+                    injector.getInstance(ServiceDayCache.class),
+                    injector.getInstance(ShapeGeometry.class),
+                    injector.getInstance(ShapeSegmentIndex.class));
+
+            injector.injectMembers(resolver);
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.kurtraschke.pvtagtfsrealtime.benchmarks;
+
+import com.availtec.infopoint.client.VehicleLocation;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A synthetic transit system, with its static GTFS and the GetAllVehicles
+ * responses Infopoint would give for it at a series of moments, 30 seconds
+ * apart, during the morning of {@link #SERVICE_DATE}.
+ * <p>
+ * Routes radiate from downtown Springfield, each a gently winding 11.6 km
+ * line with 30 stops, run in both directions every 15 minutes from 5:00 to
+ * 24:00. Only every third stop is a timepoint, and the middle stop has a
+ * minute of scheduled dwell. About 150 vehicles are in service on the
+ * default 24 routes, running between one minute early and six minutes late,
+ * with a few meters of GPS noise. One vehicle in fifteen reports a
+ * destination matching no headsign, and so is matched by location.
+ * <p>
+ * Everything is generated from fixed seeds, so every run sees the same feed.
+ */
+public final class SyntheticFeed {
+
+    public static final int DEFAULT_ROUTE_COUNT = 24;
+
+    public static final String AGENCY_ID = "PVTA";
+    public static final ZoneId TIME_ZONE = ZoneId.of("America/New_York");
+    public static final LocalDate SERVICE_DATE = LocalDate.of(2019, 5, 14);
+
+    private static final LocalTime FIRST_SNAPSHOT = LocalTime.of(8, 0);
+    private static final int SNAPSHOT_INTERVAL_SECONDS = 30;
+
+    private static final double CENTER_LAT = 42.1015;
+    private static final double CENTER_LON = -72.5898;
+    private static final double EARTH_RADIUS_METERS = 6371010;
+
+    private static final int STOP_COUNT = 30;
+    private static final double FIRST_STOP_METERS = 300;
+    private static final double STOP_SPACING_METERS = 400;
+    private static final double SHAPE_POINT_SPACING_METERS = 100;
+    private static final double WIGGLE_METERS = 120;
+    private static final double WIGGLE_WAVELENGTH_METERS = 4400;
+
+    private static final int FIRST_DEPARTURE = 5 * 3600;
+    private static final int LAST_DEPARTURE = 24 * 3600;
+    private static final int HEADWAY = 15 * 60;
+    private static final int RUNNING_SECONDS = 90;
+    private static final int DWELL_STOP = 15;
+    private static final int DWELL_SECONDS = 60;
+    private static final int TRIP_SECONDS = (STOP_COUNT - 1) * RUNNING_SECONDS + DWELL_SECONDS;
+
+    private static final double GPS_NOISE_METERS = 8;
+    private static final int MAX_REPORT_AGE_SECONDS = 15;
+
+    private static final String NAMESPACE = "http://schemas.datacontract.org/2004/07/Availtec.MyAvail.TIDS.DataManager.Models";
+    private static final DateTimeFormatter LOCAL_DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+    private final int routeCount;
+    private final int snapshotCount;
+
+    public SyntheticFeed(int routeCount, int snapshotCount) {
+        this.routeCount = routeCount;
+        this.snapshotCount = snapshotCount;
+    }
+
+    public int getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    public static String routeId(int route) {
+        return "R" + (route + 1);
+    }
+
+    /**
+     * @return the id Infopoint uses for the route, which differs from its GTFS route id
+     */
+    public static int infopointRouteId(int route) {
+        return 100 + route;
+    }
+
+    /**
+     * Writes the static GTFS, unzipped, into the given directory.
+     */
+    public void writeGtfs(Path directory) throws IOException {
+        Files.createDirectories(directory);
+
+        try (PrintWriter out = writer(directory.resolve("agency.txt"))) {
+            out.println("agency_id,agency_name,agency_url,agency_timezone");
+            out.println(AGENCY_ID + ",Synthetic Transit Authority,http://www.example.com/," + TIME_ZONE.getId());
+        }
+
+        try (PrintWriter out = writer(directory.resolve("calendar.txt"))) {
+            out.println("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date");
+            out.println("ALL,1,1,1,1,1,1,1,20190101,20301231");
+        }
+
+        try (PrintWriter out = writer(directory.resolve("routes.txt"))) {
+            out.println("route_id,agency_id,route_short_name,route_long_name,route_type");
+
+            for (int route = 0; route < routeCount; route++) {
+                out.println(routeId(route) + "," + AGENCY_ID + "," + routeId(route) + "," + longName(route) + ",3");
+            }
+        }
+
+        try (PrintWriter out = writer(directory.resolve("stops.txt"))) {
+            out.println("stop_id,stop_name,stop_lat,stop_lon");
+
+            for (int route = 0; route < routeCount; route++) {
+                for (int direction = 0; direction < 2; direction++) {
+                    for (int stop = 0; stop < STOP_COUNT; stop++) {
+                        final double[] latLon = position(route, direction, stop);
+
+                        out.println(stopId(route, direction, stop) + "," + stopName(route, direction, stop) + ","
+                                + latLon[0] + "," + latLon[1]);
+                    }
+                }
+            }
+        }
+
+        try (PrintWriter out = writer(directory.resolve("shapes.txt"))) {
+            out.println("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence");
+
+            final int pointCount = (int) Math.round((STOP_COUNT - 1) * STOP_SPACING_METERS / SHAPE_POINT_SPACING_METERS) + 1;
+
+            for (int route = 0; route < routeCount; route++) {
+                for (int direction = 0; direction < 2; direction++) {
+                    for (int point = 0; point < pointCount; point++) {
+                        final double along = point * SHAPE_POINT_SPACING_METERS / STOP_SPACING_METERS;
+                        final double[] latLon = position(route, direction, along);
+
+                        out.println(shapeId(route, direction) + "," + latLon[0] + "," + latLon[1] + "," + point);
+                    }
+                }
+            }
+        }
+
+        try (PrintWriter trips = writer(directory.resolve("trips.txt"));
+             PrintWriter stopTimes = writer(directory.resolve("stop_times.txt"))) {
+            trips.println("route_id,service_id,trip_id,trip_headsign,direction_id,shape_id");
+            stopTimes.println("trip_id,arrival_time,departure_time,stop_id,stop_sequence");
+
+            for (int route = 0; route < routeCount; route++) {
+                for (int direction = 0; direction < 2; direction++) {
+                    for (int trip = 0; trip < tripsPerDirection(); trip++) {
+                        final String tripId = tripId(route, direction, trip);
+                        final int start = tripStart(route, direction, trip);
+
+                        trips.println(routeId(route) + ",ALL," + tripId + "," + headsign(route, direction) + ","
+                                + direction + "," + shapeId(route, direction));
+
+                        for (int stop = 0; stop < STOP_COUNT; stop++) {
+                            final boolean timepoint = stop % 3 == 0 || stop == STOP_COUNT - 1;
+                            final String arrival = timepoint ? time(start + arrivalOffset(stop)) : "";
+                            final String departure = timepoint ? time(start + departureOffset(stop)) : "";
+
+                            stopTimes.println(tripId + "," + arrival + "," + departure + ","
+                                    + stopId(route, direction, stop) + "," + (stop + 1));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the vehicles in service at the given snapshot, as Infopoint reports them
+     */
+    public List<VehicleLocation> vehicles(int snapshot) {
+        final List<VehicleLocation> vehicles = new ArrayList<>();
+        final int snapshotSeconds = FIRST_SNAPSHOT.toSecondOfDay() + snapshot * SNAPSHOT_INTERVAL_SECONDS;
+
+        for (int route = 0; route < routeCount; route++) {
+            for (int direction = 0; direction < 2; direction++) {
+                for (int trip = 0; trip < tripsPerDirection(); trip++) {
+                    final int vehicleId = 1000 + (route * 2 + direction) * tripsPerDirection() + trip;
+                    final Random random = new Random(vehicleId * 1009L + snapshot);
+
+                    // Infopoint reports deviations in whole minutes; the vehicle is up to half a minute either side.
+                    final int deviation = new Random(vehicleId).nextInt(8) - 1;
+                    final int reportSeconds = snapshotSeconds - random.nextInt(MAX_REPORT_AGE_SECONDS + 1);
+                    final int scheduleSeconds = reportSeconds - 60 * deviation - 29 + random.nextInt(59);
+                    final int elapsed = scheduleSeconds - tripStart(route, direction, trip);
+
+                    if (elapsed < 0 || elapsed > TRIP_SECONDS) {
+                        continue;
+                    }
+
+                    final double along = stopsAlong(elapsed);
+                    final double[] latLon = position(route, direction, along);
+                    final double noiseBearing = random.nextDouble() * 2 * Math.PI;
+                    final double noise = random.nextDouble() * GPS_NOISE_METERS;
+
+                    latLon[0] += Math.toDegrees(noise * Math.sin(noiseBearing) / EARTH_RADIUS_METERS);
+                    latLon[1] += Math.toDegrees(noise * Math.cos(noiseBearing) / (EARTH_RADIUS_METERS * Math.cos(Math.toRadians(CENTER_LAT))));
+
+                    final String destination = vehicleId % 15 == 0 ? "Garage" : headsign(route, direction);
+                    final long lastUpdated = SERVICE_DATE.atStartOfDay(TIME_ZONE).toEpochSecond() + reportSeconds;
+
+                    vehicles.add(new VehicleLocation(vehicleId, Integer.toString(vehicleId), infopointRouteId(route),
+                            destination, deviation, stopName(route, direction, (int) along), lastUpdated,
+                            latLon[0], latLon[1]));
+                }
+            }
+        }
+
+        return vehicles;
+    }
+
+    /**
+     * @return the GetAllVehicles response for the given snapshot
+     */
+    public byte[] vehiclesXml(int snapshot) {
+        final StringBuilder sb = new StringBuilder(1 << 20);
+
+        sb.append("<ArrayOfVehicleLocation xmlns=\"").append(NAMESPACE)
+                .append("\" xmlns:i=\"http://www.w3.org/2001/XMLSchema-instance\">");
+
+        for (VehicleLocation vl : vehicles(snapshot)) {
+            final LocalDateTime lastUpdated = LocalDateTime.ofEpochSecond(vl.getLastUpdated(), 0,
+                    TIME_ZONE.getRules().getOffset(SERVICE_DATE.atStartOfDay()));
+
+            sb.append("<VehicleLocation>");
+            element(sb, "BlockFareboxId", Integer.toString(vl.getVehicleId() % 100));
+            element(sb, "CommStatus", "GOOD");
+            element(sb, "Destination", vl.getDestination());
+            element(sb, "Deviation", Integer.toString(vl.getDeviation()));
+            element(sb, "Direction", "O");
+            element(sb, "DirectionLong", "Outbound");
+            element(sb, "DisplayStatus", vl.getDeviation() > 1 ? "Late" : "On Time");
+            sb.append("<DriverName i:nil=\"true\"/>");
+            element(sb, "GPSStatus", "2");
+            element(sb, "Heading", Integer.toString(vl.getVehicleId() % 360));
+            element(sb, "LastStop", vl.getLastStop());
+            element(sb, "LastUpdated", LOCAL_DATE_TIME.format(lastUpdated));
+            element(sb, "Latitude", Double.toString(vl.getLatitude()));
+            element(sb, "Longitude", Double.toString(vl.getLongitude()));
+            element(sb, "Name", vl.getName());
+            element(sb, "OnBoard", Integer.toString(vl.getVehicleId() % 40));
+            element(sb, "OpStatus", "TRIP START");
+            element(sb, "RouteId", Integer.toString(vl.getRouteId()));
+            element(sb, "RunId", Integer.toString(vl.getVehicleId() + 5000));
+            sb.append("<Speed i:nil=\"true\"/>");
+            element(sb, "TripId", Integer.toString(vl.getVehicleId() + 20000));
+            element(sb, "VehicleId", Integer.toString(vl.getVehicleId()));
+            sb.append("</VehicleLocation>");
+        }
+
+        sb.append("</ArrayOfVehicleLocation>");
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the GetAllRoutes response, whose short names match the GTFS route ids
+     */
+    public byte[] routesXml() {
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append("<ArrayOfRoute xmlns=\"").append(NAMESPACE)
+                .append("\" xmlns:i=\"http://www.w3.org/2001/XMLSchema-instance\">");
+
+        for (int route = 0; route < routeCount; route++) {
+            sb.append("<Route>");
+            element(sb, "GoogleDescription", longName(route));
+            element(sb, "LongName", longName(route));
+            element(sb, "RouteAbbreviation", routeId(route));
+            element(sb, "RouteId", Integer.toString(infopointRouteId(route)));
+            element(sb, "ShortName", routeId(route));
+            sb.append("</Route>");
+        }
+
+        sb.append("</ArrayOfRoute>");
+
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return a GetAllMessages response with no messages
+     */
+    public static byte[] messagesXml() {
+        return ("<ArrayOfPublicMessage xmlns=\"" + NAMESPACE + "\"/>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private int tripsPerDirection() {
+        return (LAST_DEPARTURE - FIRST_DEPARTURE) / HEADWAY;
+    }
+
+    private static int tripStart(int route, int direction, int trip) {
+        // Stagger the routes so that their trips do not all start at once.
+        return FIRST_DEPARTURE + trip * HEADWAY + (route * 97 + direction * HEADWAY / 2) % HEADWAY;
+    }
+
+    private static int arrivalOffset(int stop) {
+        return stop * RUNNING_SECONDS + (stop > DWELL_STOP ? DWELL_SECONDS : 0);
+    }
+
+    private static int departureOffset(int stop) {
+        return arrivalOffset(stop) + (stop == DWELL_STOP ? DWELL_SECONDS : 0);
+    }
+
+    /**
+     * @return how far along its stops a vehicle is the given time into its trip,
+     * in stop spacings from the first stop
+     */
+    private static double stopsAlong(int elapsed) {
+        final int dwellStart = arrivalOffset(DWELL_STOP);
+
+        if (elapsed <= dwellStart) {
+            return (double) elapsed / RUNNING_SECONDS;
+        }
+
+        if (elapsed <= dwellStart + DWELL_SECONDS) {
+            return DWELL_STOP;
+        }
+
+        return DWELL_STOP + (double) (elapsed - dwellStart - DWELL_SECONDS) / RUNNING_SECONDS;
+    }
+
+    /**
+     * @param along how far along the route's stops, in the given direction, in stop spacings
+     * @return the latitude and longitude
+     */
+    private double[] position(int route, int direction, double along) {
+        final double outboundAlong = direction == 0 ? along : STOP_COUNT - 1 - along;
+        final double s = FIRST_STOP_METERS + outboundAlong * STOP_SPACING_METERS;
+        final double w = WIGGLE_METERS * Math.sin(2 * Math.PI * s / WIGGLE_WAVELENGTH_METERS + route);
+        final double bearing = 2 * Math.PI * route / routeCount;
+
+        final double x = s * Math.cos(bearing) - w * Math.sin(bearing);
+        final double y = s * Math.sin(bearing) + w * Math.cos(bearing);
+
+        return new double[]{
+                CENTER_LAT + Math.toDegrees(y / EARTH_RADIUS_METERS),
+                CENTER_LON + Math.toDegrees(x / (EARTH_RADIUS_METERS * Math.cos(Math.toRadians(CENTER_LAT))))
+        };
+    }
+
+    private static String longName(int route) {
+        return "Downtown - Outer Terminal " + (route + 1);
+    }
+
+    private static String headsign(int route, int direction) {
+        return direction == 0 ? "Outer Terminal " + (route + 1) : "Union Station";
+    }
+
+    private static String shapeId(int route, int direction) {
+        return routeId(route) + (direction == 0 ? "_OUT" : "_IN");
+    }
+
+    private static String tripId(int route, int direction, int trip) {
+        return shapeId(route, direction) + "_" + trip;
+    }
+
+    private static String stopId(int route, int direction, int stop) {
+        return shapeId(route, direction) + "_" + stop;
+    }
+
+    private static String stopName(int route, int direction, int stop) {
+        // Stops on opposite sides of the street share a name.
+        final int outboundStop = direction == 0 ? stop : STOP_COUNT - 1 - stop;
+
+        return "Route " + (route + 1) + " Stop " + (outboundStop + 1);
+    }
+
+    private static String time(int seconds) {
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private static void element(StringBuilder sb, String name, String text) {
+        sb.append('<').append(name).append('>')
+                .append(text.replace("&", "&amp;").replace("<", "&lt;"))
+                .append("</").append(name).append('>');
+    }
+
+    private static PrintWriter writer(Path path) throws IOException {
+        return new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8));
+    }
+}
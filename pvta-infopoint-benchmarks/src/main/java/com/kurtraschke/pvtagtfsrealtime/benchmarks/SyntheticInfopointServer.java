@@ -0,0 +1,65 @@
+package com.kurtraschke.pvtagtfsrealtime.benchmarks;
+
+import com.availtec.infopoint.client.Endpoint;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a {@link SyntheticFeed} over HTTP on the loopback interface, as
+ * Infopoint would. Each GetAllVehicles request gets the next snapshot in
+ * turn, so that every poll sees the vehicles move.
+ */
+public class SyntheticInfopointServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final AtomicInteger vehicleRequests = new AtomicInteger();
+
+    public SyntheticInfopointServer(SyntheticFeed feed) throws IOException {
+        final byte[] routes = feed.routesXml();
+        final byte[] messages = SyntheticFeed.messagesXml();
+        final byte[][] vehicles = new byte[feed.getSnapshotCount()][];
+
+        for (int snapshot = 0; snapshot < vehicles.length; snapshot++) {
+            vehicles[snapshot] = feed.vehiclesXml(snapshot);
+        }
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+
+        server.createContext("/" + Endpoint.ROUTES.getPath(), exchange -> respond(exchange, routes));
+        server.createContext("/" + Endpoint.PUBLIC_MESSAGES.getPath(), exchange -> respond(exchange, messages));
+        server.createContext("/" + Endpoint.VEHICLES.getPath(), exchange ->
+                respond(exchange, vehicles[Math.floorMod(vehicleRequests.getAndIncrement(), vehicles.length)]));
+
+        server.start();
+    }
+
+    /**
+     * @return the base URL of the API, to be used as {@code apiBaseUrl}
+     */
+    public URL getBaseUrl() throws IOException {
+        final InetSocketAddress address = server.getAddress();
+
+        return new URL("http", address.getHostString(), address.getPort(), "/");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
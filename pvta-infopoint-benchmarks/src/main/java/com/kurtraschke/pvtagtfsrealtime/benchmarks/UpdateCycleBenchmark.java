@@ -0,0 +1,132 @@
+package com.kurtraschke.pvtagtfsrealtime.benchmarks;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.kurtraschke.pvtagtfsrealtime.GtfsRealtimeModule;
+import com.kurtraschke.pvtagtfsrealtime.exporter.SerializedFeedCache;
+import com.kurtraschke.pvtagtfsrealtime.producers.GtfsRealtimeVehicleProducer;
+import org.nnsoft.guice.rocoto.configuration.ConfigurationModule;
+import org.nnsoft.guice.rocoto.converters.FileConverter;
+import org.nnsoft.guice.rocoto.converters.URLConverter;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.TripUpdates;
+import org.onebusaway.guice.jsr250.LifecycleService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs whole vehicle update cycles, from polling GetAllVehicles to
+ * publishing both feeds, against a {@link SyntheticInfopointServer} on the
+ * loopback interface. The application is assembled from the same module and
+ * configuration keys as {@code Main}; the scheduled polls are pushed out of
+ * the way, and each invocation runs one cycle on the benchmark thread with
+ * {@link GtfsRealtimeVehicleProducer#runOnce()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class UpdateCycleBenchmark {
+
+    private static final int SNAPSHOTS = 20;
+
+    @Param({"false", "true"})
+    public boolean differentialUpdates;
+
+    private Path directory;
+    private SyntheticInfopointServer server;
+    private Injector injector;
+    private GtfsRealtimeVehicleProducer producer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, InterruptedException {
+        final SyntheticFeed feed = new SyntheticFeed(SyntheticFeed.DEFAULT_ROUTE_COUNT, SNAPSHOTS);
+
+        directory = Files.createTempDirectory("pvta-benchmark");
+        feed.writeGtfs(directory.resolve("gtfs"));
+        server = new SyntheticInfopointServer(feed);
+
+        final Properties configuration = new Properties();
+
+        configuration.setProperty("PVTA.gtfsPath", directory.resolve("gtfs").toString());
+        configuration.setProperty("PVTA.gtfsReloadInterval", "0");
+        configuration.setProperty("apiBaseUrl", server.getBaseUrl().toString());
+        configuration.setProperty("apiRateLimit.routes", "1000000");
+        configuration.setProperty("apiRateLimit.publicMessages", "1000000");
+        configuration.setProperty("apiRateLimit.vehicles", "1000000");
+        configuration.setProperty("refreshRate.vehicles", "86400");
+        configuration.setProperty("refreshRate.alerts", "86400");
+        configuration.setProperty("refreshRate.routes", "86400");
+        configuration.setProperty("differentialUpdates", Boolean.toString(differentialUpdates));
+
+        final File configurationFile = directory.resolve("config.properties").toFile();
+
+        try (Writer out = Files.newBufferedWriter(configurationFile.toPath(), StandardCharsets.UTF_8)) {
+            configuration.store(out, null);
+        }
+
+        injector = Guice.createInjector(
+                new URLConverter(),
+                new FileConverter(),
+                new ConfigurationModule() {
+                    @Override
+                    protected void bindConfigurations() {
+                        bindProperties(configurationFile);
+                    }
+                },
+                new GtfsRealtimeModule()
+        );
+
+        producer = injector.getInstance(GtfsRealtimeVehicleProducer.class);
+        injector.getInstance(LifecycleService.class).start();
+
+        // Starting the producer schedules an immediate update; let it finish, so that it does not
+        // overlap the measured ones.
+        final SerializedFeedCache tripUpdatesCache = injector.getInstance(Key.get(SerializedFeedCache.class, TripUpdates.class));
+        final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+
+        while (tripUpdatesCache.getCurrent() == null) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("The first vehicle update did not complete");
+            }
+
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        injector.getInstance(LifecycleService.class).stop();
+        server.close();
+        MoreFiles.deleteRecursively(directory, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Benchmark
+    public void update() {
+        producer.runOnce();
+    }
+}
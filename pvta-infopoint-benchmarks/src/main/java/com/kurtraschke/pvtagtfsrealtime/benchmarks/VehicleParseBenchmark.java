@@ -0,0 +1,55 @@
+package com.kurtraschke.pvtagtfsrealtime.benchmarks;
+
+import com.availtec.infopoint.client.VehicleLocationReader;
+import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.ArrayOfVehicleLocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a GetAllVehicles response for the synthetic fleet, both into the
+ * JAXB object graph and with the streaming {@link VehicleLocationReader}
+ * the client now uses, without an HTTP round trip.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class VehicleParseBenchmark {
+
+    private byte[] response;
+    private Unmarshaller unmarshaller;
+
+    @Setup
+    public void setUp() throws JAXBException {
+        response = new SyntheticFeed(SyntheticFeed.DEFAULT_ROUTE_COUNT, 1).vehiclesXml(0);
+        unmarshaller = JAXBContext.newInstance(ArrayOfVehicleLocation.class).createUnmarshaller();
+    }
+
+    @Benchmark
+    public Object jaxb() throws JAXBException {
+        return unmarshaller.unmarshal(new ByteArrayInputStream(response));
+    }
+
+    @Benchmark
+    public void streaming(Blackhole bh) throws XMLStreamException {
+        new VehicleLocationReader(SyntheticFeed.TIME_ZONE).read(new ByteArrayInputStream(response), bh::consume);
+    }
+}
@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package com.kurtraschke.pvtagtfsrealtime.benchmarks;
+
+import javax.annotation.ParametersAreNonnullByDefault;
@@ -3,16 +3,22 @@ package com.kurtraschke.pvtagtfsrealtime;
 import com.availtec.infopoint.client.InfopointClient;
 import com.google.inject.AbstractModule;
 import com.google.inject.Scopes;
+import com.google.inject.name.Names;
 import org.nnsoft.guice.sli4j.slf4j.Slf4jLoggingModule;
-import org.onebusaway.gtfs.services.GtfsRelationalDao;
-import org.onebusaway.gtfs.services.calendar.CalendarService;
 import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeExporterModule;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.Alerts;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.TripUpdates;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.VehiclePositions;
 import org.onebusaway.guice.jetty_exporter.JettyExporterModule;
 import org.onebusaway.guice.jsr250.JSR250Module;
-import com.kurtraschke.pvtagtfsrealtime.providers.CalendarServiceProvider;
-import com.kurtraschke.pvtagtfsrealtime.providers.GtfsRelationalDaoProvider;
+import com.kurtraschke.pvtagtfsrealtime.exporter.SerializedFeedCache;
 import com.kurtraschke.pvtagtfsrealtime.providers.InfopointClientProvider;
+import com.kurtraschke.pvtagtfsrealtime.providers.SerializedFeedCacheProvider;
+import com.kurtraschke.pvtagtfsrealtime.providers.VehicleResolutionExecutorProvider;
 
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -25,21 +31,26 @@ public class GtfsRealtimeModule extends AbstractModule {
         install(new GtfsRealtimeExporterModule());
         install(new Slf4jLoggingModule());
 
+        // One thread per producer, so that the vehicle and alert polls can overlap.
         bind(ScheduledExecutorService.class)
-                .toInstance(Executors.newSingleThreadScheduledExecutor());
+                .toInstance(Executors.newScheduledThreadPool(2));
 
-        bind(CalendarService.class)
-                .toProvider(CalendarServiceProvider.class)
-                .in(Scopes.SINGLETON);
-
-        bind(GtfsRelationalDao.class)
-                .toProvider(GtfsRelationalDaoProvider.class)
+        bind(ExecutorService.class)
+                .annotatedWith(Names.named("vehicleResolution"))
+                .toProvider(VehicleResolutionExecutorProvider.class)
                 .in(Scopes.SINGLETON);
 
         bind(InfopointClient.class)
                 .toProvider(InfopointClientProvider.class)
                 .in(Scopes.SINGLETON);
 
+        for (Class<? extends Annotation> feedAnnotationType : Arrays.asList(VehiclePositions.class, TripUpdates.class, Alerts.class)) {
+            bind(SerializedFeedCache.class)
+                    .annotatedWith(feedAnnotationType)
+                    .toProvider(new SerializedFeedCacheProvider(feedAnnotationType))
+                    .in(Scopes.SINGLETON);
+        }
+
     }
 
 }
@@ -5,6 +5,10 @@ import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Key;
 import com.google.inject.name.Names;
+import com.kurtraschke.pvtagtfsrealtime.exporter.AtomicFeedFileWriter;
+import com.kurtraschke.pvtagtfsrealtime.exporter.CachedFeedServlet;
+import com.kurtraschke.pvtagtfsrealtime.exporter.MetricsServlet;
+import com.kurtraschke.pvtagtfsrealtime.exporter.SerializedFeedCache;
 import com.kurtraschke.pvtagtfsrealtime.producers.GtfsRealtimeAlertProducer;
 import com.kurtraschke.pvtagtfsrealtime.producers.GtfsRealtimeVehicleProducer;
 import org.jetbrains.annotations.NotNull;
@@ -13,11 +17,9 @@ import org.nnsoft.guice.rocoto.configuration.ConfigurationModule;
 import org.nnsoft.guice.rocoto.converters.FileConverter;
 import org.nnsoft.guice.rocoto.converters.URLConverter;
 import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeExporter;
-import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeFileWriter;
 import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.Alerts;
 import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.TripUpdates;
 import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.VehiclePositions;
-import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeServlet;
 import org.onebusaway.guice.jsr250.LifecycleService;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -76,6 +78,12 @@ public class Main implements Runnable {
 
         );
 
+        final URL metricsUrl = getConfigurationValue(injector, URL.class, "metrics.url");
+
+        if (metricsUrl != null) {
+            injector.getInstance(MetricsServlet.class).setUrl(metricsUrl);
+        }
+
         injector.getInstance(GtfsRealtimeVehicleProducer.class);
         injector.getInstance(GtfsRealtimeAlertProducer.class);
 
@@ -90,7 +98,8 @@ public class Main implements Runnable {
                 injector,
                 getConfigurationValue(injector, URL.class, urlConfigurationKey),
                 getConfigurationValue(injector, File.class, fileConfigurationKey),
-                injector.getInstance(Key.get(GtfsRealtimeExporter.class, exporterAnnotationType))
+                injector.getInstance(Key.get(GtfsRealtimeExporter.class, exporterAnnotationType)),
+                injector.getInstance(Key.get(SerializedFeedCache.class, exporterAnnotationType))
         );
     }
 
@@ -103,17 +112,18 @@ public class Main implements Runnable {
         }
     }
 
-    private static void configureExporter(Injector injector, @Nullable URL feedUrl, @Nullable File feedPath, GtfsRealtimeExporter exporter) {
+    private static void configureExporter(Injector injector, @Nullable URL feedUrl, @Nullable File feedPath, GtfsRealtimeExporter exporter, SerializedFeedCache cache) {
         if (feedUrl != null) {
-            GtfsRealtimeServlet servlet = injector.getInstance(GtfsRealtimeServlet.class);
+            CachedFeedServlet servlet = injector.getInstance(CachedFeedServlet.class);
             servlet.setUrl(feedUrl);
             servlet.setSource(exporter);
+            servlet.setCache(cache);
         }
 
         if (feedPath != null) {
-            GtfsRealtimeFileWriter writer = injector.getInstance(GtfsRealtimeFileWriter.class);
+            AtomicFeedFileWriter writer = injector.getInstance(AtomicFeedFileWriter.class);
             writer.setPath(feedPath);
-            writer.setSource(exporter);
+            writer.setCache(cache);
         }
     }
 
@@ -0,0 +1,119 @@
+package com.kurtraschke.pvtagtfsrealtime.exporter;
+
+import com.google.common.hash.HashCode;
+import com.google.inject.Inject;
+import org.nnsoft.guice.sli4j.core.InjectLogger;
+import org.slf4j.Logger;
+
+import javax.inject.Named;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes each new version of a feed to a file, in place of
+ * {@code GtfsRealtimeFileWriter}. The feed is written to a temporary file in
+ * the same directory which is then atomically renamed over the target, so
+ * that readers never see a partially written feed. Nothing is written if the
+ * feed is the same as the one last written, but for its header timestamp, or
+ * if its bytes are the same as those left in the file by a previous run.
+ */
+public class AtomicFeedFileWriter {
+
+    private Path path;
+    private boolean fsync;
+
+    private HashCode lastWrittenContentHash;
+
+    @InjectLogger
+    private Logger LOG;
+
+    public void setPath(File path) {
+        this.path = path.toPath().toAbsolutePath();
+    }
+
+    /**
+     * Sets whether to force the feed to disk before renaming it into place,
+     * so that it survives a crash of the host. Off by default.
+     */
+    @Inject(optional = true)
+    public void setFsync(@Named("feedFiles.fsync") boolean fsync) {
+        this.fsync = fsync;
+    }
+
+    public void setCache(SerializedFeedCache cache) {
+        cache.addListener(this::write);
+    }
+
+    private synchronized void write(SerializedFeed feed) {
+        try {
+            if (feed.getContentHash().equals(lastWrittenContentHash)
+                    || (lastWrittenContentHash == null && fileContains(feed.getProtobuf()))) {
+                lastWrittenContentHash = feed.getContentHash();
+                return;
+            }
+
+            final Path temp = path.resolveSibling("." + path.getFileName() + ".tmp");
+
+            try (FileChannel channel = FileChannel.open(temp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                final ByteBuffer bytes = feed.getProtobuf();
+
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+
+                if (fsync) {
+                    channel.force(true);
+                }
+            }
+
+            try {
+                Files.move(temp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+
+            lastWrittenContentHash = feed.getContentHash();
+
+            if (fsync) {
+                // Make the rename itself durable.
+                try (FileChannel directory = FileChannel.open(path.getParent(), READ)) {
+                    directory.force(true);
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Error while writing feed to {}.", path, e);
+        }
+    }
+
+    /**
+     * Compares the file left by a previous run with the feed, so that an
+     * unchanged feed is not rewritten on startup.
+     */
+    private boolean fileContains(ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            if (channel.size() != bytes.remaining()) {
+                return false;
+            }
+
+            final MappedByteBuffer existing = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            return existing.equals(bytes);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+}
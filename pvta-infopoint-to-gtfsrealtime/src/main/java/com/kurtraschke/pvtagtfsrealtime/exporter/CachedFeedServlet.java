@@ -0,0 +1,106 @@
+package com.kurtraschke.pvtagtfsrealtime.exporter;
+
+import com.google.common.base.Splitter;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeServlet;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Serves a feed from a {@link SerializedFeedCache}, rather than serializing
+ * it again for every request as {@link GtfsRealtimeServlet} does. Responses
+ * are gzip-compressed when the client accepts it, and conditional requests
+ * are answered with 304 Not Modified. As with {@code GtfsRealtimeServlet},
+ * adding a {@code debug} parameter returns the feed in protobuf text format.
+ * <p>
+ * Only plain GETs are served from the cache. WebSocket connections are still
+ * handled by {@code GtfsRealtimeServlet}, which streams the exporter's
+ * incremental updates to them, so the servlet needs the exporter as its
+ * source as well as the cache.
+ */
+public class CachedFeedServlet extends GtfsRealtimeServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String CONTENT_TYPE = "application/x-google-protobuf";
+
+    private transient SerializedFeedCache cache;
+
+    public void setCache(SerializedFeedCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        final SerializedFeed feed = cache.getCurrent();
+
+        if (feed == null) {
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        if (req.getParameter("debug") != null) {
+            resp.setContentType("text/plain");
+            resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            resp.getWriter().write(feed.getText());
+            return;
+        }
+
+        final boolean gzip = acceptsGzip(req.getHeader("Accept-Encoding"));
+        final String etag = gzip ? feed.getGzipEtag() : feed.getEtag();
+
+        resp.setHeader("ETag", etag);
+        resp.setHeader("Vary", "Accept-Encoding");
+        resp.setDateHeader("Last-Modified", feed.getTimestamp() * 1000);
+
+        if (matches(req.getHeader("If-None-Match"), etag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        resp.setContentType(CONTENT_TYPE);
+
+        if (gzip) {
+            resp.setHeader("Content-Encoding", "gzip");
+            resp.setContentLength(feed.getGzip().remaining());
+            feed.writeGzipTo(resp.getOutputStream());
+        } else {
+            resp.setContentLength(feed.getProtobuf().remaining());
+            feed.writeProtobufTo(resp.getOutputStream());
+        }
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String coding : Splitter.on(',').trimResults().omitEmptyStrings().split(acceptEncoding)) {
+            final String[] parts = coding.split(";", 2);
+            final String name = parts[0].trim().toLowerCase(Locale.ROOT);
+
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        for (String candidate : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+            if (candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/" + etag)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+package com.kurtraschke.pvtagtfsrealtime.exporter;
+
+import com.kurtraschke.pvtagtfsrealtime.metrics.MetricsRegistry;
+import org.onebusaway.guice.jetty_exporter.ServletSource;
+
+import javax.inject.Inject;
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the contents of the {@link MetricsRegistry} in the Prometheus text
+ * exposition format.
+ */
+public class MetricsServlet extends HttpServlet implements ServletSource {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+    private URL url;
+    private final transient MetricsRegistry metricsRegistry;
+
+    @Inject
+    public MetricsServlet(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void setUrl(URL url) {
+        this.url = url;
+    }
+
+    @Override
+    public URL getUrl() {
+        return url;
+    }
+
+    @Override
+    public Servlet getServlet() {
+        return this;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        final StringBuilder sb = new StringBuilder(8192);
+
+        metricsRegistry.writeTo(sb);
+
+        resp.setContentType(CONTENT_TYPE);
+        resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.getWriter().write(sb.toString());
+    }
+}
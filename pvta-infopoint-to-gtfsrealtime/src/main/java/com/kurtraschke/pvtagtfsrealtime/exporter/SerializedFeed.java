@@ -0,0 +1,93 @@
+package com.kurtraschke.pvtagtfsrealtime.exporter;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.hash.HashCode;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * One published version of a feed, serialized once and shared by every
+ * request for it.
+ */
+public final class SerializedFeed {
+
+    private final byte[] protobuf;
+    private final byte[] gzip;
+    private final String etag;
+    private final HashCode contentHash;
+    private final long timestamp;
+    private final Supplier<String> text;
+
+    SerializedFeed(FeedMessage feed, byte[] protobuf, byte[] gzip, String etag, HashCode contentHash) {
+        this.protobuf = protobuf;
+        this.gzip = gzip;
+        this.etag = etag;
+        this.contentHash = contentHash;
+        this.timestamp = feed.getHeader().getTimestamp();
+        // Only rendered if someone asks for it.
+        this.text = Suppliers.memoize(feed::toString);
+    }
+
+    /**
+     * @return a read-only view of the serialized {@code FeedMessage}
+     */
+    public ByteBuffer getProtobuf() {
+        return ByteBuffer.wrap(protobuf).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a read-only view of the gzip-compressed serialized {@code FeedMessage}
+     */
+    public ByteBuffer getGzip() {
+        return ByteBuffer.wrap(gzip).asReadOnlyBuffer();
+    }
+
+    public void writeProtobufTo(OutputStream out) throws IOException {
+        out.write(protobuf);
+    }
+
+    public void writeGzipTo(OutputStream out) throws IOException {
+        out.write(gzip);
+    }
+
+    /**
+     * @return a quoted strong entity tag for the uncompressed feed
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return a quoted strong entity tag for the gzip-compressed feed
+     */
+    public String getGzipEtag() {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    /**
+     * @return a hash of the feed which, unlike the entity tag, ignores the
+     * header timestamp, and so is the same for every publication of the same
+     * entities
+     */
+    public HashCode getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @return the feed header timestamp, in seconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the feed in protobuf text format, for debugging
+     */
+    public String getText() {
+        return text.get();
+    }
+}
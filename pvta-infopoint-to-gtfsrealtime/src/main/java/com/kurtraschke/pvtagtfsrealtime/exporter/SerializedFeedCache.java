@@ -0,0 +1,98 @@
+package com.kurtraschke.pvtagtfsrealtime.exporter;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.CodedOutputStream;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The current version of a feed, serialized when it is published rather than
+ * when it is requested, so that the cost of serving the feed does not depend
+ * on how often it is requested.
+ */
+public class SerializedFeedCache {
+
+    private final Supplier<FeedMessage> feedSource;
+    private final List<Consumer<SerializedFeed>> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile SerializedFeed current;
+
+    /**
+     * @param feedSource supplies the current version of the feed, typically {@code GtfsRealtimeExporter::getFeed}
+     */
+    public SerializedFeedCache(Supplier<FeedMessage> feedSource) {
+        this.feedSource = feedSource;
+    }
+
+    /**
+     * Serializes the current version of the feed. Call after each update of
+     * the feed.
+     */
+    public void refresh() {
+        final FeedMessage feed = feedSource.get();
+        final byte[] protobuf = feed.toByteArray();
+        final String etag = '"' + Hashing.murmur3_128().hashBytes(protobuf).toString() + '"';
+
+        final SerializedFeed serializedFeed = new SerializedFeed(feed, protobuf, gzip(protobuf), etag, contentHash(feed, protobuf));
+
+        current = serializedFeed;
+
+        for (Consumer<SerializedFeed> listener : listeners) {
+            listener.accept(serializedFeed);
+        }
+    }
+
+    /**
+     * Registers a listener to be called, on the publishing thread, with each
+     * newly serialized feed.
+     */
+    public void addListener(Consumer<SerializedFeed> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return the most recently serialized feed, or null if nothing has been published yet
+     */
+    @Nullable
+    public SerializedFeed getCurrent() {
+        return current;
+    }
+
+    /**
+     * Hashes the feed, leaving out the header timestamp, which the exporter
+     * sets on every update whether or not anything else has changed. The
+     * header is serialized ahead of the entities, so the entities are hashed
+     * straight from the serialized feed, and only the header is serialized
+     * again.
+     */
+    private static HashCode contentHash(FeedMessage feed, byte[] protobuf) {
+        final int headerSize = CodedOutputStream.computeMessageSize(FeedMessage.HEADER_FIELD_NUMBER, feed.getHeader());
+
+        return Hashing.murmur3_128().newHasher()
+                .putBytes(feed.getHeader().toBuilder().clearTimestamp().build().toByteArray())
+                .putBytes(protobuf, headerSize, protobuf.length - headerSize)
+                .hash();
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,68 @@
+package com.kurtraschke.pvtagtfsrealtime.gtfs;
+
+import com.kurtraschke.pvtagtfsrealtime.predictions.TripUpdatePredictor;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.CurrentStopResolver;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.RouteResolver;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.VehicleToTripResolver;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.ZoneId;
+
+/**
+ * One generation of the static GTFS data, held in a {@link GtfsStore}, along with the resolvers, indexes
+ * and caches built from it. Each generation lives in its own child injector
+ * (see {@link GtfsContextModule}); producers should fetch the current context
+ * from {@link GtfsContextManager} once per polling cycle and use it
+ * throughout the cycle.
+ */
+@Singleton
+public class GtfsContext {
+
+    private final GtfsStore store;
+    private final RouteResolver routeResolver;
+    private final VehicleToTripResolver tripResolver;
+    private final CurrentStopResolver currentStopResolver;
+    private final TripUpdatePredictor tripUpdatePredictor;
+    private final ZoneId agencyTimeZone;
+
+    @Inject
+    public GtfsContext(GtfsStore store,
+                       RouteResolver routeResolver,
+                       VehicleToTripResolver tripResolver,
+                       CurrentStopResolver currentStopResolver,
+                       TripUpdatePredictor tripUpdatePredictor) {
+        this.store = store;
+        this.routeResolver = routeResolver;
+        this.tripResolver = tripResolver;
+        this.currentStopResolver = currentStopResolver;
+        this.tripUpdatePredictor = tripUpdatePredictor;
+
+        // GTFS requires every agency in a feed to use the same time zone.
+        this.agencyTimeZone = store.getAgencyTimeZone(0).toZoneId();
+    }
+
+    public GtfsStore getStore() {
+        return store;
+    }
+
+    public RouteResolver getRouteResolver() {
+        return routeResolver;
+    }
+
+    public VehicleToTripResolver getTripResolver() {
+        return tripResolver;
+    }
+
+    public CurrentStopResolver getCurrentStopResolver() {
+        return currentStopResolver;
+    }
+
+    public TripUpdatePredictor getTripUpdatePredictor() {
+        return tripUpdatePredictor;
+    }
+
+    public ZoneId getAgencyTimeZone() {
+        return agencyTimeZone;
+    }
+}
@@ -0,0 +1,226 @@
+package com.kurtraschke.pvtagtfsrealtime.gtfs;
+
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.kurtraschke.pvtagtfsrealtime.metrics.MetricsRegistry;
+import com.kurtraschke.pvtagtfsrealtime.providers.GtfsStoreProvider;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.InfopointRouteCatalog;
+import org.nnsoft.guice.sli4j.core.InjectLogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Holds the current {@link GtfsContext}, and replaces it when the GTFS at
+ * {@code PVTA.gtfsPath} changes.
+ * <p>
+ * The GTFS is polled for changes to its modification times and sizes; once a
+ * change has held still for a full poll interval, a new generation is built
+ * on a background thread while the old one keeps serving, then swapped in
+ * with a single volatile write. Cycles already in progress finish against
+ * the generation they started with, after which nothing refers to it and it
+ * can be collected. If a new generation cannot be built, the old one stays
+ * in place until the GTFS changes again.
+ * <p>
+ * The route mapping of the current generation is rebuilt whenever
+ * {@link InfopointRouteCatalog} has new route definitions, and that of a new
+ * generation before it is swapped in.
+ */
+@Singleton
+public class GtfsContextManager {
+
+    private final Injector injector;
+    private final GtfsStoreProvider storeProvider;
+    private final InfopointRouteCatalog routeCatalog;
+    private final Path gtfsPath;
+    private final MetricsRegistry metrics;
+
+    private int reloadInterval = 60;
+
+    private volatile GtfsContext context;
+
+    private ScheduledExecutorService reloader;
+    private HashCode loadedStamp;
+    private HashCode pendingStamp;
+
+    @InjectLogger
+    private Logger LOG;
+
+    @Inject
+    public GtfsContextManager(Injector injector,
+                              GtfsStoreProvider storeProvider,
+                              InfopointRouteCatalog routeCatalog,
+                              @Named("PVTA.gtfsPath") File gtfsPath,
+                              MetricsRegistry metrics) {
+        this.injector = injector;
+        this.storeProvider = storeProvider;
+        this.routeCatalog = routeCatalog;
+        this.gtfsPath = gtfsPath.toPath();
+        this.metrics = metrics;
+
+        routeCatalog.addListener(routes -> {
+            final GtfsContext current = context;
+
+            if (current != null) {
+                current.getRouteResolver().update(routes);
+            }
+        });
+    }
+
+    /**
+     * Sets how often, in seconds, to check the GTFS for changes; zero
+     * disables reloading.
+     */
+    @Inject(optional = true)
+    public void setReloadInterval(@Named("PVTA.gtfsReloadInterval") int reloadInterval) {
+        this.reloadInterval = reloadInterval;
+    }
+
+    @PostConstruct
+    private void start() {
+        loadedStamp = stamp();
+        setContext(buildContext());
+
+        registerCacheMetrics("trip_time_to_location", c -> c.getTripResolver().getTripTimeToLocationMapCacheStats());
+        registerCacheMetrics("trip_stops", c -> c.getCurrentStopResolver().getTripStopsCacheStats());
+        registerCacheMetrics("trip_schedule", c -> c.getTripUpdatePredictor().getTripScheduleCacheStats());
+
+        if (reloadInterval > 0) {
+            reloader = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("gtfs-reload-%d")
+                    .setDaemon(true)
+                    .build());
+
+            reloader.scheduleWithFixedDelay(this::checkForChanges, reloadInterval, reloadInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    private void stop() {
+        if (reloader != null) {
+            reloader.shutdownNow();
+        }
+    }
+
+    public GtfsContext getContext() {
+        return context;
+    }
+
+    /**
+     * Registers the statistics of a cache belonging to the current generation.
+     * Each generation starts its caches afresh, so the counts go back to zero
+     * when the GTFS is reloaded.
+     */
+    private void registerCacheMetrics(String cache, Function<GtfsContext, CacheStats> stats) {
+        metrics.counter("cache_requests_total", "Lookups in each per-trip cache.",
+                () -> stats.apply(context).requestCount(), "cache", cache);
+        metrics.counter("cache_hits_total", "Lookups in each per-trip cache which found an entry.",
+                () -> stats.apply(context).hitCount(), "cache", cache);
+        metrics.counter("cache_evictions_total", "Entries evicted from each per-trip cache.",
+                () -> stats.apply(context).evictionCount(), "cache", cache);
+    }
+
+    private void checkForChanges() {
+        final HashCode stamp = stamp();
+
+        if (stamp == null || stamp.equals(loadedStamp)) {
+            pendingStamp = null;
+            return;
+        }
+
+        // Wait for the GTFS to stop changing, so that a file still being copied into place is not loaded.
+        if (!stamp.equals(pendingStamp)) {
+            LOG.info("GTFS at {} has changed; reloading once it is stable.", gtfsPath);
+            pendingStamp = stamp;
+            return;
+        }
+
+        pendingStamp = null;
+        loadedStamp = stamp;
+
+        try {
+            final long start = System.nanoTime();
+            setContext(buildContext());
+
+            LOG.info("Reloaded GTFS from {} in {} ms.", gtfsPath, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            LOG.error("Error while reloading GTFS from {}; keeping the previous GTFS.", gtfsPath, e);
+        }
+    }
+
+    /**
+     * Makes a new generation current. The catalog only notifies the current
+     * generation, so the route definitions are checked once more in case they
+     * changed while this one was being built.
+     */
+    private void setContext(GtfsContext newContext) {
+        context = newContext;
+        newContext.getRouteResolver().update(routeCatalog.getRoutes());
+    }
+
+    private GtfsContext buildContext() {
+        final GtfsStore store = storeProvider.get();
+        final GtfsContext newContext = injector.createChildInjector(new GtfsContextModule(store)).getInstance(GtfsContext.class);
+
+        newContext.getRouteResolver().update(routeCatalog.getRoutes());
+
+        return newContext;
+    }
+
+    /**
+     * Hashes the names, sizes and modification times of the GTFS, or of each
+     * file in it if it is a directory.
+     *
+     * @return the hash, or null if the GTFS could not be read
+     */
+    @Nullable
+    private HashCode stamp() {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+
+        try {
+            final List<Path> paths;
+
+            if (Files.isDirectory(gtfsPath)) {
+                try (Stream<Path> children = Files.list(gtfsPath)) {
+                    paths = children.sorted().collect(Collectors.toList());
+                }
+            } else {
+                paths = List.of(gtfsPath);
+            }
+
+            for (Path path : paths) {
+                final BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+                hasher.putUnencodedChars(path.getFileName().toString())
+                        .putLong(attributes.size())
+                        .putLong(attributes.lastModifiedTime().toMillis());
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not check GTFS at {} for changes.", gtfsPath, e);
+            return null;
+        }
+
+        return hasher.hash();
+    }
+}
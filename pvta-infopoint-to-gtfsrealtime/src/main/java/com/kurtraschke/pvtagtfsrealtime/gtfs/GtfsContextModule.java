@@ -0,0 +1,24 @@
+package com.kurtraschke.pvtagtfsrealtime.gtfs;
+
+import com.google.inject.AbstractModule;
+
+/**
+ * Bindings for a single {@link GtfsContext} generation, installed in a child
+ * injector. The resolvers are bound just-in-time; because they depend on the
+ * store bound here, Guice creates their singletons in the child injector, so
+ * they are discarded along with it.
+ */
+class GtfsContextModule extends AbstractModule {
+
+    private final GtfsStore store;
+
+    GtfsContextModule(GtfsStore store) {
+        this.store = store;
+    }
+
+    @Override
+    protected void configure() {
+        bind(GtfsStore.class)
+                .toInstance(store);
+    }
+}
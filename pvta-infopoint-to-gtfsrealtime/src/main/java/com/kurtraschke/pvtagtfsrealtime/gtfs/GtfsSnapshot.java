@@ -0,0 +1,275 @@
+package com.kurtraschke.pvtagtfsrealtime.gtfs;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A binary copy of a {@link GtfsStore}. Loading a snapshot skips CSV parsing
+ * and the OneBusAway entities entirely: the file is memory-mapped, and each
+ * of the store's columns is read back with a single bulk copy. Strings are
+ * pooled, so repeated strings are shared just as they are in a store built
+ * from GTFS.
+ * <p>
+ * Each snapshot records a hash of the GTFS it was built from, and is ignored
+ * if the GTFS has since changed.
+ */
+public final class GtfsSnapshot {
+
+    private static final long MAGIC = 0x5056544147544653L; // "PVTAGTFS"
+    private static final int VERSION = 2;
+
+    private static final int NULL = -1;
+
+    private GtfsSnapshot() {
+    }
+
+    /**
+     * Hashes a GTFS zip file, or every file in a GTFS directory.
+     */
+    public static HashCode hashGtfs(Path gtfsPath) throws IOException {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+
+        if (Files.isDirectory(gtfsPath)) {
+            final List<Path> files = new ArrayList<>();
+
+            try (Stream<Path> paths = Files.list(gtfsPath)) {
+                paths.filter(Files::isRegularFile).sorted().forEach(files::add);
+            }
+
+            for (Path file : files) {
+                hasher.putString(file.getFileName().toString(), StandardCharsets.UTF_8);
+                hashFile(file, hasher);
+            }
+        } else {
+            hashFile(gtfsPath, hasher);
+        }
+
+        return hasher.hash();
+    }
+
+    private static void hashFile(Path file, Hasher hasher) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            hasher.putLong(channel.size());
+            hasher.putBytes(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Loads a snapshot into a new store.
+     *
+     * @return the store, or null if the snapshot does not exist, is of
+     * another version, or was built from different GTFS
+     */
+    @Nullable
+    public static GtfsStore read(Path snapshotPath, HashCode gtfsHash) throws IOException {
+        if (!Files.isRegularFile(snapshotPath)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(snapshotPath, READ)) {
+            final ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (in.remaining() < 13 || in.getLong() != MAGIC || in.getInt() != VERSION) {
+                return null;
+            }
+
+            final byte[] hash = new byte[in.get()];
+
+            if (hash.length == 0 || in.remaining() < hash.length) {
+                return null;
+            }
+
+            in.get(hash);
+
+            if (!HashCode.fromBytes(hash).equals(gtfsHash)) {
+                return null;
+            }
+
+            return GtfsStore.read(new Input(in));
+        }
+    }
+
+    /**
+     * Writes a snapshot of the store, replacing any existing snapshot
+     * atomically.
+     */
+    public static void write(Path snapshotPath, HashCode gtfsHash, GtfsStore store) throws IOException {
+        final Path temp = snapshotPath.resolveSibling("." + snapshotPath.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(gtfsHash.bits() / Byte.SIZE);
+            out.write(gtfsHash.asBytes());
+
+            final Output body = new Output();
+            store.write(body);
+            body.writeTo(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, snapshotPath, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    /**
+     * Encodes the columns of a store. Each array is written as its length
+     * followed by its elements; strings are written as indices into a table
+     * which is written ahead of them.
+     */
+    static final class Output {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private final Map<String, Integer> stringIndices = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        private Output() {
+        }
+
+        void writeInt(int value) throws IOException {
+            out.writeInt(value);
+        }
+
+        void writeInts(int[] values) throws IOException {
+            out.writeInt(values.length);
+
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+
+        void writeFloats(float[] values) throws IOException {
+            out.writeInt(values.length);
+
+            for (float value : values) {
+                out.writeFloat(value);
+            }
+        }
+
+        void writeBytes(byte[] values) throws IOException {
+            out.writeInt(values.length);
+            out.write(values);
+        }
+
+        void writeBooleans(boolean[] values) throws IOException {
+            out.writeInt(values.length);
+
+            for (boolean value : values) {
+                out.writeBoolean(value);
+            }
+        }
+
+        void writeStrings(String[] values) throws IOException {
+            out.writeInt(values.length);
+
+            for (String value : values) {
+                out.writeInt(value != null ? stringIndices.computeIfAbsent(value, k -> {
+                    strings.add(k);
+                    return strings.size() - 1;
+                }) : NULL);
+            }
+        }
+
+        private void writeTo(DataOutputStream target) throws IOException {
+            out.flush();
+
+            target.writeInt(strings.size());
+
+            for (String s : strings) {
+                final byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+                target.writeInt(encoded.length);
+                target.write(encoded);
+            }
+
+            bytes.writeTo(target);
+        }
+    }
+
+    /**
+     * Decodes the columns written by {@link Output}, in the same order.
+     */
+    static final class Input {
+        private final ByteBuffer in;
+        private final String[] strings;
+
+        private Input(ByteBuffer in) {
+            this.in = in;
+
+            strings = new String[in.getInt()];
+
+            for (int i = 0; i < strings.length; i++) {
+                final byte[] encoded = new byte[in.getInt()];
+                in.get(encoded);
+                strings[i] = new String(encoded, StandardCharsets.UTF_8);
+            }
+        }
+
+        int readInt() {
+            return in.getInt();
+        }
+
+        int[] readInts() {
+            final int[] values = new int[in.getInt()];
+            in.asIntBuffer().get(values);
+            in.position(in.position() + values.length * Integer.BYTES);
+            return values;
+        }
+
+        float[] readFloats() {
+            final float[] values = new float[in.getInt()];
+            in.asFloatBuffer().get(values);
+            in.position(in.position() + values.length * Float.BYTES);
+            return values;
+        }
+
+        byte[] readBytes() {
+            final byte[] values = new byte[in.getInt()];
+            in.get(values);
+            return values;
+        }
+
+        boolean[] readBooleans() {
+            final boolean[] values = new boolean[in.getInt()];
+
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.get() != 0;
+            }
+
+            return values;
+        }
+
+        String[] readStrings() {
+            final int[] indices = readInts();
+            final String[] values = new String[indices.length];
+
+            for (int i = 0; i < indices.length; i++) {
+                values[i] = indices[i] != NULL ? strings[indices[i]] : null;
+            }
+
+            return values;
+        }
+    }
+}
@@ -0,0 +1,690 @@
+package com.kurtraschke.pvtagtfsrealtime.gtfs;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.services.GtfsRelationalDao;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * A read-only, compact copy of the parts of a GTFS feed the bridge uses:
+ * agencies, routes, trips, stop times, stops, shapes and calendars.
+ * <p>
+ * Every entity is identified by a dense index into parallel arrays, and
+ * entities refer to each other by index rather than by object. Stop times
+ * are stored as columns of ints, grouped by trip, and shape points as
+ * columns of floats, grouped by shape; the stop times of a trip and the
+ * points of a shape are contiguous ranges of those columns. Repeated strings
+ * are interned when the store is built, and the {@link GtfsRelationalDao} it
+ * is built from can be discarded afterwards. A store can also be saved to
+ * and loaded from a {@link GtfsSnapshot} without any DAO at all.
+ */
+public final class GtfsStore {
+
+    /**
+     * Marks a stop time without an arrival or departure time, or a trip
+     * without a shape.
+     */
+    public static final int MISSING = -1;
+
+    private static final int EXCEPTION_ADDED = ServiceCalendarDate.EXCEPTION_TYPE_ADD;
+
+    private final String[] agencyIds;
+    private final TimeZone[] agencyTimeZones;
+
+    private final String[] routeIds;
+    private final int[] routeAgencies;
+    private final String[] routeShortNames;
+    private final String[] routeLongNames;
+    private final ImmutableMap<AgencyAndId, Integer> routeIndexForRouteId;
+
+    private final String[] tripIds;
+    private final int[] tripRoutes;
+    private final int[] tripServices;
+    private final int[] tripShapes;
+    private final String[] tripHeadsigns;
+    private final int[] tripStopTimeOffsets;
+
+    private final int[] stopTimeStops;
+    private final int[] stopSequences;
+    private final int[] arrivalTimes;
+    private final int[] departureTimes;
+
+    private final String[] stopIds;
+    private final String[] stopNames;
+    private final float[] stopLats;
+    private final float[] stopLons;
+
+    private final int[] shapePointOffsets;
+    private final float[] shapePointLats;
+    private final float[] shapePointLons;
+    private final ImmutableMap<AgencyAndId, Integer> shapeIndexForShapeId;
+
+    // Service calendars, indexed by service; dates are stored as yyyymmdd.
+    private final int serviceCount;
+    private final int[] calendarStartDates;
+    private final int[] calendarEndDates;
+    private final byte[] calendarDaysOfWeek;
+
+    // Calendar date exceptions, sorted by date.
+    private final int[] exceptionDates;
+    private final int[] exceptionServices;
+    private final boolean[] exceptionAdded;
+
+    private GtfsStore(Builder b) {
+        agencyIds = b.agencyIds;
+        agencyTimeZones = b.agencyTimeZones;
+        routeIds = b.routeIds;
+        routeAgencies = b.routeAgencies;
+        routeShortNames = b.routeShortNames;
+        routeLongNames = b.routeLongNames;
+        routeIndexForRouteId = b.routeIndexForRouteId;
+        tripIds = b.tripIds;
+        tripRoutes = b.tripRoutes;
+        tripServices = b.tripServices;
+        tripShapes = b.tripShapes;
+        tripHeadsigns = b.tripHeadsigns;
+        tripStopTimeOffsets = b.tripStopTimeOffsets;
+        stopTimeStops = b.stopTimeStops;
+        stopSequences = b.stopSequences;
+        arrivalTimes = b.arrivalTimes;
+        departureTimes = b.departureTimes;
+        stopIds = b.stopIds;
+        stopNames = b.stopNames;
+        stopLats = b.stopLats;
+        stopLons = b.stopLons;
+        shapePointOffsets = b.shapePointOffsets;
+        shapePointLats = b.shapePointLats;
+        shapePointLons = b.shapePointLons;
+        shapeIndexForShapeId = b.shapeIndexForShapeId;
+        serviceCount = b.serviceCount;
+        calendarStartDates = b.calendarStartDates;
+        calendarEndDates = b.calendarEndDates;
+        calendarDaysOfWeek = b.calendarDaysOfWeek;
+        exceptionDates = b.exceptionDates;
+        exceptionServices = b.exceptionServices;
+        exceptionAdded = b.exceptionAdded;
+    }
+
+    public static GtfsStore fromDao(GtfsRelationalDao dao) {
+        return new GtfsStore(new Builder(dao));
+    }
+
+    /**
+     * Writes the store's columns to a {@link GtfsSnapshot}.
+     */
+    void write(GtfsSnapshot.Output out) throws IOException {
+        out.writeStrings(agencyIds);
+        out.writeStrings(Arrays.stream(agencyTimeZones).map(TimeZone::getID).toArray(String[]::new));
+
+        out.writeStrings(routeIds);
+        out.writeInts(routeAgencies);
+        out.writeStrings(routeShortNames);
+        out.writeStrings(routeLongNames);
+        writeIds(out, routeIndexForRouteId);
+
+        out.writeStrings(tripIds);
+        out.writeInts(tripRoutes);
+        out.writeInts(tripServices);
+        out.writeInts(tripShapes);
+        out.writeStrings(tripHeadsigns);
+        out.writeInts(tripStopTimeOffsets);
+
+        out.writeInts(stopTimeStops);
+        out.writeInts(stopSequences);
+        out.writeInts(arrivalTimes);
+        out.writeInts(departureTimes);
+
+        out.writeStrings(stopIds);
+        out.writeStrings(stopNames);
+        out.writeFloats(stopLats);
+        out.writeFloats(stopLons);
+
+        out.writeInts(shapePointOffsets);
+        out.writeFloats(shapePointLats);
+        out.writeFloats(shapePointLons);
+        writeIds(out, shapeIndexForShapeId);
+
+        out.writeInt(serviceCount);
+        out.writeInts(calendarStartDates);
+        out.writeInts(calendarEndDates);
+        out.writeBytes(calendarDaysOfWeek);
+
+        out.writeInts(exceptionDates);
+        out.writeInts(exceptionServices);
+        out.writeBooleans(exceptionAdded);
+    }
+
+    /**
+     * Reads a store from a {@link GtfsSnapshot}, in the order
+     * {@link #write(GtfsSnapshot.Output)} wrote it.
+     */
+    static GtfsStore read(GtfsSnapshot.Input in) {
+        final Builder b = new Builder();
+
+        b.agencyIds = in.readStrings();
+        b.agencyTimeZones = Arrays.stream(in.readStrings()).map(TimeZone::getTimeZone).toArray(TimeZone[]::new);
+
+        b.routeIds = in.readStrings();
+        b.routeAgencies = in.readInts();
+        b.routeShortNames = in.readStrings();
+        b.routeLongNames = in.readStrings();
+        b.routeIndexForRouteId = readIds(in);
+
+        b.tripIds = in.readStrings();
+        b.tripRoutes = in.readInts();
+        b.tripServices = in.readInts();
+        b.tripShapes = in.readInts();
+        b.tripHeadsigns = in.readStrings();
+        b.tripStopTimeOffsets = in.readInts();
+
+        b.stopTimeStops = in.readInts();
+        b.stopSequences = in.readInts();
+        b.arrivalTimes = in.readInts();
+        b.departureTimes = in.readInts();
+
+        b.stopIds = in.readStrings();
+        b.stopNames = in.readStrings();
+        b.stopLats = in.readFloats();
+        b.stopLons = in.readFloats();
+
+        b.shapePointOffsets = in.readInts();
+        b.shapePointLats = in.readFloats();
+        b.shapePointLons = in.readFloats();
+        b.shapeIndexForShapeId = readIds(in);
+
+        b.serviceCount = in.readInt();
+        b.calendarStartDates = in.readInts();
+        b.calendarEndDates = in.readInts();
+        b.calendarDaysOfWeek = in.readBytes();
+
+        b.exceptionDates = in.readInts();
+        b.exceptionServices = in.readInts();
+        b.exceptionAdded = in.readBooleans();
+
+        return new GtfsStore(b);
+    }
+
+    /**
+     * Writes the ids of an index map, which was built in index order.
+     */
+    private static void writeIds(GtfsSnapshot.Output out, ImmutableMap<AgencyAndId, Integer> indexForId) throws IOException {
+        out.writeStrings(indexForId.keySet().stream().map(AgencyAndId::getAgencyId).toArray(String[]::new));
+        out.writeStrings(indexForId.keySet().stream().map(AgencyAndId::getId).toArray(String[]::new));
+    }
+
+    private static ImmutableMap<AgencyAndId, Integer> readIds(GtfsSnapshot.Input in) {
+        final String[] agencyIds = in.readStrings();
+        final String[] ids = in.readStrings();
+        final ImmutableMap.Builder<AgencyAndId, Integer> indexForId = ImmutableMap.builder();
+
+        for (int i = 0; i < ids.length; i++) {
+            indexForId.put(new AgencyAndId(agencyIds[i], ids[i]), i);
+        }
+
+        return indexForId.build();
+    }
+
+    public int getAgencyCount() {
+        return agencyIds.length;
+    }
+
+    public String getAgencyId(int agencyIndex) {
+        return agencyIds[agencyIndex];
+    }
+
+    public TimeZone getAgencyTimeZone(int agencyIndex) {
+        return agencyTimeZones[agencyIndex];
+    }
+
+    public int getRouteCount() {
+        return routeIds.length;
+    }
+
+    public String getRouteId(int routeIndex) {
+        return routeIds[routeIndex];
+    }
+
+    public int getRouteAgency(int routeIndex) {
+        return routeAgencies[routeIndex];
+    }
+
+    @Nullable
+    public String getRouteShortName(int routeIndex) {
+        return routeShortNames[routeIndex];
+    }
+
+    @Nullable
+    public String getRouteLongName(int routeIndex) {
+        return routeLongNames[routeIndex];
+    }
+
+    /**
+     * @return the index of the route, or -1 if there is no such route
+     */
+    public int routeIndexOf(AgencyAndId routeId) {
+        return routeIndexForRouteId.getOrDefault(routeId, -1);
+    }
+
+    public int getTripCount() {
+        return tripIds.length;
+    }
+
+    public String getTripId(int tripIndex) {
+        return tripIds[tripIndex];
+    }
+
+    public int getTripRoute(int tripIndex) {
+        return tripRoutes[tripIndex];
+    }
+
+    public int getTripService(int tripIndex) {
+        return tripServices[tripIndex];
+    }
+
+    /**
+     * @return the index of the trip's shape, or {@link #MISSING} if it has none
+     */
+    public int getTripShape(int tripIndex) {
+        return tripShapes[tripIndex];
+    }
+
+    @Nullable
+    public String getTripHeadsign(int tripIndex) {
+        return tripHeadsigns[tripIndex];
+    }
+
+    /**
+     * @return the index of the trip's first stop time; the rest follow it in order
+     */
+    public int getFirstStopTime(int tripIndex) {
+        return tripStopTimeOffsets[tripIndex];
+    }
+
+    public int getStopTimeCount(int tripIndex) {
+        return tripStopTimeOffsets[tripIndex + 1] - tripStopTimeOffsets[tripIndex];
+    }
+
+    public int getStopTimeStop(int stopTimeIndex) {
+        return stopTimeStops[stopTimeIndex];
+    }
+
+    public int getStopSequence(int stopTimeIndex) {
+        return stopSequences[stopTimeIndex];
+    }
+
+    /**
+     * @return seconds since the start of the service date, or {@link #MISSING}
+     */
+    public int getArrivalTime(int stopTimeIndex) {
+        return arrivalTimes[stopTimeIndex];
+    }
+
+    /**
+     * @return seconds since the start of the service date, or {@link #MISSING}
+     */
+    public int getDepartureTime(int stopTimeIndex) {
+        return departureTimes[stopTimeIndex];
+    }
+
+    public String getStopId(int stopIndex) {
+        return stopIds[stopIndex];
+    }
+
+    @Nullable
+    public String getStopName(int stopIndex) {
+        return stopNames[stopIndex];
+    }
+
+    public double getStopLat(int stopIndex) {
+        return stopLats[stopIndex];
+    }
+
+    public double getStopLon(int stopIndex) {
+        return stopLons[stopIndex];
+    }
+
+    public int getShapeCount() {
+        return shapePointOffsets.length - 1;
+    }
+
+    /**
+     * @return the index of the shape, or -1 if there is no such shape
+     */
+    public int shapeIndexOf(AgencyAndId shapeId) {
+        return shapeIndexForShapeId.getOrDefault(shapeId, -1);
+    }
+
+    /**
+     * @return the index of the shape's first point; the rest follow it in sequence
+     */
+    public int getFirstShapePoint(int shapeIndex) {
+        return shapePointOffsets[shapeIndex];
+    }
+
+    public int getShapePointCount(int shapeIndex) {
+        return shapePointOffsets[shapeIndex + 1] - shapePointOffsets[shapeIndex];
+    }
+
+    public double getShapePointLat(int shapePointIndex) {
+        return shapePointLats[shapePointIndex];
+    }
+
+    public double getShapePointLon(int shapePointIndex) {
+        return shapePointLons[shapePointIndex];
+    }
+
+    public int getServiceCount() {
+        return serviceCount;
+    }
+
+    /**
+     * @return the indices of the services active on the given date, after
+     * applying calendar date exceptions
+     */
+    public BitSet getActiveServices(ServiceDate serviceDate) {
+        final int date = date(serviceDate);
+        final int dayOfWeekBit = 1 << (LocalDate.of(serviceDate.getYear(), serviceDate.getMonth(), serviceDate.getDay())
+                .getDayOfWeek().getValue() - 1);
+
+        final BitSet active = new BitSet(serviceCount);
+
+        for (int s = 0; s < serviceCount; s++) {
+            if (calendarStartDates[s] <= date && date <= calendarEndDates[s] && (calendarDaysOfWeek[s] & dayOfWeekBit) != 0) {
+                active.set(s);
+            }
+        }
+
+        for (int i = lowerBound(exceptionDates, date); i < exceptionDates.length && exceptionDates[i] == date; i++) {
+            active.set(exceptionServices[i], exceptionAdded[i]);
+        }
+
+        return active;
+    }
+
+    private static int lowerBound(int[] sorted, int key) {
+        int low = 0;
+        int high = sorted.length;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+
+            if (sorted[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private static int date(ServiceDate sd) {
+        return sd.getYear() * 10000 + sd.getMonth() * 100 + sd.getDay();
+    }
+
+    private static final class Builder {
+        private final Interner<String> strings = Interners.newStrongInterner();
+
+        private String[] agencyIds;
+        private TimeZone[] agencyTimeZones;
+        private String[] routeIds;
+        private int[] routeAgencies;
+        private String[] routeShortNames;
+        private String[] routeLongNames;
+        private ImmutableMap<AgencyAndId, Integer> routeIndexForRouteId;
+        private String[] tripIds;
+        private int[] tripRoutes;
+        private int[] tripServices;
+        private int[] tripShapes;
+        private String[] tripHeadsigns;
+        private int[] tripStopTimeOffsets;
+        private int[] stopTimeStops;
+        private int[] stopSequences;
+        private int[] arrivalTimes;
+        private int[] departureTimes;
+        private String[] stopIds;
+        private String[] stopNames;
+        private float[] stopLats;
+        private float[] stopLons;
+        private int[] shapePointOffsets;
+        private float[] shapePointLats;
+        private float[] shapePointLons;
+        private ImmutableMap<AgencyAndId, Integer> shapeIndexForShapeId;
+        private int serviceCount;
+        private int[] calendarStartDates;
+        private int[] calendarEndDates;
+        private byte[] calendarDaysOfWeek;
+        private int[] exceptionDates;
+        private int[] exceptionServices;
+        private boolean[] exceptionAdded;
+
+        Builder() {
+        }
+
+        Builder(GtfsRelationalDao dao) {
+            final Map<String, Integer> agencyIndices = agencies(dao);
+            routes(dao, agencyIndices);
+            final Map<Stop, Integer> stopIndices = stops(dao);
+            shapes(dao);
+            final Map<AgencyAndId, Integer> serviceIndices = new LinkedHashMap<>();
+            trips(dao, stopIndices, serviceIndices);
+            calendars(dao, serviceIndices);
+        }
+
+        private Map<String, Integer> agencies(GtfsRelationalDao dao) {
+            final List<Agency> agencies = new ArrayList<>(dao.getAllAgencies());
+            final Map<String, Integer> agencyIndices = new HashMap<>();
+
+            agencyIds = new String[agencies.size()];
+            agencyTimeZones = new TimeZone[agencies.size()];
+
+            for (int i = 0; i < agencies.size(); i++) {
+                agencyIds[i] = strings.intern(agencies.get(i).getId());
+                agencyTimeZones[i] = TimeZone.getTimeZone(agencies.get(i).getTimezone());
+                agencyIndices.put(agencyIds[i], i);
+            }
+
+            return agencyIndices;
+        }
+
+        private void routes(GtfsRelationalDao dao, Map<String, Integer> agencyIndices) {
+            final List<Route> routes = new ArrayList<>(dao.getAllRoutes());
+            final ImmutableMap.Builder<AgencyAndId, Integer> routeIndexForRouteIdBuilder = ImmutableMap.builder();
+
+            routeIds = new String[routes.size()];
+            routeAgencies = new int[routes.size()];
+            routeShortNames = new String[routes.size()];
+            routeLongNames = new String[routes.size()];
+
+            for (int i = 0; i < routes.size(); i++) {
+                final Route route = routes.get(i);
+
+                routeIds[i] = strings.intern(route.getId().getId());
+                routeAgencies[i] = agencyIndices.get(route.getAgency().getId());
+                routeShortNames[i] = intern(route.getShortName());
+                routeLongNames[i] = intern(route.getLongName());
+                routeIndexForRouteIdBuilder.put(route.getId(), i);
+            }
+
+            routeIndexForRouteId = routeIndexForRouteIdBuilder.build();
+        }
+
+        private Map<Stop, Integer> stops(GtfsRelationalDao dao) {
+            final List<Stop> stops = new ArrayList<>(dao.getAllStops());
+            final Map<Stop, Integer> stopIndices = new HashMap<>();
+
+            stopIds = new String[stops.size()];
+            stopNames = new String[stops.size()];
+            stopLats = new float[stops.size()];
+            stopLons = new float[stops.size()];
+
+            for (int i = 0; i < stops.size(); i++) {
+                final Stop stop = stops.get(i);
+
+                stopIds[i] = strings.intern(stop.getId().getId());
+                stopNames[i] = intern(stop.getName());
+                stopLats[i] = (float) stop.getLat();
+                stopLons[i] = (float) stop.getLon();
+                stopIndices.put(stop, i);
+            }
+
+            return stopIndices;
+        }
+
+        private void shapes(GtfsRelationalDao dao) {
+            final List<AgencyAndId> shapeIds = new ArrayList<>(dao.getAllShapeIds());
+            final List<List<ShapePoint>> shapePoints = new ArrayList<>(shapeIds.size());
+            final ImmutableMap.Builder<AgencyAndId, Integer> shapeIndexForShapeIdBuilder = ImmutableMap.builder();
+            int pointCount = 0;
+
+            for (int shapeIndex = 0; shapeIndex < shapeIds.size(); shapeIndex++) {
+                final List<ShapePoint> sorted = new ArrayList<>(dao.getShapePointsForShapeId(shapeIds.get(shapeIndex)));
+                sorted.sort(Comparator.comparing(ShapePoint::getSequence));
+                shapePoints.add(sorted);
+                shapeIndexForShapeIdBuilder.put(shapeIds.get(shapeIndex), shapeIndex);
+                pointCount += sorted.size();
+            }
+
+            shapePointOffsets = new int[shapeIds.size() + 1];
+            shapePointLats = new float[pointCount];
+            shapePointLons = new float[pointCount];
+
+            int point = 0;
+
+            for (int shapeIndex = 0; shapeIndex < shapeIds.size(); shapeIndex++) {
+                shapePointOffsets[shapeIndex] = point;
+
+                for (ShapePoint sp : shapePoints.get(shapeIndex)) {
+                    shapePointLats[point] = (float) sp.getLat();
+                    shapePointLons[point] = (float) sp.getLon();
+                    point++;
+                }
+            }
+
+            shapePointOffsets[shapeIds.size()] = point;
+            shapeIndexForShapeId = shapeIndexForShapeIdBuilder.build();
+        }
+
+        private void trips(GtfsRelationalDao dao, Map<Stop, Integer> stopIndices, Map<AgencyAndId, Integer> serviceIndices) {
+            final List<Trip> trips = new ArrayList<>(dao.getAllTrips());
+            final List<List<StopTime>> tripStopTimes = new ArrayList<>(trips.size());
+            int stopTimeCount = 0;
+
+            for (Trip trip : trips) {
+                final List<StopTime> stopTimes = dao.getStopTimesForTrip(trip);
+                tripStopTimes.add(stopTimes);
+                stopTimeCount += stopTimes.size();
+            }
+
+            tripIds = new String[trips.size()];
+            tripRoutes = new int[trips.size()];
+            tripServices = new int[trips.size()];
+            tripShapes = new int[trips.size()];
+            tripHeadsigns = new String[trips.size()];
+            tripStopTimeOffsets = new int[trips.size() + 1];
+            stopTimeStops = new int[stopTimeCount];
+            stopSequences = new int[stopTimeCount];
+            arrivalTimes = new int[stopTimeCount];
+            departureTimes = new int[stopTimeCount];
+
+            int stopTime = 0;
+
+            for (int i = 0; i < trips.size(); i++) {
+                final Trip trip = trips.get(i);
+
+                tripIds[i] = strings.intern(trip.getId().getId());
+                tripRoutes[i] = routeIndexForRouteId.get(trip.getRoute().getId());
+                tripServices[i] = serviceIndices.computeIfAbsent(trip.getServiceId(), k -> serviceIndices.size());
+                tripShapes[i] = trip.getShapeId() != null ? shapeIndexForShapeId.getOrDefault(trip.getShapeId(), MISSING) : MISSING;
+                tripHeadsigns[i] = intern(trip.getTripHeadsign());
+                tripStopTimeOffsets[i] = stopTime;
+
+                for (StopTime st : tripStopTimes.get(i)) {
+                    stopTimeStops[stopTime] = stopIndices.get(st.getStop());
+                    stopSequences[stopTime] = st.getStopSequence();
+                    arrivalTimes[stopTime] = st.isArrivalTimeSet() ? st.getArrivalTime() : MISSING;
+                    departureTimes[stopTime] = st.isDepartureTimeSet() ? st.getDepartureTime() : MISSING;
+                    stopTime++;
+                }
+            }
+
+            tripStopTimeOffsets[trips.size()] = stopTime;
+        }
+
+        private void calendars(GtfsRelationalDao dao, Map<AgencyAndId, Integer> serviceIndices) {
+            final List<ServiceCalendar> calendars = new ArrayList<>(dao.getAllCalendars());
+            final List<ServiceCalendarDate> calendarDates = new ArrayList<>(dao.getAllCalendarDates());
+
+            for (ServiceCalendar sc : calendars) {
+                serviceIndices.computeIfAbsent(sc.getServiceId(), k -> serviceIndices.size());
+            }
+
+            for (ServiceCalendarDate scd : calendarDates) {
+                serviceIndices.computeIfAbsent(scd.getServiceId(), k -> serviceIndices.size());
+            }
+
+            serviceCount = serviceIndices.size();
+
+            // A service with no calendar is only active on the dates added by exceptions.
+            calendarStartDates = new int[serviceCount];
+            calendarEndDates = new int[serviceCount];
+            calendarDaysOfWeek = new byte[serviceCount];
+
+            for (ServiceCalendar sc : calendars) {
+                final int s = serviceIndices.get(sc.getServiceId());
+
+                calendarStartDates[s] = date(sc.getStartDate());
+                calendarEndDates[s] = date(sc.getEndDate());
+                calendarDaysOfWeek[s] = (byte) (sc.getMonday()
+                        | sc.getTuesday() << 1
+                        | sc.getWednesday() << 2
+                        | sc.getThursday() << 3
+                        | sc.getFriday() << 4
+                        | sc.getSaturday() << 5
+                        | sc.getSunday() << 6);
+            }
+
+            calendarDates.sort(Comparator.comparing(ServiceCalendarDate::getDate));
+
+            exceptionDates = new int[calendarDates.size()];
+            exceptionServices = new int[calendarDates.size()];
+            exceptionAdded = new boolean[calendarDates.size()];
+
+            for (int i = 0; i < calendarDates.size(); i++) {
+                final ServiceCalendarDate scd = calendarDates.get(i);
+
+                exceptionDates[i] = date(scd.getDate());
+                exceptionServices[i] = serviceIndices.get(scd.getServiceId());
+                exceptionAdded[i] = scd.getExceptionType() == EXCEPTION_ADDED;
+            }
+        }
+
+        @Nullable
+        private String intern(@Nullable String s) {
+            return s != null ? strings.intern(s) : null;
+        }
+    }
+}
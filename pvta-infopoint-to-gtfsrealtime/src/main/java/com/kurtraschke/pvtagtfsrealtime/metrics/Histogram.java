@@ -0,0 +1,65 @@
+package com.kurtraschke.pvtagtfsrealtime.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A distribution of durations, counted in fixed buckets from 100 microseconds to 30 seconds.
+ * Recording is lock-free, so histograms may be updated from any thread.
+ */
+public final class Histogram {
+
+    static final double[] BUCKET_BOUNDS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+
+    // The last bucket counts observations above the largest bound.
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS.length + 1];
+    private final DoubleAdder sum = new DoubleAdder();
+
+    Histogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void observeNanos(long nanos) {
+        observe(nanos / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Records the time since {@code startNanos}, a value of {@link System#nanoTime()}.
+     */
+    public void observeSince(long startNanos) {
+        observeNanos(System.nanoTime() - startNanos);
+    }
+
+    public void observe(double seconds) {
+        int bucket = 0;
+
+        while (bucket < BUCKET_BOUNDS.length && seconds > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+
+        buckets[bucket].increment();
+        sum.add(seconds);
+    }
+
+    /**
+     * @return the number of observations in each bucket, the last being those above the largest bound
+     */
+    long[] getBucketCounts() {
+        final long[] counts = new long[buckets.length];
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+
+        return counts;
+    }
+
+    double getSum() {
+        return sum.sum();
+    }
+}
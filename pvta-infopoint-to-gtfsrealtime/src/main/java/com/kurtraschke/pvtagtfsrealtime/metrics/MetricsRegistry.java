@@ -0,0 +1,155 @@
+package com.kurtraschke.pvtagtfsrealtime.metrics;
+
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The bridge's metrics, written out in the Prometheus text exposition format.
+ * <p>
+ * Metrics are registered by name and label values; registering the same name
+ * and labels again returns the existing metric, so components may register
+ * their metrics without coordinating. Labels are given as alternating names
+ * and values.
+ */
+@Singleton
+public class MetricsRegistry {
+
+    private static final String PREFIX = "pvta_";
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) register(name, help, "histogram", labels, Histogram::new);
+    }
+
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) register(name, help, "counter", labels, LongAdder::new);
+    }
+
+    /**
+     * Registers a counter whose value is read from elsewhere, such as a cache's
+     * statistics, when the metrics are written.
+     */
+    public void counter(String name, String help, DoubleSupplier value, String... labels) {
+        register(name, help, "counter", labels, () -> value);
+    }
+
+    /**
+     * Registers a gauge whose value is read when the metrics are written.
+     */
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        register(name, help, "gauge", labels, () -> value);
+    }
+
+    public synchronized void writeTo(Appendable out) {
+        try {
+            for (Map.Entry<String, Family> familyEntry : families.entrySet()) {
+                final String name = PREFIX + familyEntry.getKey();
+                final Family family = familyEntry.getValue();
+
+                out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+                out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+
+                for (Map.Entry<String, Object> metricEntry : family.metrics.entrySet()) {
+                    write(out, name, metricEntry.getKey(), metricEntry.getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private synchronized Object register(String name, String help, String type, String[] labels,
+                                         Supplier<Object> metricFactory) {
+        final Family family = families.computeIfAbsent(name, n -> new Family(help, type));
+
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+
+        return family.metrics.computeIfAbsent(formatLabels(labels), l -> metricFactory.get());
+    }
+
+    private static void write(Appendable out, String name, String labels, Object metric) throws IOException {
+        if (metric instanceof Histogram) {
+            final Histogram histogram = (Histogram) metric;
+            final long[] counts = histogram.getBucketCounts();
+            long cumulative = 0;
+
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+
+                final String bound = i < Histogram.BUCKET_BOUNDS.length ? Double.toString(Histogram.BUCKET_BOUNDS[i]) : "+Inf";
+
+                out.append(name).append("_bucket{").append(labels).append(labels.isEmpty() ? "" : ",")
+                        .append("le=\"").append(bound).append("\"} ").append(Long.toString(cumulative)).append('\n');
+            }
+
+            writeSample(out, name + "_sum", labels, Double.toString(histogram.getSum()));
+            writeSample(out, name + "_count", labels, Long.toString(cumulative));
+        } else if (metric instanceof LongAdder) {
+            writeSample(out, name, labels, Long.toString(((LongAdder) metric).sum()));
+        } else {
+            writeSample(out, name, labels, formatValue(((DoubleSupplier) metric).getAsDouble()));
+        }
+    }
+
+    private static void writeSample(Appendable out, String name, String labels, String value) throws IOException {
+        out.append(name);
+
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static String formatLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name, value pairs");
+        }
+
+        final StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+
+            sb.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+
+        return sb.toString();
+    }
+
+    private static final class Family {
+        private final String help;
+        private final String type;
+        private final Map<String, Object> metrics = new LinkedHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
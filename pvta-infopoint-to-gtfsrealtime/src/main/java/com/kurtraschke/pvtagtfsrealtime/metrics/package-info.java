@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package com.kurtraschke.pvtagtfsrealtime.metrics;
+
+import javax.annotation.ParametersAreNonnullByDefault;
\ No newline at end of file
@@ -0,0 +1,74 @@
+package com.kurtraschke.pvtagtfsrealtime.predictions;
+
+/**
+ * Predicted arrival and departure times for the stops a vehicle has yet to
+ * serve on its trip. The stops are a contiguous range of the trip's stop
+ * times in the {@link com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore},
+ * starting at {@link #getFirstStopTime()}.
+ */
+public final class TripPrediction {
+
+    private final int firstStopTime;
+    private final long[] arrivalTimes;
+    private final long[] departureTimes;
+    private final int[] arrivalDelays;
+    private final int[] departureDelays;
+
+    TripPrediction(int firstStopTime, long[] arrivalTimes, long[] departureTimes,
+                   int[] arrivalDelays, int[] departureDelays) {
+        this.firstStopTime = firstStopTime;
+        this.arrivalTimes = arrivalTimes;
+        this.departureTimes = departureTimes;
+        this.arrivalDelays = arrivalDelays;
+        this.departureDelays = departureDelays;
+    }
+
+    /**
+     * @return the number of stops predicted
+     */
+    public int size() {
+        return arrivalTimes.length;
+    }
+
+    /**
+     * @return the store index of the first stop time predicted
+     */
+    public int getFirstStopTime() {
+        return firstStopTime;
+    }
+
+    /**
+     * @return the store index of the i-th stop time predicted
+     */
+    public int getStopTime(int i) {
+        return firstStopTime + i;
+    }
+
+    /**
+     * @return the predicted arrival time, in seconds since the epoch
+     */
+    public long getArrivalTime(int i) {
+        return arrivalTimes[i];
+    }
+
+    /**
+     * @return the predicted departure time, in seconds since the epoch
+     */
+    public long getDepartureTime(int i) {
+        return departureTimes[i];
+    }
+
+    /**
+     * @return the predicted arrival delay, in seconds, positive when late
+     */
+    public int getArrivalDelay(int i) {
+        return arrivalDelays[i];
+    }
+
+    /**
+     * @return the predicted departure delay, in seconds, positive when late
+     */
+    public int getDepartureDelay(int i) {
+        return departureDelays[i];
+    }
+}
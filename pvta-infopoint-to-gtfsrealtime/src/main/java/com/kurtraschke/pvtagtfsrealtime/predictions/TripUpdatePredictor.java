@@ -0,0 +1,267 @@
+package com.kurtraschke.pvtagtfsrealtime.predictions;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.inject.Inject;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.ShapeGeometry;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.TripAssignment;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import static com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore.MISSING;
+
+/**
+ * Predicts when a vehicle will arrive at and depart from each stop it has yet
+ * to serve on its trip, from its position along the trip's shape and its
+ * schedule deviation.
+ * <p>
+ * The deviation is carried forward from stop to stop. Between stops it decays
+ * exponentially over the scheduled running time, as vehicles drift back
+ * towards the schedule. Where the schedule allows time at a stop, a late
+ * vehicle is assumed to dwell only as long as it must and make up the rest,
+ * and an early vehicle to hold until its scheduled departure.
+ * <p>
+ * Each trip's stop times, with missing times interpolated, and its stops'
+ * distances along the shape are cached, so that predicting a vehicle is a
+ * single pass over its remaining stops.
+ */
+@Singleton
+public class TripUpdatePredictor {
+
+    // A vehicle this close to a stop is taken to be at the stop rather than past it.
+    private static final double AT_STOP_METERS = 25;
+
+    private final GtfsStore store;
+    private final ShapeGeometry shapeGeometry;
+
+    private final LoadingCache<Integer, TripSchedule> tripScheduleCache;
+
+    private int dwellSeconds = 20;
+    private int recoveryTimeConstant = 1800;
+
+    @Inject
+    public TripUpdatePredictor(GtfsStore store, ShapeGeometry shapeGeometry) {
+        this.store = store;
+        this.shapeGeometry = shapeGeometry;
+
+        tripScheduleCache = CacheBuilder.newBuilder()
+                .maximumSize(500)
+                .recordStats()
+                .build(CacheLoader.from(this::tripSchedule));
+    }
+
+    /**
+     * @param dwellSeconds how long a late vehicle is assumed to spend at a stop
+     *                     where the schedule allows time
+     */
+    @Inject(optional = true)
+    public void setDwellSeconds(@Named("predictions.dwellSeconds") int dwellSeconds) {
+        this.dwellSeconds = dwellSeconds;
+    }
+
+    /**
+     * @param recoveryTimeConstant the scheduled running time, in seconds, over which
+     *                             a deviation shrinks by a factor of e; 0 keeps
+     *                             deviations constant
+     */
+    @Inject(optional = true)
+    public void setRecoveryTimeConstant(@Named("predictions.recoveryTimeConstant") int recoveryTimeConstant) {
+        this.recoveryTimeConstant = recoveryTimeConstant;
+    }
+
+    public CacheStats getTripScheduleCacheStats() {
+        return tripScheduleCache.stats();
+    }
+
+    /**
+     * @param currentStopTime the stop time of the stop Infopoint last reported the
+     *                        vehicle at, or {@link GtfsStore#MISSING}
+     * @param delaySeconds    the vehicle's schedule deviation, positive when late
+     */
+    public TripPrediction predict(TripAssignment assignment, int currentStopTime, int delaySeconds) {
+        return predict(assignment.getTripIndex(), assignment.getServiceDay().getMidnightEpochSecond(),
+                assignment.getDistanceAlongShape(), currentStopTime, delaySeconds,
+                assignment.getProbeEpochSecond() + delaySeconds);
+    }
+
+    /**
+     * @param midnightEpochSecond the epoch second the trip's stop times are measured from
+     * @param distanceAlongShape  the vehicle's position along the trip's shape, in meters
+     * @param currentStopTime     the stop time of the stop Infopoint last reported the
+     *                            vehicle at, or {@link GtfsStore#MISSING}
+     * @param delaySeconds        the vehicle's schedule deviation, positive when late
+     * @param reportEpochSecond   the time of the vehicle's report; nothing is predicted
+     *                            to happen before it
+     */
+    public TripPrediction predict(int tripIndex, long midnightEpochSecond, double distanceAlongShape,
+                                  int currentStopTime, int delaySeconds, long reportEpochSecond) {
+        final TripSchedule schedule = tripScheduleCache.getUnchecked(tripIndex);
+
+        int first = lowerBound(schedule.distances, distanceAlongShape - AT_STOP_METERS);
+
+        if (currentStopTime != MISSING) {
+            first = Math.max(first, currentStopTime - store.getFirstStopTime(tripIndex) + 1);
+        }
+
+        final int size = Math.max(0, schedule.distances.length - first);
+
+        final long[] arrivalTimes = new long[size];
+        final long[] departureTimes = new long[size];
+        final int[] arrivalDelays = new int[size];
+        final int[] departureDelays = new int[size];
+
+        int previousScheduled = size > 0 ? schedule.scheduledSecondsAt(first, distanceAlongShape) : 0;
+        long notBefore = reportEpochSecond;
+        double delay = delaySeconds;
+
+        for (int i = 0; i < size; i++) {
+            final int stop = first + i;
+            final int scheduledArrival = schedule.arrivals[stop];
+            final int scheduledDeparture = schedule.departures[stop];
+
+            delay = decay(delay, scheduledArrival - previousScheduled);
+
+            long arrival = midnightEpochSecond + scheduledArrival + Math.round(delay);
+
+            if (arrival < notBefore) {
+                arrival = notBefore;
+                delay = arrival - midnightEpochSecond - scheduledArrival;
+            }
+
+            // Vehicles wait for their scheduled departure from the first stop, whatever its dwell time.
+            if (scheduledDeparture > scheduledArrival || stop == 0) {
+                delay = Math.max(0, delay - Math.max(0, scheduledDeparture - scheduledArrival - dwellSeconds));
+            }
+
+            long departure = midnightEpochSecond + scheduledDeparture + Math.round(delay);
+
+            if (departure < arrival) {
+                departure = arrival;
+                delay = departure - midnightEpochSecond - scheduledDeparture;
+            }
+
+            arrivalTimes[i] = arrival;
+            departureTimes[i] = departure;
+            arrivalDelays[i] = (int) (arrival - midnightEpochSecond - scheduledArrival);
+            departureDelays[i] = (int) (departure - midnightEpochSecond - scheduledDeparture);
+
+            notBefore = departure;
+            previousScheduled = scheduledDeparture;
+        }
+
+        return new TripPrediction(store.getFirstStopTime(tripIndex) + first,
+                arrivalTimes, departureTimes, arrivalDelays, departureDelays);
+    }
+
+    private double decay(double delay, int runningSeconds) {
+        if (recoveryTimeConstant <= 0 || runningSeconds <= 0) {
+            return delay;
+        }
+
+        return delay * Math.exp(-(double) runningSeconds / recoveryTimeConstant);
+    }
+
+    private TripSchedule tripSchedule(int tripIndex) {
+        final int firstStopTime = store.getFirstStopTime(tripIndex);
+        final int n = store.getStopTimeCount(tripIndex);
+        final double[] distances = shapeGeometry.projectStops(tripIndex);
+        final int[] arrivals = new int[n];
+        final int[] departures = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            final int arrival = store.getArrivalTime(firstStopTime + i);
+            final int departure = store.getDepartureTime(firstStopTime + i);
+
+            arrivals[i] = arrival != MISSING ? arrival : departure;
+            departures[i] = departure != MISSING ? departure : arrival;
+        }
+
+        // Stop times with neither time are interpolated by distance between the nearest timed stops
+        // on either side; those before the first or after the last timed stop take its time.
+        int previousTimed = -1;
+
+        for (int i = 0; i <= n; i++) {
+            if (i < n && arrivals[i] == MISSING) {
+                continue;
+            }
+
+            if (i == n && previousTimed < 0) {
+                break;
+            }
+
+            for (int j = previousTimed + 1; j < i; j++) {
+                final int time;
+
+                if (previousTimed < 0) {
+                    time = arrivals[i];
+                } else if (i == n) {
+                    time = departures[previousTimed];
+                } else {
+                    final double span = distances[i] - distances[previousTimed];
+                    final double fraction = span > 0
+                            ? (distances[j] - distances[previousTimed]) / span
+                            : (double) (j - previousTimed) / (i - previousTimed);
+
+                    time = departures[previousTimed] + (int) Math.round(fraction * (arrivals[i] - departures[previousTimed]));
+                }
+
+                arrivals[j] = time;
+                departures[j] = time;
+            }
+
+            previousTimed = i;
+        }
+
+        return new TripSchedule(distances, arrivals, departures);
+    }
+
+    private static int lowerBound(double[] sorted, double key) {
+        int low = 0;
+        int high = sorted.length;
+
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+
+            if (sorted[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private static final class TripSchedule {
+        private final double[] distances;
+        private final int[] arrivals;
+        private final int[] departures;
+
+        TripSchedule(double[] distances, int[] arrivals, int[] departures) {
+            this.distances = distances;
+            this.arrivals = arrivals;
+            this.departures = departures;
+        }
+
+        /**
+         * @return the scheduled time at the given distance along the shape, which lies
+         * before the given stop and, unless it is the first, after the one before it
+         */
+        int scheduledSecondsAt(int stop, double distanceAlongShape) {
+            if (stop == 0) {
+                return arrivals[0];
+            }
+
+            final double span = distances[stop] - distances[stop - 1];
+            final double fraction = span > 0
+                    ? Math.max(0, Math.min(1, (distanceAlongShape - distances[stop - 1]) / span))
+                    : 1;
+
+            return departures[stop - 1] + (int) Math.round(fraction * (arrivals[stop] - departures[stop - 1]));
+        }
+    }
+}
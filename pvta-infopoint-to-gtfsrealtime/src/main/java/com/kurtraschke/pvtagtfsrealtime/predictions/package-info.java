@@ -0,0 +1,4 @@
+@ParametersAreNonnullByDefault
+package com.kurtraschke.pvtagtfsrealtime.predictions;
+
+import javax.annotation.ParametersAreNonnullByDefault;
\ No newline at end of file
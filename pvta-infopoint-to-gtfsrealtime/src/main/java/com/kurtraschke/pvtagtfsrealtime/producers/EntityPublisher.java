@@ -0,0 +1,93 @@
+package com.kurtraschke.pvtagtfsrealtime.producers;
+
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.kurtraschke.pvtagtfsrealtime.exporter.SerializedFeedCache;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeFullUpdate;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeIncrementalUpdate;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeSink;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Publishes each cycle's entities to a sink, either as a full update or, in
+ * differential mode, as an incremental update holding only the entities
+ * which were added, changed or removed since the previous cycle. Entities
+ * are matched between cycles by id, so ids must be stable. After each update
+ * the feed's {@link SerializedFeedCache} is refreshed.
+ * <p>
+ * Instances are not thread-safe; each is meant to be driven by a single
+ * producer.
+ */
+public class EntityPublisher {
+
+    private final GtfsRealtimeSink sink;
+    private final SerializedFeedCache cache;
+    private final boolean differential;
+
+    private Map<String, FeedEntity> previousEntities;
+
+    public EntityPublisher(GtfsRealtimeSink sink, SerializedFeedCache cache, boolean differential) {
+        this.sink = sink;
+        this.cache = cache;
+        this.differential = differential;
+    }
+
+    /**
+     * Publishes the complete set of entities for this cycle. If several
+     * entities share an id, only the first is kept.
+     */
+    public void publish(Iterable<FeedEntity> entities) {
+        final Map<String, FeedEntity> currentEntities = new LinkedHashMap<>();
+
+        for (FeedEntity entity : entities) {
+            currentEntities.putIfAbsent(entity.getId(), entity);
+        }
+
+        if (differential && previousEntities != null) {
+            final GtfsRealtimeIncrementalUpdate update = new GtfsRealtimeIncrementalUpdate();
+
+            for (FeedEntity entity : currentEntities.values()) {
+                if (!entity.equals(previousEntities.get(entity.getId()))) {
+                    update.addUpdatedEntity(entity);
+                }
+            }
+
+            for (String id : previousEntities.keySet()) {
+                if (!currentEntities.containsKey(id)) {
+                    update.addDeletedEntity(id);
+                }
+            }
+
+            sink.handleIncrementalUpdate(update);
+        } else {
+            final GtfsRealtimeFullUpdate update = new GtfsRealtimeFullUpdate();
+
+            for (FeedEntity entity : currentEntities.values()) {
+                update.addEntity(entity);
+            }
+
+            sink.handleFullUpdate(update);
+        }
+
+        previousEntities = currentEntities;
+        cache.refresh();
+    }
+
+    /**
+     * Publishes the same entities as the previous cycle.
+     *
+     * @throws IllegalStateException if nothing has been published yet
+     */
+    public void republish() {
+        if (previousEntities == null) {
+            throw new IllegalStateException("Nothing has been published yet");
+        }
+
+        publish(previousEntities.values());
+    }
+
+    public boolean hasPublished() {
+        return previousEntities != null;
+    }
+}
@@ -8,16 +8,16 @@ import com.google.transit.realtime.GtfsRealtime.Alert;
 import com.google.transit.realtime.GtfsRealtime.EntitySelector;
 import com.google.transit.realtime.GtfsRealtime.FeedEntity;
 import com.google.transit.realtime.GtfsRealtime.TimeRange;
-import com.kurtraschke.pvtagtfsrealtime.resolvers.RouteResolver;
+import com.kurtraschke.pvtagtfsrealtime.exporter.SerializedFeedCache;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsContext;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsContextManager;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.metrics.Histogram;
+import com.kurtraschke.pvtagtfsrealtime.metrics.MetricsRegistry;
+import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.ArrayOfPublicMessage;
 import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.PublicMessageType;
 import org.jetbrains.annotations.NotNull;
 import org.nnsoft.guice.sli4j.core.InjectLogger;
-import org.onebusaway.gtfs.model.Agency;
-import org.onebusaway.gtfs.model.AgencyAndId;
-import org.onebusaway.gtfs.model.Route;
-import org.onebusaway.gtfs.services.GtfsRelationalDao;
-import org.onebusaway.gtfs.services.calendar.CalendarService;
-import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeFullUpdate;
 import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeLibrary;
 import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeSink;
 import org.slf4j.Logger;
@@ -28,7 +28,9 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 import javax.xml.datatype.XMLGregorianCalendar;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.TimeZone;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -42,37 +44,55 @@ import static org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingType
 public class GtfsRealtimeAlertProducer {
 
     private final GtfsRealtimeSink alertsSink;
+    private final SerializedFeedCache alertsCache;
     private final ScheduledExecutorService scheduledExecutorService;
     private final int refreshRate;
     private final InfopointClient infopointClient;
-    private final RouteResolver routeResolver;
-    private final GtfsRelationalDao dao;
-    private final CalendarService cs;
+    private final GtfsContextManager gtfsContextManager;
+
+    private final Histogram cycleTime;
+    private final Histogram publishTime;
+
+    private boolean differential;
 
     private ScheduledFuture<?> updater;
+    private EntityPublisher alertsPublisher;
+
+    // Whether the last update published was built from a successful poll. One published after a
+    // failed poll is empty, and must not be republished just because Infopoint reports no change.
+    private boolean republishable;
 
     @InjectLogger
     private Logger LOG;
 
     @Inject
     public GtfsRealtimeAlertProducer(@Alerts GtfsRealtimeSink alertsSink,
+                                     @Alerts SerializedFeedCache alertsCache,
                                      ScheduledExecutorService scheduledExecutorService,
                                      @Named("refreshRate.alerts") int refreshRate,
                                      InfopointClient infopointClient,
-                                     RouteResolver routeResolver,
-                                     GtfsRelationalDao dao,
-                                     CalendarService cs) {
+                                     GtfsContextManager gtfsContextManager,
+                                     MetricsRegistry metrics) {
         this.alertsSink = alertsSink;
+        this.alertsCache = alertsCache;
         this.scheduledExecutorService = scheduledExecutorService;
         this.refreshRate = refreshRate;
         this.infopointClient = infopointClient;
-        this.routeResolver = routeResolver;
-        this.dao = dao;
-        this.cs = cs;
+        this.gtfsContextManager = gtfsContextManager;
+
+        cycleTime = metrics.histogram("cycle_seconds", "Time taken by each update cycle.", "producer", "alerts");
+        publishTime = metrics.histogram("publish_seconds", "Time taken to publish each update to the sinks.", "producer", "alerts");
+    }
+
+    @Inject(optional = true)
+    public void setDifferential(@Named("differentialUpdates") boolean differential) {
+        this.differential = differential;
     }
 
     @PostConstruct
     private void start() {
+        alertsPublisher = new EntityPublisher(alertsSink, alertsCache, differential);
+
         updater = scheduledExecutorService.scheduleWithFixedDelay(this::update, 0, refreshRate, TimeUnit.SECONDS);
     }
 
@@ -82,54 +102,96 @@ public class GtfsRealtimeAlertProducer {
     }
 
     private void update() {
-        final GtfsRealtimeFullUpdate update = new GtfsRealtimeFullUpdate();
+        final long start = System.nanoTime();
+
+        try {
+            updateAlerts();
+        } finally {
+            cycleTime.observeSince(start);
+        }
+    }
+
+    private void updateAlerts() {
+        final GtfsContext context = gtfsContextManager.getContext();
+
+        final List<FeedEntity> alerts = new ArrayList<>();
 
         try {
-            final List<PublicMessageType> messages = infopointClient.getAllMessages().getPublicMessage();
+            final Optional<ArrayOfPublicMessage> modifiedMessages = infopointClient.getAllMessagesIfModified();
+
+            if (!modifiedMessages.isPresent() && republishable) {
+                LOG.debug("Messages unchanged; republishing previous update.");
+
+                final long publishStart = System.nanoTime();
+                alertsPublisher.republish();
+                publishTime.observeSince(publishStart);
+                return;
+            }
+
+            final List<PublicMessageType> messages = modifiedMessages.isPresent()
+                    ? modifiedMessages.get().getPublicMessage()
+                    : infopointClient.getAllMessages().getPublicMessage();
 
             for (PublicMessageType message : messages) {
                 if (!message.isPublished() || message.getPublicAccess() != 1) {
                     continue;
                 }
 
-                final FeedEntity.Builder feb = FeedEntity.newBuilder();
+                // A message that cannot be converted is left out, rather than failing the whole update.
+                try {
+                    alerts.add(toFeedEntity(message, context));
+                } catch (RuntimeException e) {
+                    LOG.warn("Skipping message {}.", message.getMessageId(), e);
+                }
+            }
 
-                feb.setId(Integer.toString(message.getMessageId()));
+            republishable = true;
+        } catch (InfopointClientException e) {
+            LOG.error("Error while updating alerts.", e);
+            republishable = false;
+        }
 
-                final Alert.Builder ab = feb.getAlertBuilder();
+        final long publishStart = System.nanoTime();
+        alertsPublisher.publish(alerts);
+        publishTime.observeSince(publishStart);
+    }
 
-                final ImmutableSet<AgencyAndId> routeIds = message.getRoutes().getInt().stream()
-                        .map(routeResolver::resolveRoute)
-                        .collect(toImmutableSet());
+    private static FeedEntity toFeedEntity(PublicMessageType message, GtfsContext context) {
+        final GtfsStore store = context.getStore();
 
-                for (AgencyAndId routeId : routeIds) {
-                    final EntitySelector.Builder ieb = ab.addInformedEntityBuilder();
-                    ieb.setRouteId(routeId.getId());
-                }
+        final FeedEntity.Builder feb = FeedEntity.newBuilder();
 
-                final TimeZone agencyTimeZone = routeIds.stream()
-                        .map(dao::getRouteForId)
-                        .map(Route::getAgency)
-                        .map(Agency::getId)
-                        .distinct()
-                        .map(cs::getTimeZoneForAgencyId)
-                        .collect(onlyElement());
+        feb.setId(Integer.toString(message.getMessageId()));
 
-                final TimeRange.Builder apb = ab.addActivePeriodBuilder();
+        final Alert.Builder ab = feb.getAlertBuilder();
 
-                apb.setStart(timestamp(message.getFromDate(), message.getFromTime(), agencyTimeZone));
-                apb.setEnd(timestamp(message.getToDate(), message.getToTime(), agencyTimeZone));
+        final ImmutableSet<Integer> routeIndices = message.getRoutes().getInt().stream()
+                .map(context.getRouteResolver()::resolveRoute)
+                .filter(routeIndex -> routeIndex >= 0)
+                .collect(toImmutableSet());
 
-                ab.setDescriptionText(GtfsRealtimeLibrary.getTextAsTranslatedString(message.getMessage()));
+        for (int routeIndex : routeIndices) {
+            final EntitySelector.Builder ieb = ab.addInformedEntityBuilder();
+            ieb.setRouteId(store.getRouteId(routeIndex));
+        }
 
-                update.addEntity(feb.build());
-            }
+        // GTFS agencies all share one time zone, which also applies to messages naming no known routes.
+        final TimeZone agencyTimeZone = routeIndices.isEmpty()
+                ? TimeZone.getTimeZone(context.getAgencyTimeZone())
+                : routeIndices.stream()
+                .map(store::getRouteAgency)
+                .distinct()
+                .map(store::getAgencyTimeZone)
+                .collect(onlyElement());
 
-        } catch (InfopointClientException e) {
-            LOG.error("Error while updating alerts.", e);
-        }
+        final TimeRange.Builder apb = ab.addActivePeriodBuilder();
+
+        apb.setStart(timestamp(message.getFromDate(), message.getFromTime(), agencyTimeZone));
+        apb.setEnd(timestamp(message.getToDate(), message.getToTime(), agencyTimeZone));
+
+        ab.setDescriptionText(GtfsRealtimeLibrary.getTextAsTranslatedString(message.getMessage()));
 
-        alertsSink.handleFullUpdate(update);
+        return feb.build();
     }
 
     @NotNull
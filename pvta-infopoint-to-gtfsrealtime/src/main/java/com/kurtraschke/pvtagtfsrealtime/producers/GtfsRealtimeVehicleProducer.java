@@ -2,22 +2,20 @@ package com.kurtraschke.pvtagtfsrealtime.producers;
 
 import com.availtec.infopoint.client.InfopointClient;
 import com.availtec.infopoint.client.InfopointClientException;
+import com.availtec.infopoint.client.VehicleLocation;
 import com.google.inject.Inject;
 import com.google.transit.realtime.GtfsRealtime.*;
-import com.kurtraschke.pvtagtfsrealtime.resolvers.RouteResolver;
-import com.kurtraschke.pvtagtfsrealtime.resolvers.VehicleToTripResolver;
-import org.apache.commons.lang3.tuple.Pair;
-import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.VehicleLocationType;
+import com.kurtraschke.pvtagtfsrealtime.exporter.SerializedFeedCache;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsContext;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsContextManager;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.metrics.Histogram;
+import com.kurtraschke.pvtagtfsrealtime.metrics.MetricsRegistry;
+import com.kurtraschke.pvtagtfsrealtime.predictions.TripPrediction;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.TripAssignment;
 import org.jetbrains.annotations.NotNull;
 import org.nnsoft.guice.sli4j.core.InjectLogger;
-import org.onebusaway.gtfs.model.AgencyAndId;
-import org.onebusaway.gtfs.model.Route;
-import org.onebusaway.gtfs.model.StopTime;
-import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
-import org.onebusaway.gtfs.services.GtfsRelationalDao;
-import org.onebusaway.gtfs.services.calendar.CalendarService;
-import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeFullUpdate;
 import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.TripUpdates;
 import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.VehiclePositions;
 import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeSink;
@@ -28,28 +26,55 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-
-import static com.google.common.collect.MoreCollectors.onlyElement;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 @Singleton
 public class GtfsRealtimeVehicleProducer {
     private final GtfsRealtimeSink tripUpdatesSink;
     private final GtfsRealtimeSink vehiclePositionsSink;
+    private final SerializedFeedCache tripUpdatesCache;
+    private final SerializedFeedCache vehiclePositionsCache;
     private final ScheduledExecutorService scheduledExecutorService;
+    private final ExecutorService vehicleResolutionExecutor;
     private final int refreshRate;
     private final InfopointClient infopointClient;
-    private final VehicleToTripResolver tripResolver;
-    private final RouteResolver routeResolver;
-    private final GtfsRelationalDao dao;
-    private final CalendarService cs;
+    private final GtfsContextManager gtfsContextManager;
+
+    private final Histogram cycleTime;
+    private final Histogram routeTime;
+    private final Histogram tripTime;
+    private final Histogram stopTime;
+    private final Histogram predictionTime;
+    private final Histogram publishTime;
+    private final Map<Result, LongAdder> vehicleCounts = new EnumMap<>(Result.class);
+    private final LongAdder erroredVehicleCount;
+    private final LongAdder reusedVehicleCount;
+
+    private boolean differential;
 
     private ScheduledFuture<?> updater;
+    private EntityPublisher tripUpdatesPublisher;
+    private EntityPublisher vehiclePositionsPublisher;
+
+    private Map<Integer, ResolvedVehicle> resolvedVehicles = new HashMap<>();
+
+    // Whether the last update published was built from a successful poll. One published after a
+    // failed poll is empty, and must not be republished just because Infopoint reports no change.
+    private boolean republishable;
 
     @InjectLogger
     private Logger LOG;
@@ -57,27 +82,59 @@ public class GtfsRealtimeVehicleProducer {
     @Inject
     public GtfsRealtimeVehicleProducer(@TripUpdates GtfsRealtimeSink tripUpdatesSink,
                                        @VehiclePositions GtfsRealtimeSink vehiclePositionsSink,
+                                       @TripUpdates SerializedFeedCache tripUpdatesCache,
+                                       @VehiclePositions SerializedFeedCache vehiclePositionsCache,
                                        ScheduledExecutorService scheduledExecutorService,
+                                       @Named("vehicleResolution") ExecutorService vehicleResolutionExecutor,
                                        @Named("refreshRate.vehicles") int refreshRate,
                                        InfopointClient infopointClient,
-                                       RouteResolver routeResolver,
-                                       VehicleToTripResolver tripResolver,
-                                       GtfsRelationalDao dao,
-                                       CalendarService cs) {
+                                       GtfsContextManager gtfsContextManager,
+                                       MetricsRegistry metrics) {
         this.tripUpdatesSink = tripUpdatesSink;
         this.vehiclePositionsSink = vehiclePositionsSink;
+        this.tripUpdatesCache = tripUpdatesCache;
+        this.vehiclePositionsCache = vehiclePositionsCache;
         this.scheduledExecutorService = scheduledExecutorService;
+        this.vehicleResolutionExecutor = vehicleResolutionExecutor;
         this.refreshRate = refreshRate;
         this.infopointClient = infopointClient;
-        this.routeResolver = routeResolver;
-        this.tripResolver = tripResolver;
-        this.dao = dao;
-        this.cs = cs;
+        this.gtfsContextManager = gtfsContextManager;
+
+        cycleTime = metrics.histogram("cycle_seconds", "Time taken by each update cycle.", "producer", "vehicles");
+        routeTime = stageHistogram(metrics, "route");
+        tripTime = stageHistogram(metrics, "trip");
+        stopTime = stageHistogram(metrics, "stop");
+        predictionTime = stageHistogram(metrics, "prediction");
+        publishTime = metrics.histogram("publish_seconds", "Time taken to publish each update to the sinks.", "producer", "vehicles");
+
+        for (Result result : Result.values()) {
+            vehicleCounts.put(result, vehicleCounter(metrics, result.name().toLowerCase(Locale.ROOT)));
+        }
+
+        erroredVehicleCount = vehicleCounter(metrics, "error");
+        reusedVehicleCount = metrics.counter("vehicles_reused_total",
+                "Vehicles whose entities were reused because nothing about them had changed.");
+    }
+
+    private static Histogram stageHistogram(MetricsRegistry metrics, String stage) {
+        return metrics.histogram("vehicle_stage_seconds", "Time taken by each stage of resolving a vehicle.", "stage", stage);
+    }
+
+    private static LongAdder vehicleCounter(MetricsRegistry metrics, String result) {
+        return metrics.counter("vehicles_total", "Vehicles processed, by the outcome of matching them to a trip.", "result", result);
+    }
+
+    @Inject(optional = true)
+    public void setDifferential(@Named("differentialUpdates") boolean differential) {
+        this.differential = differential;
     }
 
     @PostConstruct
     private void start() {
-        updater = scheduledExecutorService.scheduleWithFixedDelay(this::update, 0, refreshRate, TimeUnit.SECONDS);
+        tripUpdatesPublisher = new EntityPublisher(tripUpdatesSink, tripUpdatesCache, differential);
+        vehiclePositionsPublisher = new EntityPublisher(vehiclePositionsSink, vehiclePositionsCache, differential);
+
+        updater = scheduledExecutorService.scheduleWithFixedDelay(this::runOnce, 0, refreshRate, TimeUnit.SECONDS);
     }
 
     @PreDestroy
@@ -85,80 +142,195 @@ public class GtfsRealtimeVehicleProducer {
         updater.cancel(false);
     }
 
-    private void update() {
-        final GtfsRealtimeFullUpdate vehiclePositionsUpdate = new GtfsRealtimeFullUpdate();
-        final GtfsRealtimeFullUpdate tripUpdatesUpdate = new GtfsRealtimeFullUpdate();
+    /**
+     * Runs one update cycle: polls Infopoint for vehicles, resolves them
+     * against the current GTFS and publishes both feeds. The producer runs
+     * this every {@code refreshRate.vehicles} seconds once started; cycles
+     * must not overlap.
+     */
+    public void runOnce() {
+        final long start = System.nanoTime();
 
         try {
-            final List<VehicleLocationType> vehicleLocations = infopointClient.getAllVehicles().getVehicleLocation();
-
-            int entityIndex = 0;
+            updateVehicles();
+        } finally {
+            cycleTime.observeSince(start);
+        }
+    }
 
-            for (VehicleLocationType vl : vehicleLocations) {
-                final String id = String.format("%05d", ++entityIndex);
+    private void updateVehicles() {
+        // The whole cycle uses one GTFS generation, even if a reload completes part way through.
+        final GtfsContext context = gtfsContextManager.getContext();
 
-                final AgencyAndId resolvedRouteId = routeResolver.resolveRoute(vl.getRouteId());
+        final List<FeedEntity> vehiclePositions = new ArrayList<>();
+        final List<FeedEntity> tripUpdates = new ArrayList<>();
 
-                if (resolvedRouteId == null) {
-                    LOG.warn("Unknown route for vehicle {}", vl.getVehicleId());
-                    continue;
+        try {
+            final Map<Integer, ResolvedVehicle> previouslyResolvedVehicles = resolvedVehicles;
+            final List<VehicleLocation> vehicleLocations = new ArrayList<>();
+            final List<CompletableFuture<ResolvedVehicle>> resolvedVehicleFutures = new ArrayList<>();
+
+            // Each vehicle is handed to the resolution pool as soon as it has been parsed, unless
+            // nothing about it has changed since the previous cycle, in which case the entities
+            // built then are reused.
+            final Consumer<VehicleLocation> consumer = vl -> {
+                final long routeStart = System.nanoTime();
+                final int routeIndex = context.getRouteResolver().resolveRoute(vl.getRouteId());
+                routeTime.observeSince(routeStart);
+                final VehicleResolutionKey key = new VehicleResolutionKey(context, vl, routeIndex);
+                final ResolvedVehicle previous = previouslyResolvedVehicles.get(vl.getVehicleId());
+
+                vehicleLocations.add(vl);
+
+                if (previous != null && previous.key.equals(key)) {
+                    resolvedVehicleFutures.add(CompletableFuture.completedFuture(previous));
+                } else {
+                    resolvedVehicleFutures.add(CompletableFuture.supplyAsync(
+                            () -> resolveVehicle(key),
+                            vehicleResolutionExecutor));
                 }
+            };
 
-                final Route resolvedRoute = dao.getRouteForId(resolvedRouteId);
-                final TimeZone agencyTimeZone = cs.getTimeZoneForAgencyId(resolvedRoute.getAgency().getId());
+            if (!infopointClient.getAllVehiclesIfModified(context.getAgencyTimeZone(), consumer)) {
+                if (republishable) {
+                    LOG.debug("Vehicles unchanged; republishing previous update.");
 
-                ServiceDate mappedServiceDate;
-                Trip mappedTrip;
+                    final long publishStart = System.nanoTime();
+                    vehiclePositionsPublisher.republish();
+                    tripUpdatesPublisher.republish();
+                    publishTime.observeSince(publishStart);
+                    return;
+                }
 
-                try {
-                    final Pair<ServiceDate, Trip> mappedTripAndServiceDate = tripResolver.resolveVehicle(vl, resolvedRoute);
-                    mappedServiceDate = mappedTripAndServiceDate.getLeft();
-                    mappedTrip = mappedTripAndServiceDate.getRight();
-                } catch (NoSuchElementException | IllegalStateException e) {
-                    LOG.warn("Unknown trip for vehicle {} on route {}", vl.getName(), resolvedRoute.getId());
-                    mappedServiceDate = null;
-                    mappedTrip = null;
+                // Nothing usable has been published yet, so the unchanged vehicles are still needed. A server
+                // without conditional requests has already streamed them to the consumer.
+                if (vehicleLocations.isEmpty()) {
+                    infopointClient.getAllVehicles(context.getAgencyTimeZone(), consumer);
                 }
+            }
 
-                final TripDescriptor td = tripDescriptor(resolvedRoute, mappedTrip, mappedServiceDate);
+            final Map<Integer, ResolvedVehicle> currentlyResolvedVehicles = new HashMap<>();
+            int reused = 0;
 
-                StopTime currentStopTime;
+            for (int i = 0; i < resolvedVehicleFutures.size(); i++) {
+                final ResolvedVehicle resolvedVehicle;
 
                 try {
-                    currentStopTime = dao.getStopTimesForTrip(mappedTrip)
-                            .stream()
-                            .filter(st -> st.getStop().getName().equals(vl.getLastStop()))
-                            .collect(onlyElement());
-
-                } catch (NoSuchElementException | IllegalArgumentException e) {
-                    LOG.warn("Unknown stop {}", vl.getLastStop());
-                    currentStopTime = null;
+                    resolvedVehicle = resolvedVehicleFutures.get(i).join();
+                } catch (CompletionException e) {
+                    LOG.error("Error while processing vehicle {}.", vehicleLocations.get(i).getVehicleId(), e.getCause());
+                    erroredVehicleCount.increment();
+                    continue;
                 }
 
-                final VehicleDescriptor vd = vehicleDescriptor(vl);
+                final int vehicleId = resolvedVehicle.key.getLocation().getVehicleId();
 
-                final long timestamp = timestamp(vl, agencyTimeZone);
+                currentlyResolvedVehicles.put(vehicleId, resolvedVehicle);
+                vehicleCounts.get(resolvedVehicle.result).increment();
 
-                tripUpdatesUpdate.addEntity(tripUpdateFeedEntity(id, vl, td, vd, timestamp, currentStopTime));
-                vehiclePositionsUpdate.addEntity(vehiclePositionFeedEntity(id, vl, td, vd, timestamp));
+                if (resolvedVehicle == previouslyResolvedVehicles.get(vehicleId)) {
+                    reused++;
+                }
+
+                if (resolvedVehicle.entities != null) {
+                    tripUpdates.add(resolvedVehicle.entities.tripUpdate);
+                    vehiclePositions.add(resolvedVehicle.entities.vehiclePosition);
+                }
             }
+
+            LOG.debug("Reused {} of {} vehicles unchanged since the previous update.", reused, resolvedVehicleFutures.size());
+            reusedVehicleCount.add(reused);
+
+            resolvedVehicles = currentlyResolvedVehicles;
+            republishable = true;
         } catch (InfopointClientException e) {
             LOG.error("Error while updating vehicles.", e);
+            republishable = false;
         }
 
-        vehiclePositionsSink.handleFullUpdate(vehiclePositionsUpdate);
-        tripUpdatesSink.handleFullUpdate(tripUpdatesUpdate);
+        final long publishStart = System.nanoTime();
+        vehiclePositionsPublisher.publish(vehiclePositions);
+        tripUpdatesPublisher.publish(tripUpdates);
+        publishTime.observeSince(publishStart);
     }
 
-    @NotNull
-    private static Long timestamp(VehicleLocationType vl, TimeZone agencyTimeZone) {
-        return vl.getLastUpdated().toGregorianCalendar(agencyTimeZone, null, null)
-                .toInstant()
-                .getEpochSecond();
+    private ResolvedVehicle resolveVehicle(VehicleResolutionKey key) {
+        final GtfsContext context = key.getContext();
+        final VehicleLocation vl = key.getLocation();
+        final int resolvedRouteIndex = key.getRouteIndex();
+
+        final String id = Integer.toString(vl.getVehicleId());
+
+        final GtfsStore store = context.getStore();
+
+        final long tripStart = System.nanoTime();
+        TripAssignment assignment = null;
+        Result result = Result.MATCHED;
+
+        if (resolvedRouteIndex >= 0) {
+            try {
+                assignment = context.getTripResolver().resolveVehicle(vl, resolvedRouteIndex);
+            } catch (NoSuchElementException e) {
+                // Fall back to matching by location below.
+            }
+        }
+
+        if (assignment == null) {
+            try {
+                assignment = context.getTripResolver().resolveVehicleByLocation(vl, resolvedRouteIndex);
+                result = Result.MATCHED_BY_LOCATION;
+                LOG.debug("Vehicle {} matched to trip {} by location", vl.getVehicleId(), store.getTripId(assignment.getTripIndex()));
+            } catch (NoSuchElementException e) {
+                if (resolvedRouteIndex < 0) {
+                    tripTime.observeSince(tripStart);
+                    LOG.warn("Unknown route for vehicle {}", vl.getVehicleId());
+                    return new ResolvedVehicle(key,
+                            context.getRouteResolver().isAmbiguous(vl.getRouteId()) ? Result.AMBIGUOUS_ROUTE : Result.UNKNOWN_ROUTE,
+                            null);
+                }
+
+                result = Result.NO_TRIP;
+                LOG.warn("Unknown trip for vehicle {} on route {}", vl.getName(), store.getRouteId(resolvedRouteIndex));
+            }
+        }
+
+        tripTime.observeSince(tripStart);
+
+        final String resolvedRouteId = store.getRouteId(assignment != null ? assignment.getRouteIndex() : resolvedRouteIndex);
+
+        final ServiceDate mappedServiceDate = assignment != null ? assignment.getServiceDate() : null;
+        final String mappedTripId = assignment != null ? store.getTripId(assignment.getTripIndex()) : null;
+
+        final TripDescriptor td = tripDescriptor(resolvedRouteId, mappedTripId, mappedServiceDate);
+
+        TripPrediction prediction = null;
+
+        if (assignment != null) {
+            final long stopStart = System.nanoTime();
+            final int currentStopTime = context.getCurrentStopResolver().resolveCurrentStop(assignment, vl.getLastStop());
+            stopTime.observeSince(stopStart);
+
+            if (currentStopTime == GtfsStore.MISSING) {
+                LOG.warn("Unknown stop {}", vl.getLastStop());
+            }
+
+            final long predictionStart = System.nanoTime();
+            prediction = context.getTripUpdatePredictor().predict(assignment, currentStopTime, 60 * vl.getDeviation());
+            predictionTime.observeSince(predictionStart);
+        }
+
+        final VehicleDescriptor vd = vehicleDescriptor(vl);
+
+        final long timestamp = vl.getLastUpdated();
+
+        return new ResolvedVehicle(key, result, new VehicleFeedEntities(
+                tripUpdateFeedEntity(id, vl, td, vd, timestamp, store, prediction),
+                vehiclePositionFeedEntity(id, vl, td, vd, timestamp)
+        ));
     }
 
     @NotNull
-    private static VehicleDescriptor vehicleDescriptor(VehicleLocationType vl) {
+    private static VehicleDescriptor vehicleDescriptor(VehicleLocation vl) {
         final VehicleDescriptor.Builder vdb = VehicleDescriptor.newBuilder();
 
         vdb.setId(Integer.toString(vl.getVehicleId()));
@@ -168,15 +340,13 @@ public class GtfsRealtimeVehicleProducer {
     }
 
     @NotNull
-    private static TripDescriptor tripDescriptor(@Nullable Route route, @Nullable Trip trip, @Nullable ServiceDate serviceDate) {
+    private static TripDescriptor tripDescriptor(String routeId, @Nullable String tripId, @Nullable ServiceDate serviceDate) {
         final TripDescriptor.Builder tdb = TripDescriptor.newBuilder();
 
-        if (route != null) {
-            tdb.setRouteId(route.getId().getId());
-        }
+        tdb.setRouteId(routeId);
 
-        if (trip != null) {
-            tdb.setTripId(trip.getId().getId());
+        if (tripId != null) {
+            tdb.setTripId(tripId);
         }
 
         if (serviceDate != null) {
@@ -187,9 +357,10 @@ public class GtfsRealtimeVehicleProducer {
     }
 
     @NotNull
-    private static FeedEntity tripUpdateFeedEntity(String id, VehicleLocationType vl,
+    private static FeedEntity tripUpdateFeedEntity(String id, VehicleLocation vl,
                                                    TripDescriptor td, VehicleDescriptor vd,
-                                                   long timestamp, @Nullable StopTime currentStopTime) {
+                                                   long timestamp, GtfsStore store,
+                                                   @Nullable TripPrediction prediction) {
         final FeedEntity.Builder feb = FeedEntity.newBuilder();
         feb.setId(id);
 
@@ -202,11 +373,20 @@ public class GtfsRealtimeVehicleProducer {
 
         tub.setDelay(delay);
 
-        if (currentStopTime != null) {
-            final TripUpdate.StopTimeUpdate.Builder stub = tub.addStopTimeUpdateBuilder();
-            stub.setStopId(currentStopTime.getStop().getId().getId());
-            final TripUpdate.StopTimeEvent.Builder steb = stub.getDepartureBuilder();
-            steb.setDelay(delay);
+        if (prediction != null) {
+            for (int i = 0; i < prediction.size(); i++) {
+                final int stopTime = prediction.getStopTime(i);
+                final TripUpdate.StopTimeUpdate.Builder stub = tub.addStopTimeUpdateBuilder();
+
+                stub.setStopSequence(store.getStopSequence(stopTime));
+                stub.setStopId(store.getStopId(store.getStopTimeStop(stopTime)));
+                stub.getArrivalBuilder()
+                        .setTime(prediction.getArrivalTime(i))
+                        .setDelay(prediction.getArrivalDelay(i));
+                stub.getDepartureBuilder()
+                        .setTime(prediction.getDepartureTime(i))
+                        .setDelay(prediction.getDepartureDelay(i));
+            }
         }
 
         tub.setTimestamp(timestamp);
@@ -215,7 +395,7 @@ public class GtfsRealtimeVehicleProducer {
     }
 
     @NotNull
-    private static FeedEntity vehiclePositionFeedEntity(String id, VehicleLocationType vl, TripDescriptor td, VehicleDescriptor vd, long timestamp) {
+    private static FeedEntity vehiclePositionFeedEntity(String id, VehicleLocation vl, TripDescriptor td, VehicleDescriptor vd, long timestamp) {
         final FeedEntity.Builder feb = FeedEntity.newBuilder();
         feb.setId(id);
 
@@ -233,4 +413,41 @@ public class GtfsRealtimeVehicleProducer {
 
         return feb.build();
     }
+
+    /**
+     * How a vehicle was matched to a trip, or why it could not be.
+     */
+    private enum Result {
+        MATCHED,
+        MATCHED_BY_LOCATION,
+        NO_TRIP,
+        UNKNOWN_ROUTE,
+        AMBIGUOUS_ROUTE
+    }
+
+    /**
+     * The entities built for a vehicle, with the key of everything they were
+     * built from.
+     */
+    private static final class ResolvedVehicle {
+        private final VehicleResolutionKey key;
+        private final Result result;
+        private final VehicleFeedEntities entities;
+
+        ResolvedVehicle(VehicleResolutionKey key, Result result, @Nullable VehicleFeedEntities entities) {
+            this.key = key;
+            this.result = result;
+            this.entities = entities;
+        }
+    }
+
+    private static final class VehicleFeedEntities {
+        private final FeedEntity tripUpdate;
+        private final FeedEntity vehiclePosition;
+
+        VehicleFeedEntities(FeedEntity tripUpdate, FeedEntity vehiclePosition) {
+            this.tripUpdate = tripUpdate;
+            this.vehiclePosition = vehiclePosition;
+        }
+    }
 }
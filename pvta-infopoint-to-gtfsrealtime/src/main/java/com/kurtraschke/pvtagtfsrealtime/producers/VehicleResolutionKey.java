@@ -0,0 +1,63 @@
+package com.kurtraschke.pvtagtfsrealtime.producers;
+
+import com.availtec.infopoint.client.VehicleLocation;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsContext;
+
+import java.util.Objects;
+
+/**
+ * Everything the entities built for a vehicle depend on: the GTFS generation,
+ * the vehicle's report, and the GTFS route its Infopoint route resolved to.
+ * Entities built for one key can be reused for any equal key.
+ * <p>
+ * Generations are compared by identity, so reloading the GTFS invalidates
+ * every key even if the GTFS itself did not change; reports are compared
+ * with {@link VehicleLocation#equals(Object)}, so a change to any of the
+ * report's fields does too.
+ */
+public final class VehicleResolutionKey {
+
+    private final GtfsContext context;
+    private final VehicleLocation location;
+    private final int routeIndex;
+
+    public VehicleResolutionKey(GtfsContext context, VehicleLocation location, int routeIndex) {
+        this.context = context;
+        this.location = location;
+        this.routeIndex = routeIndex;
+    }
+
+    public GtfsContext getContext() {
+        return context;
+    }
+
+    public VehicleLocation getLocation() {
+        return location;
+    }
+
+    public int getRouteIndex() {
+        return routeIndex;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof VehicleResolutionKey)) {
+            return false;
+        }
+
+        final VehicleResolutionKey that = (VehicleResolutionKey) o;
+
+        return context == that.context
+                && routeIndex == that.routeIndex
+                && location.equals(that.location);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(System.identityHashCode(context), location, routeIndex);
+    }
+}
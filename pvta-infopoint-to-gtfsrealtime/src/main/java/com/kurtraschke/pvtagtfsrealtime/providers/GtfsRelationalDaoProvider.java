@@ -1,13 +1,13 @@
 package com.kurtraschke.pvtagtfsrealtime.providers;
 
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
 import org.nnsoft.guice.sli4j.core.InjectLogger;
 import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
 import org.onebusaway.gtfs.serialization.GtfsReader;
 import org.onebusaway.gtfs.services.GtfsRelationalDao;
 import org.slf4j.Logger;
 
-import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Provider;
 import java.io.File;
 import java.io.IOException;
@@ -40,4 +40,4 @@ public class GtfsRelationalDaoProvider implements Provider<GtfsRelationalDao> {
         }
         return dao;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,85 @@
+package com.kurtraschke.pvtagtfsrealtime.providers;
+
+import com.google.common.hash.HashCode;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsSnapshot;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import org.nnsoft.guice.sli4j.core.InjectLogger;
+import org.slf4j.Logger;
+
+import javax.inject.Provider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Builds a {@link GtfsStore} from the GTFS at {@code PVTA.gtfsPath}, going
+ * through a {@link GtfsSnapshot} when snapshots are enabled.
+ */
+public class GtfsStoreProvider implements Provider<GtfsStore> {
+
+    @InjectLogger
+    private Logger LOG;
+
+    private final GtfsRelationalDaoProvider daoProvider;
+    private final File gtfsPath;
+
+    private boolean useSnapshot;
+
+    @Inject
+    public GtfsStoreProvider(GtfsRelationalDaoProvider daoProvider, @Named("PVTA.gtfsPath") File gtfsPath) {
+        this.daoProvider = daoProvider;
+        this.gtfsPath = gtfsPath;
+    }
+
+    /**
+     * Sets whether to keep a binary snapshot of the GTFS next to it, and load
+     * from the snapshot instead of the GTFS while the GTFS is unchanged.
+     */
+    @Inject(optional = true)
+    public void setUseSnapshot(@Named("PVTA.gtfsSnapshot") boolean useSnapshot) {
+        this.useSnapshot = useSnapshot;
+    }
+
+    @Override
+    public GtfsStore get() {
+        if (!useSnapshot) {
+            return readGtfs();
+        }
+
+        final Path snapshotPath = Paths.get(gtfsPath.getPath() + ".snapshot");
+        final HashCode gtfsHash;
+
+        try {
+            gtfsHash = GtfsSnapshot.hashGtfs(gtfsPath.toPath());
+
+            final GtfsStore store = GtfsSnapshot.read(snapshotPath, gtfsHash);
+
+            if (store != null) {
+                LOG.info("Loaded GTFS snapshot from {}", snapshotPath);
+                return store;
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Could not load GTFS snapshot from {}", snapshotPath, e);
+            return readGtfs();
+        }
+
+        final GtfsStore store = readGtfs();
+
+        try {
+            GtfsSnapshot.write(snapshotPath, gtfsHash, store);
+            LOG.info("Wrote GTFS snapshot to {}", snapshotPath);
+        } catch (IOException e) {
+            LOG.warn("Could not write GTFS snapshot to {}", snapshotPath, e);
+        }
+
+        return store;
+    }
+
+    private GtfsStore readGtfs() {
+        // The DAO is only needed long enough to copy it into the store.
+        return GtfsStore.fromDao(daoProvider.get());
+    }
+}
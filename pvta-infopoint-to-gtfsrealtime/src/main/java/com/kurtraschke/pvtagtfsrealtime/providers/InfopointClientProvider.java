@@ -1,13 +1,21 @@
 package com.kurtraschke.pvtagtfsrealtime.providers;
 
+import com.availtec.infopoint.client.Endpoint;
 import com.availtec.infopoint.client.InfopointClient;
 import com.availtec.infopoint.client.InfopointClientException;
+import com.availtec.infopoint.client.RequestTimingListener;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+import com.kurtraschke.pvtagtfsrealtime.metrics.Histogram;
+import com.kurtraschke.pvtagtfsrealtime.metrics.MetricsRegistry;
 
-import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Provider;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
 
 public class InfopointClientProvider implements Provider<InfopointClient> {
 
@@ -15,12 +23,81 @@ public class InfopointClientProvider implements Provider<InfopointClient> {
     @Named("apiBaseUrl")
     private URL apiBaseUrl;
 
+    @Inject
+    private MetricsRegistry metricsRegistry;
+
+    private final Map<Endpoint, Double> rateLimits = new EnumMap<>(Endpoint.class);
+    private Duration requestTimeout;
+
+    @Inject(optional = true)
+    public void setRoutesRateLimit(@Named("apiRateLimit.routes") double permitsPerSecond) {
+        rateLimits.put(Endpoint.ROUTES, permitsPerSecond);
+    }
+
+    @Inject(optional = true)
+    public void setPublicMessagesRateLimit(@Named("apiRateLimit.publicMessages") double permitsPerSecond) {
+        rateLimits.put(Endpoint.PUBLIC_MESSAGES, permitsPerSecond);
+    }
+
+    @Inject(optional = true)
+    public void setVehiclesRateLimit(@Named("apiRateLimit.vehicles") double permitsPerSecond) {
+        rateLimits.put(Endpoint.VEHICLES, permitsPerSecond);
+    }
+
+    @Inject(optional = true)
+    public void setRequestTimeout(@Named("apiRequestTimeout") int seconds) {
+        requestTimeout = Duration.ofSeconds(seconds);
+    }
+
     @Override
     public InfopointClient get() {
         try {
-            return new InfopointClient(apiBaseUrl);
+            final InfopointClient client = new InfopointClient(apiBaseUrl);
+
+            rateLimits.forEach(client::setRateLimit);
+
+            if (requestTimeout != null) {
+                client.setRequestTimeout(requestTimeout);
+            }
+
+            registerMetrics(client);
+
+            return client;
         } catch (InfopointClientException | URISyntaxException e) {
             throw new RuntimeException(e);
         }
     }
+
+    private void registerMetrics(InfopointClient client) {
+        final Map<Endpoint, Histogram> responseTimes = new EnumMap<>(Endpoint.class);
+        final Map<Endpoint, Histogram> parseTimes = new EnumMap<>(Endpoint.class);
+
+        for (Endpoint endpoint : Endpoint.values()) {
+            final String name = endpoint.name().toLowerCase(Locale.ROOT);
+
+            responseTimes.put(endpoint, metricsRegistry.histogram("infopoint_response_seconds",
+                    "Time from sending a request to Infopoint until the response headers arrive.", "endpoint", name));
+            parseTimes.put(endpoint, metricsRegistry.histogram("infopoint_parse_seconds",
+                    "Time spent parsing Infopoint response bodies.", "endpoint", name));
+
+            metricsRegistry.counter("infopoint_transferred_bytes_total",
+                    "Infopoint response body bytes received, as sent over the wire.",
+                    () -> client.getTransferredBytes(endpoint), "endpoint", name);
+            metricsRegistry.counter("infopoint_decoded_bytes_total",
+                    "Infopoint response body bytes received, after decompression.",
+                    () -> client.getDecodedBytes(endpoint), "endpoint", name);
+        }
+
+        client.setRequestTimingListener(new RequestTimingListener() {
+            @Override
+            public void responseReceived(Endpoint endpoint, long nanos) {
+                responseTimes.get(endpoint).observeNanos(nanos);
+            }
+
+            @Override
+            public void bodyParsed(Endpoint endpoint, long nanos) {
+                parseTimes.get(endpoint).observeNanos(nanos);
+            }
+        });
+    }
 }
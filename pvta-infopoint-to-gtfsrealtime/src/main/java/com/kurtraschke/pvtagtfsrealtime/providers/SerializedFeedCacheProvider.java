@@ -0,0 +1,45 @@
+package com.kurtraschke.pvtagtfsrealtime.providers;
+
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Provider;
+import com.kurtraschke.pvtagtfsrealtime.exporter.SerializedFeed;
+import com.kurtraschke.pvtagtfsrealtime.exporter.SerializedFeedCache;
+import com.kurtraschke.pvtagtfsrealtime.metrics.MetricsRegistry;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeExporter;
+
+import javax.inject.Inject;
+import java.lang.annotation.Annotation;
+
+/**
+ * Provides the {@link SerializedFeedCache} for the exporter bound with the
+ * given feed annotation.
+ */
+public class SerializedFeedCacheProvider implements Provider<SerializedFeedCache> {
+
+    private final Class<? extends Annotation> feedAnnotationType;
+
+    @Inject
+    private Injector injector;
+
+    @Inject
+    private MetricsRegistry metricsRegistry;
+
+    public SerializedFeedCacheProvider(Class<? extends Annotation> feedAnnotationType) {
+        this.feedAnnotationType = feedAnnotationType;
+    }
+
+    @Override
+    public SerializedFeedCache get() {
+        final GtfsRealtimeExporter exporter = injector.getInstance(Key.get(GtfsRealtimeExporter.class, feedAnnotationType));
+
+        final SerializedFeedCache cache = new SerializedFeedCache(exporter::getFeed);
+
+        metricsRegistry.gauge("feed_age_seconds", "Time since the feed was last published.", () -> {
+            final SerializedFeed feed = cache.getCurrent();
+            return feed != null ? System.currentTimeMillis() / 1000.0 - feed.getTimestamp() : Double.NaN;
+        }, "feed", feedAnnotationType.getSimpleName());
+
+        return cache;
+    }
+}
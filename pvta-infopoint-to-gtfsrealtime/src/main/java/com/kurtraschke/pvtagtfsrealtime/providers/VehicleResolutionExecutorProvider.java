@@ -0,0 +1,27 @@
+package com.kurtraschke.pvtagtfsrealtime.providers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class VehicleResolutionExecutorProvider implements Provider<ExecutorService> {
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Inject(optional = true)
+    public void setThreads(@Named("vehicleResolution.threads") int threads) {
+        this.threads = threads;
+    }
+
+    @Override
+    public ExecutorService get() {
+        return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("vehicle-resolution-%d")
+                .setDaemon(true)
+                .build());
+    }
+}
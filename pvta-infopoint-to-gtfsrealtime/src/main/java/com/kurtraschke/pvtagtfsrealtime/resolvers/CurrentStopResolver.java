@@ -0,0 +1,114 @@
+package com.kurtraschke.pvtagtfsrealtime.resolvers;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Locale;
+
+/**
+ * Finds the stop time of a vehicle's trip matching the stop name Infopoint
+ * reports as the vehicle's last stop.
+ */
+@Singleton
+public class CurrentStopResolver {
+
+    private final GtfsStore store;
+    private final ShapeGeometry shapeGeometry;
+
+    private final LoadingCache<Integer, TripStops> tripStopsCache;
+
+    @Inject
+    public CurrentStopResolver(GtfsStore store, ShapeGeometry shapeGeometry) {
+        this.store = store;
+        this.shapeGeometry = shapeGeometry;
+
+        tripStopsCache = CacheBuilder.newBuilder()
+                .maximumSize(500)
+                .recordStats()
+                .build(CacheLoader.from(this::tripStops));
+    }
+
+    public CacheStats getTripStopsCacheStats() {
+        return tripStopsCache.stats();
+    }
+
+    /**
+     * Returns the stop time on the assigned trip whose stop has the given
+     * name. A trip may visit stops with the same name more than once; in that
+     * case the visit nearest the vehicle's position along the shape is chosen.
+     *
+     * @return the index of the matching stop time, or {@link GtfsStore#MISSING}
+     * if no stop on the trip has that name
+     */
+    public int resolveCurrentStop(TripAssignment assignment, @Nullable String stopName) {
+        if (stopName == null) {
+            return GtfsStore.MISSING;
+        }
+
+        final int tripIndex = assignment.getTripIndex();
+        final TripStops tripStops = tripStopsCache.getUnchecked(tripIndex);
+        final ImmutableList<Integer> positions = tripStops.positionsByStopName.get(normalizeStopName(stopName));
+
+        if (positions.isEmpty()) {
+            return GtfsStore.MISSING;
+        }
+
+        int bestPosition = positions.get(0);
+
+        if (positions.size() > 1) {
+            double bestOffset = Double.POSITIVE_INFINITY;
+
+            for (int position : positions) {
+                final double offset = Math.abs(tripStops.distancesAlongShape[position] - assignment.getDistanceAlongShape());
+
+                if (offset < bestOffset) {
+                    bestOffset = offset;
+                    bestPosition = position;
+                }
+            }
+        }
+
+        return store.getFirstStopTime(tripIndex) + bestPosition;
+    }
+
+    private TripStops tripStops(int tripIndex) {
+        final int firstStopTime = store.getFirstStopTime(tripIndex);
+        final ImmutableListMultimap.Builder<String, Integer> positionsByStopNameBuilder = ImmutableListMultimap.builder();
+
+        for (int i = 0; i < store.getStopTimeCount(tripIndex); i++) {
+            final String name = store.getStopName(store.getStopTimeStop(firstStopTime + i));
+
+            if (name != null) {
+                positionsByStopNameBuilder.put(normalizeStopName(name), i);
+            }
+        }
+
+        return new TripStops(
+                shapeGeometry.projectStops(tripIndex),
+                positionsByStopNameBuilder.build()
+        );
+    }
+
+    private static String normalizeStopName(String stopName) {
+        return CharMatcher.whitespace().trimAndCollapseFrom(stopName, ' ').toLowerCase(Locale.ROOT);
+    }
+
+    private static final class TripStops {
+        private final double[] distancesAlongShape;
+        private final ImmutableListMultimap<String, Integer> positionsByStopName;
+
+        TripStops(double[] distancesAlongShape, ImmutableListMultimap<String, Integer> positionsByStopName) {
+            this.distancesAlongShape = distancesAlongShape;
+            this.positionsByStopName = positionsByStopName;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.kurtraschke.pvtagtfsrealtime.resolvers;
+
+import org.gavaghan.geodesy.Ellipsoid;
+import org.gavaghan.geodesy.GeodeticCalculator;
+import org.gavaghan.geodesy.GlobalCoordinates;
+
+/**
+ * Ways of measuring the distance in meters between two WGS84 coordinates.
+ */
+public enum DistanceMetric {
+
+    /**
+     * Planar distance on an equirectangular projection centered between the
+     * two points. Accurate to well under a meter at the distances separating
+     * a vehicle from its candidate trips, at a fraction of the cost.
+     */
+    EQUIRECTANGULAR {
+        @Override
+        public double distance(double lat1, double lon1, double lat2, double lon2) {
+            final double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+            final double y = Math.toRadians(lat2 - lat1);
+
+            return Math.sqrt(x * x + y * y) * ShapeGeometry.EARTH_RADIUS_METERS;
+        }
+    },
+
+    /**
+     * Geodesic distance on the WGS84 ellipsoid, using Vincenty's iterative
+     * solution.
+     */
+    ELLIPSOIDAL {
+        @Override
+        public double distance(double lat1, double lon1, double lat2, double lon2) {
+            return new GeodeticCalculator().calculateGeodeticCurve(
+                    Ellipsoid.WGS84,
+                    new GlobalCoordinates(lat1, lon1),
+                    new GlobalCoordinates(lat2, lon2)
+            )
+                    .getEllipsoidalDistance();
+        }
+    };
+
+    public abstract double distance(double lat1, double lon1, double lat2, double lon2);
+}
@@ -0,0 +1,78 @@
+package com.kurtraschke.pvtagtfsrealtime.resolvers;
+
+import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.RouteType;
+
+import javax.annotation.Nullable;
+import java.util.Objects;
+
+/**
+ * The fields of an Infopoint route definition used to match it to a GTFS
+ * route.
+ */
+public final class InfopointRoute {
+
+    private final int routeId;
+    private final String shortName;
+    private final String routeAbbreviation;
+    private final String googleDescription;
+
+    public InfopointRoute(int routeId, @Nullable String shortName, @Nullable String routeAbbreviation,
+                          @Nullable String googleDescription) {
+        this.routeId = routeId;
+        this.shortName = shortName;
+        this.routeAbbreviation = routeAbbreviation;
+        this.googleDescription = googleDescription;
+    }
+
+    static InfopointRoute of(RouteType route) {
+        return new InfopointRoute(route.getRouteId(), route.getShortName(), route.getRouteAbbreviation(),
+                route.getGoogleDescription());
+    }
+
+    public int getRouteId() {
+        return routeId;
+    }
+
+    @Nullable
+    public String getShortName() {
+        return shortName;
+    }
+
+    @Nullable
+    public String getRouteAbbreviation() {
+        return routeAbbreviation;
+    }
+
+    @Nullable
+    public String getGoogleDescription() {
+        return googleDescription;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (!(o instanceof InfopointRoute)) {
+            return false;
+        }
+
+        final InfopointRoute that = (InfopointRoute) o;
+
+        return routeId == that.routeId
+                && Objects.equals(shortName, that.shortName)
+                && Objects.equals(routeAbbreviation, that.routeAbbreviation)
+                && Objects.equals(googleDescription, that.googleDescription);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(routeId, shortName, routeAbbreviation, googleDescription);
+    }
+
+    @Override
+    public String toString() {
+        return routeId + " (" + shortName + ")";
+    }
+}
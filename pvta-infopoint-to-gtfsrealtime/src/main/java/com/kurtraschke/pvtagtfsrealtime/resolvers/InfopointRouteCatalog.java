@@ -0,0 +1,261 @@
+package com.kurtraschke.pvtagtfsrealtime.resolvers;
+
+import com.availtec.infopoint.client.InfopointClient;
+import com.availtec.infopoint.client.InfopointClientException;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.ArrayOfRoute;
+import org.nnsoft.guice.sli4j.core.InjectLogger;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * The Infopoint route definitions, refreshed periodically in the background.
+ * <p>
+ * The last definitions fetched are kept in a file, so that if Infopoint is
+ * unreachable at startup the bridge starts with those instead. While
+ * Infopoint is unreachable, refreshes are retried every minute. A refresh
+ * which returns no routes at all is treated as a failure, so that a
+ * transient upstream fault cannot clear the mapping.
+ */
+@Singleton
+public class InfopointRouteCatalog {
+
+    private static final int MAGIC = 0x50525445; // "PRTE"
+    private static final int VERSION = 1;
+
+    private static final int RETRY_SECONDS = 60;
+
+    private final InfopointClient infopointClient;
+    private final ScheduledExecutorService scheduledExecutorService;
+    private final List<Consumer<ImmutableList<InfopointRoute>>> listeners = new CopyOnWriteArrayList<>();
+
+    private Path cachePath;
+    private int refreshRate = 3600;
+
+    private volatile ImmutableList<InfopointRoute> routes = ImmutableList.of();
+    private volatile ScheduledFuture<?> refresher;
+    private volatile boolean stopped;
+
+    @InjectLogger
+    private Logger LOG;
+
+    @Inject
+    public InfopointRouteCatalog(InfopointClient infopointClient,
+                                 ScheduledExecutorService scheduledExecutorService,
+                                 @Named("PVTA.gtfsPath") File gtfsPath) {
+        this.infopointClient = infopointClient;
+        this.scheduledExecutorService = scheduledExecutorService;
+        this.cachePath = Paths.get(gtfsPath.getPath() + ".routes");
+    }
+
+    @Inject(optional = true)
+    public void setCachePath(@Named("routeCache.path") File cachePath) {
+        this.cachePath = cachePath.toPath();
+    }
+
+    @Inject(optional = true)
+    public void setRefreshRate(@Named("refreshRate.routes") int refreshRate) {
+        this.refreshRate = refreshRate;
+    }
+
+    @PostConstruct
+    private void start() {
+        try {
+            if (update(infopointClient.getAllRoutes())) {
+                scheduleRefresh(refreshRate);
+                return;
+            }
+        } catch (InfopointClientException e) {
+            LOG.warn("Could not fetch route definitions.", e);
+        }
+
+        try {
+            final ImmutableList<InfopointRoute> cached = read(cachePath);
+
+            if (cached != null) {
+                LOG.warn("Using the last known route definitions from {}.", cachePath);
+                setRoutes(cached);
+            } else {
+                LOG.error("No route definitions are available; vehicles cannot be matched to routes until Infopoint is reachable.");
+            }
+        } catch (IOException e) {
+            LOG.error("Could not read route definitions from {}.", cachePath, e);
+        }
+
+        scheduleRefresh(Math.min(RETRY_SECONDS, refreshRate));
+    }
+
+    @PreDestroy
+    private void stop() {
+        stopped = true;
+
+        if (refresher != null) {
+            refresher.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the current route definitions. The list is replaced, never
+     * modified, when the definitions change, so callers may compare it by
+     * identity to detect changes.
+     */
+    public ImmutableList<InfopointRoute> getRoutes() {
+        return routes;
+    }
+
+    /**
+     * Registers a listener to be called, on the thread which fetched them,
+     * with each new list of route definitions.
+     */
+    public void addListener(Consumer<ImmutableList<InfopointRoute>> listener) {
+        listeners.add(listener);
+    }
+
+    private void setRoutes(ImmutableList<InfopointRoute> routes) {
+        this.routes = routes;
+
+        for (Consumer<ImmutableList<InfopointRoute>> listener : listeners) {
+            listener.accept(routes);
+        }
+    }
+
+    private void scheduleRefresh(int delaySeconds) {
+        if (!stopped) {
+            refresher = scheduledExecutorService.schedule(this::refresh, delaySeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void refresh() {
+        infopointClient.getAllRoutesAsync().whenComplete((result, failure) -> {
+            boolean updated = false;
+
+            if (failure != null) {
+                LOG.warn("Error while refreshing route definitions.", failure instanceof CompletionException ? failure.getCause() : failure);
+            } else {
+                try {
+                    updated = update(result);
+                } catch (RuntimeException e) {
+                    LOG.error("Error while updating route definitions.", e);
+                }
+            }
+
+            scheduleRefresh(updated ? refreshRate : Math.min(RETRY_SECONDS, refreshRate));
+        });
+    }
+
+    /**
+     * @return false if Infopoint returned no routes, in which case the current definitions are kept
+     */
+    private boolean update(ArrayOfRoute arrayOfRoute) {
+        final ImmutableList<InfopointRoute> fetched = arrayOfRoute.getRoute().stream()
+                .map(InfopointRoute::of)
+                .collect(ImmutableList.toImmutableList());
+
+        if (fetched.isEmpty()) {
+            LOG.warn("Infopoint returned no route definitions; keeping the current definitions.");
+            return false;
+        }
+
+        if (!fetched.equals(routes)) {
+            LOG.info("Loaded {} route definitions.", fetched.size());
+            setRoutes(fetched);
+
+            try {
+                write(cachePath, fetched);
+            } catch (IOException e) {
+                LOG.warn("Could not write route definitions to {}.", cachePath, e);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the route definitions saved at the given path, or null if there are none
+     */
+    @Nullable
+    public static ImmutableList<InfopointRoute> read(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+
+            final int count = in.readInt();
+            final ImmutableList.Builder<InfopointRoute> routesBuilder = ImmutableList.builderWithExpectedSize(count);
+
+            for (int i = 0; i < count; i++) {
+                routesBuilder.add(new InfopointRoute(in.readInt(), readString(in), readString(in), readString(in)));
+            }
+
+            return routesBuilder.build();
+        }
+    }
+
+    /**
+     * Saves route definitions, replacing any saved at the given path
+     * atomically.
+     */
+    public static void write(Path path, List<InfopointRoute> routes) throws IOException {
+        final Path temp = path.resolveSibling("." + path.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(routes.size());
+
+            for (InfopointRoute route : routes) {
+                out.writeInt(route.getRouteId());
+                writeString(out, route.getShortName());
+                writeString(out, route.getRouteAbbreviation());
+                writeString(out, route.getGoogleDescription());
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String s) throws IOException {
+        out.writeBoolean(s != null);
+
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+}
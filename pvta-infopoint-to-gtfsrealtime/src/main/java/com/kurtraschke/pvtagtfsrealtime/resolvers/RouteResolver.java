@@ -1,60 +1,106 @@
 package com.kurtraschke.pvtagtfsrealtime.resolvers;
 
-import com.availtec.infopoint.client.InfopointClient;
-import com.availtec.infopoint.client.InfopointClientException;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.RouteType;
+import com.google.common.collect.ImmutableSet;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
 import org.nnsoft.guice.sli4j.core.InjectLogger;
-import org.onebusaway.gtfs.model.AgencyAndId;
-import org.onebusaway.gtfs.model.Route;
-import org.onebusaway.gtfs.services.GtfsRelationalDao;
 import org.slf4j.Logger;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.function.Predicate;
-
-import static com.google.common.collect.MoreCollectors.onlyElement;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
+/**
+ * Maps Infopoint route ids to GTFS routes. The mapping is built by
+ * {@link #update(ImmutableList)} whenever {@link InfopointRouteCatalog} has
+ * new route definitions, off the lookup path, and swapped in as a whole, so
+ * lookups never block. Until the first update no route is matched.
+ */
 @Singleton
 public class RouteResolver {
 
-    private final Map<Integer, AgencyAndId> infopointRouteIdToGtfsRouteMap;
+    private final GtfsStore store;
+
+    private volatile RouteMapping mapping = new RouteMapping(ImmutableList.of(), ImmutableMap.of(), ImmutableSet.of());
+
+    @InjectLogger
+    private Logger LOG;
 
     @Inject
-    public RouteResolver(InfopointClient ic, GtfsRelationalDao dao) {
-        final ImmutableMap.Builder<Integer, AgencyAndId> infopointRouteIdToGtfsRouteMapBuilder = ImmutableMap.builder();
-
-        try {
-            for (RouteType infopointRoute : ic.getAllRoutes().getRoute()) {
-                Predicate<Route> shortNameMatchesId = gtfsRoute -> gtfsRoute.getId().getId().equals(infopointRoute.getShortName());
-                Predicate<Route> abbreviationMatchesShortName = gtfsRoute -> gtfsRoute.getShortName().equals(infopointRoute.getRouteAbbreviation());
-                Predicate<Route> googleDescriptionMatchesLongName = gtfsRoute -> gtfsRoute.getLongName().equals(infopointRoute.getGoogleDescription());
-
-                try {
-                    final Route gtfsRoute = dao.getAllRoutes().stream()
-                            .filter(shortNameMatchesId
-                                    .or(abbreviationMatchesShortName)
-                                    .or(googleDescriptionMatchesLongName))
-                            .collect(onlyElement());
-
-                    infopointRouteIdToGtfsRouteMapBuilder.put(infopointRoute.getRouteId(), gtfsRoute.getId());
-                } catch (NoSuchElementException | IllegalArgumentException ignored) {
-
-                }
+    public RouteResolver(GtfsStore store) {
+        this.store = store;
+    }
+
+    /**
+     * @return the index of the GTFS route, or -1 if the Infopoint route could not be matched
+     */
+    public int resolveRoute(int routeId) {
+        return mapping.gtfsRouteIndices.getOrDefault(routeId, -1);
+    }
+
+    /**
+     * @return whether the Infopoint route went unmatched because it matches several GTFS routes
+     */
+    public boolean isAmbiguous(int routeId) {
+        return mapping.ambiguousRouteIds.contains(routeId);
+    }
+
+    /**
+     * Rebuilds the mapping from new route definitions, unless it was already
+     * built from the same list. Updates are serialized, so that concurrent
+     * updates cannot leave an older mapping in place; lookups meanwhile
+     * carry on with the previous mapping.
+     */
+    public synchronized void update(ImmutableList<InfopointRoute> routes) {
+        if (mapping.routes == routes) {
+            return;
+        }
+
+        final ImmutableMap.Builder<Integer, Integer> gtfsRouteIndicesBuilder = ImmutableMap.builder();
+        final ImmutableSet.Builder<Integer> ambiguousRouteIdsBuilder = ImmutableSet.builder();
+
+        for (InfopointRoute infopointRoute : routes) {
+            final int[] matches = matchingGtfsRoutes(infopointRoute);
+
+            if (matches.length == 1) {
+                gtfsRouteIndicesBuilder.put(infopointRoute.getRouteId(), matches[0]);
+            } else if (matches.length == 0) {
+                LOG.warn("No GTFS route matches Infopoint route {}; its vehicles will be matched to trips by location only.", infopointRoute);
+            } else {
+                ambiguousRouteIdsBuilder.add(infopointRoute.getRouteId());
+                LOG.warn("Infopoint route {} matches several GTFS routes ({}); its vehicles will be matched to trips by location only.",
+                        infopointRoute, Arrays.stream(matches).mapToObj(store::getRouteId).toArray());
             }
-        } catch (InfopointClientException e) {
-            throw new RuntimeException("Error while fetching route definitions.", e);
         }
 
-        infopointRouteIdToGtfsRouteMap = infopointRouteIdToGtfsRouteMapBuilder.build();
+        mapping = new RouteMapping(routes, gtfsRouteIndicesBuilder.build(), ambiguousRouteIdsBuilder.build());
     }
 
-    public AgencyAndId resolveRoute(int routeId) {
-        return infopointRouteIdToGtfsRouteMap.get(routeId);
+    private int[] matchingGtfsRoutes(InfopointRoute infopointRoute) {
+        return IntStream.range(0, store.getRouteCount())
+                .filter(gtfsRoute -> matches(store.getRouteId(gtfsRoute), infopointRoute.getShortName())
+                        || matches(store.getRouteShortName(gtfsRoute), infopointRoute.getRouteAbbreviation())
+                        || matches(store.getRouteLongName(gtfsRoute), infopointRoute.getGoogleDescription()))
+                .toArray();
     }
 
+    private static boolean matches(@Nullable String gtfsValue, @Nullable String infopointValue) {
+        return gtfsValue != null && gtfsValue.equals(infopointValue);
+    }
+
+    private static final class RouteMapping {
+        private final ImmutableList<InfopointRoute> routes;
+        private final ImmutableMap<Integer, Integer> gtfsRouteIndices;
+        private final ImmutableSet<Integer> ambiguousRouteIds;
 
+        RouteMapping(ImmutableList<InfopointRoute> routes, ImmutableMap<Integer, Integer> gtfsRouteIndices,
+                     ImmutableSet<Integer> ambiguousRouteIds) {
+            this.routes = routes;
+            this.gtfsRouteIndices = gtfsRouteIndices;
+            this.ambiguousRouteIds = ambiguousRouteIds;
+        }
+    }
 }
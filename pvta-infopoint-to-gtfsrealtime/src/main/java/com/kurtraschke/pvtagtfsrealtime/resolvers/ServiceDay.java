@@ -0,0 +1,38 @@
+package com.kurtraschke.pvtagtfsrealtime.resolvers;
+
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import java.util.BitSet;
+
+/**
+ * A service date for one agency, with the epoch second its stop times are
+ * measured from and the set of service indices active on it.
+ */
+public final class ServiceDay {
+
+    private final ServiceDate serviceDate;
+    private final long midnightEpochSecond;
+    private final BitSet activeServiceIndices;
+
+    ServiceDay(ServiceDate serviceDate, long midnightEpochSecond, BitSet activeServiceIndices) {
+        this.serviceDate = serviceDate;
+        this.midnightEpochSecond = midnightEpochSecond;
+        this.activeServiceIndices = activeServiceIndices;
+    }
+
+    public ServiceDate getServiceDate() {
+        return serviceDate;
+    }
+
+    public long getMidnightEpochSecond() {
+        return midnightEpochSecond;
+    }
+
+    public int secondsSinceMidnight(long epochSecond) {
+        return (int) (epochSecond - midnightEpochSecond);
+    }
+
+    public boolean isServiceActive(int serviceIndex) {
+        return activeServiceIndices.get(serviceIndex);
+    }
+}
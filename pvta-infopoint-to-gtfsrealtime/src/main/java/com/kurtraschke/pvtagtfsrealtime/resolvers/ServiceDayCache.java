@@ -0,0 +1,107 @@
+package com.kurtraschke.pvtagtfsrealtime.resolvers;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.kurtraschke.pvtagtfsrealtime.ServiceDateFinder;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Caches, per agency, the service days a vehicle may be operating on at a
+ * given time. The active service ids and the midnight of each service date
+ * are computed once per date, and the current local day is remembered so
+ * that lookups only touch the calendar when the date rolls over.
+ */
+@Singleton
+public class ServiceDayCache {
+
+    private final GtfsStore store;
+    private final int overlapSeconds;
+
+    private final AgencyServiceDays[] agencyServiceDays;
+
+    @Inject
+    public ServiceDayCache(GtfsStore store, TripEnvelopeTable tripEnvelopeTable) {
+        this.store = store;
+        this.overlapSeconds = tripEnvelopeTable.getMaxLastSeconds() - 86400;
+
+        agencyServiceDays = new AgencyServiceDays[store.getAgencyCount()];
+
+        for (int agencyIndex = 0; agencyIndex < agencyServiceDays.length; agencyIndex++) {
+            agencyServiceDays[agencyIndex] = new AgencyServiceDays(store.getAgencyTimeZone(agencyIndex));
+        }
+    }
+
+    /**
+     * Returns the service days, most recent first, whose trips may be in
+     * progress at the given time. The returned list is shared and immutable.
+     */
+    public List<ServiceDay> possibleServiceDays(int agencyIndex, long probeEpochSecond) {
+        return agencyServiceDays[agencyIndex].possibleServiceDays(probeEpochSecond);
+    }
+
+    private ServiceDay serviceDay(ServiceDate sd, TimeZone timeZone) {
+        return new ServiceDay(sd, sd.getAsCalendar(timeZone).getTimeInMillis() / 1000, store.getActiveServices(sd));
+    }
+
+    private final class AgencyServiceDays {
+        private final TimeZone timeZone;
+        private final ZoneId zoneId;
+        private final ServiceDateFinder sdf;
+        private final LoadingCache<ServiceDate, ServiceDay> serviceDays;
+
+        private volatile CurrentDay currentDay;
+
+        AgencyServiceDays(TimeZone timeZone) {
+            this.timeZone = timeZone;
+            zoneId = timeZone.toZoneId();
+            sdf = new ServiceDateFinder(overlapSeconds, zoneId);
+            serviceDays = CacheBuilder.newBuilder()
+                    .maximumSize(8)
+                    .build(CacheLoader.from(sd -> serviceDay(sd, timeZone)));
+        }
+
+        List<ServiceDay> possibleServiceDays(long probeEpochSecond) {
+            CurrentDay cd = currentDay;
+
+            if (cd == null || probeEpochSecond < cd.startEpochSecond || probeEpochSecond >= cd.endEpochSecond) {
+                cd = new CurrentDay(sdf.possibleServiceDates(Instant.ofEpochSecond(probeEpochSecond)).get(0));
+                currentDay = cd;
+            }
+
+            if (cd.today.secondsSinceMidnight(probeEpochSecond) <= overlapSeconds) {
+                return cd.todayAndYesterday;
+            } else {
+                return cd.todayOnly;
+            }
+        }
+
+        private final class CurrentDay {
+            private final long startEpochSecond;
+            private final long endEpochSecond;
+            private final ServiceDay today;
+            private final List<ServiceDay> todayOnly;
+            private final List<ServiceDay> todayAndYesterday;
+
+            CurrentDay(ServiceDate todayDate) {
+                final LocalDate localDate = LocalDate.of(todayDate.getYear(), todayDate.getMonth(), todayDate.getDay());
+
+                startEpochSecond = localDate.atStartOfDay(zoneId).toEpochSecond();
+                endEpochSecond = localDate.plusDays(1).atStartOfDay(zoneId).toEpochSecond();
+                today = serviceDays.getUnchecked(todayDate);
+                todayOnly = ImmutableList.of(today);
+                todayAndYesterday = ImmutableList.of(today, serviceDays.getUnchecked(todayDate.previous()));
+            }
+        }
+    }
+}
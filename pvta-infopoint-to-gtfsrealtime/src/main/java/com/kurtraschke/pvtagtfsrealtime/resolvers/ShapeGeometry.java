@@ -0,0 +1,210 @@
+package com.kurtraschke.pvtagtfsrealtime.resolvers;
+
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import org.onebusaway.gtfs.model.AgencyAndId;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Cumulative distances, in meters, along every shape in the {@link GtfsStore},
+ * computed at startup so that positions along a shape can be expressed as a
+ * distance from its first point. Shape indices are those of the store.
+ */
+@Singleton
+public class ShapeGeometry {
+
+    static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    private final GtfsStore store;
+    private final double[] distances;
+
+    @Inject
+    public ShapeGeometry(GtfsStore store) {
+        this.store = store;
+
+        final int shapeCount = store.getShapeCount();
+        distances = new double[shapeCount > 0 ? store.getFirstShapePoint(shapeCount - 1) + store.getShapePointCount(shapeCount - 1) : 0];
+
+        for (int shapeIndex = 0; shapeIndex < shapeCount; shapeIndex++) {
+            final int first = store.getFirstShapePoint(shapeIndex);
+            final int end = first + store.getShapePointCount(shapeIndex);
+
+            double distance = 0;
+
+            for (int point = first; point < end; point++) {
+                if (point > first) {
+                    distance += segmentLength(lon(point - 1), lat(point - 1), lon(point), lat(point));
+                }
+
+                distances[point] = distance;
+            }
+        }
+    }
+
+    /**
+     * @return the index of the shape, or -1 if there is no such shape
+     */
+    public int indexOf(AgencyAndId shapeId) {
+        return store.shapeIndexOf(shapeId);
+    }
+
+    public double getLength(int shapeIndex) {
+        final int count = store.getShapePointCount(shapeIndex);
+        return count == 0 ? 0 : distances[store.getFirstShapePoint(shapeIndex) + count - 1];
+    }
+
+    /**
+     * Finds the point on the shape at the given distance along it, clamping to
+     * the ends of the shape.
+     *
+     * @param lonLat receives the longitude and latitude of the point
+     */
+    public void pointAt(int shapeIndex, double distance, double[] lonLat) {
+        final int first = store.getFirstShapePoint(shapeIndex);
+        final int last = first + store.getShapePointCount(shapeIndex) - 1;
+
+        if (last < first) {
+            lonLat[0] = Double.NaN;
+            lonLat[1] = Double.NaN;
+            return;
+        }
+
+        if (distance <= distances[first] || first == last) {
+            lonLat[0] = lon(first);
+            lonLat[1] = lat(first);
+            return;
+        }
+
+        if (distance >= distances[last]) {
+            lonLat[0] = lon(last);
+            lonLat[1] = lat(last);
+            return;
+        }
+
+        // Find the last point whose cumulative distance is <= distance.
+        int low = first;
+        int high = last;
+
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+
+            if (distances[mid] <= distance) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        final int a = low;
+        final int b = a + 1;
+        final double segment = distances[b] - distances[a];
+        final double fraction = segment > 0 ? (distance - distances[a]) / segment : 0;
+
+        lonLat[0] = lon(a) + fraction * (lon(b) - lon(a));
+        lonLat[1] = lat(a) + fraction * (lat(b) - lat(a));
+    }
+
+    /**
+     * @return the distance along the shape of the point on it nearest to the given coordinate
+     */
+    public double project(int shapeIndex, double lon, double lat) {
+        return projectAfter(shapeIndex, lon, lat, 0);
+    }
+
+    /**
+     * @return the distance along the shape, no less than {@code minDistance}, of
+     * the point on it nearest to the given coordinate
+     */
+    public double projectAfter(int shapeIndex, double lon, double lat, double minDistance) {
+        final int first = store.getFirstShapePoint(shapeIndex);
+        final int last = first + store.getShapePointCount(shapeIndex) - 1;
+
+        if (first >= last) {
+            return Math.max(minDistance, 0);
+        }
+
+        final double xScale = Math.cos(Math.toRadians(lat));
+
+        double bestDistanceSquared = Double.POSITIVE_INFINITY;
+        double bestAlong = minDistance;
+
+        for (int a = first; a < last; a++) {
+            final int b = a + 1;
+
+            final double startAlong = distances[a];
+            final double endAlong = distances[b];
+
+            if (endAlong < minDistance) {
+                continue;
+            }
+
+            final double ax = (lon(a) - lon) * xScale;
+            final double ay = lat(a) - lat;
+            final double dx = (lon(b) - lon(a)) * xScale;
+            final double dy = lat(b) - lat(a);
+            final double lengthSquared = dx * dx + dy * dy;
+
+            final double segment = endAlong - startAlong;
+            final double minFraction = segment > 0 ? Math.max(0, (minDistance - startAlong) / segment) : 0;
+            final double fraction = lengthSquared > 0
+                    ? Math.max(minFraction, Math.min(1, -(ax * dx + ay * dy) / lengthSquared))
+                    : minFraction;
+            final double along = Math.max(minDistance, startAlong + fraction * segment);
+
+            final double px = ax + fraction * dx;
+            final double py = ay + fraction * dy;
+            final double distanceSquared = px * px + py * py;
+
+            if (distanceSquared < bestDistanceSquared) {
+                bestDistanceSquared = distanceSquared;
+                bestAlong = along;
+            }
+        }
+
+        return bestAlong;
+    }
+
+    /**
+     * Locates each stop of a trip along the trip's shape, in order, so that
+     * successive stops never move backwards along the shape. The trip must
+     * have a shape.
+     *
+     * @return the distance along the shape of each of the trip's stop times' stops
+     */
+    public double[] projectStops(int tripIndex) {
+        final int shapeIndex = store.getTripShape(tripIndex);
+        final int firstStopTime = store.getFirstStopTime(tripIndex);
+        final double[] stopDistances = new double[store.getStopTimeCount(tripIndex)];
+        double distance = -1;
+
+        for (int i = 0; i < stopDistances.length; i++) {
+            final int stop = store.getStopTimeStop(firstStopTime + i);
+
+            if (distance >= 0) {
+                distance = projectAfter(shapeIndex, store.getStopLon(stop), store.getStopLat(stop), distance);
+            } else {
+                distance = project(shapeIndex, store.getStopLon(stop), store.getStopLat(stop));
+            }
+
+            stopDistances[i] = distance;
+        }
+
+        return stopDistances;
+    }
+
+    private double lon(int point) {
+        return store.getShapePointLon(point);
+    }
+
+    private double lat(int point) {
+        return store.getShapePointLat(point);
+    }
+
+    private static double segmentLength(double lon1, double lat1, double lon2, double lat2) {
+        final double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        final double y = Math.toRadians(lat2 - lat1);
+
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_METERS;
+    }
+}
@@ -0,0 +1,232 @@
+package com.kurtraschke.pvtagtfsrealtime.resolvers;
+
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Arrays;
+
+/**
+ * A uniform grid over every segment of every shape in the {@link GtfsStore},
+ * for finding the shapes which pass near a point without knowing the route.
+ * <p>
+ * Each segment is listed in every cell its bounding box overlaps. The cells'
+ * lists are packed into a single array, with each cell's list starting at
+ * its offset, so a lookup touches only the few cells around the point.
+ */
+@Singleton
+public class ShapeSegmentIndex {
+
+    private static final int[] NO_SHAPES = new int[0];
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * ShapeGeometry.EARTH_RADIUS_METERS;
+
+    private static final double CELL_METERS = 250;
+    private static final int MAX_CELLS = 1 << 22;
+
+    private final GtfsStore store;
+
+    private final double minLat;
+    private final double minLon;
+    private final double cellLat;
+    private final double cellLon;
+    private final double xScale;
+    private final int rows;
+    private final int columns;
+
+    // The segments in cell c are those starting at the shape points cellSegments[cellOffsets[c]] up to
+    // cellSegments[cellOffsets[c + 1]]; each ends at the following point.
+    private final int[] cellOffsets;
+    private final int[] cellSegments;
+    private final int[] pointShapes;
+
+    @Inject
+    public ShapeSegmentIndex(GtfsStore store) {
+        this.store = store;
+
+        final int shapeCount = store.getShapeCount();
+        final int pointCount = shapeCount > 0 ? store.getFirstShapePoint(shapeCount - 1) + store.getShapePointCount(shapeCount - 1) : 0;
+
+        pointShapes = new int[pointCount];
+
+        double south = Double.POSITIVE_INFINITY;
+        double north = Double.NEGATIVE_INFINITY;
+        double west = Double.POSITIVE_INFINITY;
+        double east = Double.NEGATIVE_INFINITY;
+
+        for (int shapeIndex = 0; shapeIndex < shapeCount; shapeIndex++) {
+            final int first = store.getFirstShapePoint(shapeIndex);
+            final int end = first + store.getShapePointCount(shapeIndex);
+
+            for (int point = first; point < end; point++) {
+                pointShapes[point] = shapeIndex;
+                south = Math.min(south, lat(point));
+                north = Math.max(north, lat(point));
+                west = Math.min(west, lon(point));
+                east = Math.max(east, lon(point));
+            }
+        }
+
+        if (pointCount == 0) {
+            south = north = west = east = 0;
+        }
+
+        xScale = Math.cos(Math.toRadians((south + north) / 2));
+
+        double cellMeters = CELL_METERS;
+        int r;
+        int c;
+
+        // Coarsen the grid if the shapes are spread over an unexpectedly large area.
+        while (true) {
+            r = (int) ((north - south) * METERS_PER_DEGREE / cellMeters) + 1;
+            c = (int) ((east - west) * METERS_PER_DEGREE * xScale / cellMeters) + 1;
+
+            if ((long) r * c <= MAX_CELLS) {
+                break;
+            }
+
+            cellMeters *= 2;
+        }
+
+        minLat = south;
+        minLon = west;
+        cellLat = cellMeters / METERS_PER_DEGREE;
+        cellLon = cellMeters / (METERS_PER_DEGREE * xScale);
+        rows = r;
+        columns = c;
+
+        // The first pass counts each cell's segments, the second places them.
+        cellOffsets = new int[rows * columns + 1];
+
+        forEachSegmentCell((segment, cell) -> cellOffsets[cell + 1]++);
+
+        for (int cell = 0; cell < rows * columns; cell++) {
+            cellOffsets[cell + 1] += cellOffsets[cell];
+        }
+
+        cellSegments = new int[cellOffsets[rows * columns]];
+
+        final int[] filled = Arrays.copyOf(cellOffsets, rows * columns);
+
+        forEachSegmentCell((segment, cell) -> cellSegments[filled[cell]++] = segment);
+    }
+
+    /**
+     * @return the indices of the shapes which pass within the given distance
+     * of the given point, in ascending order
+     */
+    public int[] nearbyShapes(double lat, double lon, double radiusMeters) {
+        final int fromRow = Math.max(0, row(lat - radiusMeters / METERS_PER_DEGREE));
+        final int toRow = Math.min(rows - 1, row(lat + radiusMeters / METERS_PER_DEGREE));
+        final int fromColumn = Math.max(0, column(lon - radiusMeters / (METERS_PER_DEGREE * xScale)));
+        final int toColumn = Math.min(columns - 1, column(lon + radiusMeters / (METERS_PER_DEGREE * xScale)));
+
+        if (fromRow > toRow || fromColumn > toColumn) {
+            return NO_SHAPES;
+        }
+
+        final double radiusSquared = radiusMeters * radiusMeters;
+
+        int[] shapes = NO_SHAPES;
+        int count = 0;
+
+        for (int row = fromRow; row <= toRow; row++) {
+            for (int column = fromColumn; column <= toColumn; column++) {
+                final int cell = row * columns + column;
+
+                for (int i = cellOffsets[cell]; i < cellOffsets[cell + 1]; i++) {
+                    final int a = cellSegments[i];
+                    final int shapeIndex = pointShapes[a];
+
+                    if (contains(shapes, count, shapeIndex) || distanceSquared(a, lat, lon) > radiusSquared) {
+                        continue;
+                    }
+
+                    if (count == shapes.length) {
+                        shapes = Arrays.copyOf(shapes, Math.max(8, count * 2));
+                    }
+
+                    shapes[count++] = shapeIndex;
+                }
+            }
+        }
+
+        final int[] nearby = Arrays.copyOf(shapes, count);
+        Arrays.sort(nearby);
+
+        return nearby;
+    }
+
+    private void forEachSegmentCell(SegmentCellConsumer consumer) {
+        for (int shapeIndex = 0; shapeIndex < store.getShapeCount(); shapeIndex++) {
+            final int first = store.getFirstShapePoint(shapeIndex);
+            final int last = first + store.getShapePointCount(shapeIndex) - 1;
+
+            for (int a = first; a < last; a++) {
+                final int b = a + 1;
+
+                final int fromRow = Math.max(0, row(Math.min(lat(a), lat(b))));
+                final int toRow = Math.min(rows - 1, row(Math.max(lat(a), lat(b))));
+                final int fromColumn = Math.max(0, column(Math.min(lon(a), lon(b))));
+                final int toColumn = Math.min(columns - 1, column(Math.max(lon(a), lon(b))));
+
+                for (int row = fromRow; row <= toRow; row++) {
+                    for (int column = fromColumn; column <= toColumn; column++) {
+                        consumer.accept(a, row * columns + column);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the squared distance, in square meters, from the point to the segment starting at shape point a
+     */
+    private double distanceSquared(int a, double lat, double lon) {
+        final int b = a + 1;
+
+        final double ax = (lon(a) - lon) * xScale;
+        final double ay = lat(a) - lat;
+        final double dx = (lon(b) - lon(a)) * xScale;
+        final double dy = lat(b) - lat(a);
+        final double lengthSquared = dx * dx + dy * dy;
+        final double fraction = lengthSquared > 0 ? Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared)) : 0;
+
+        final double px = (ax + fraction * dx) * METERS_PER_DEGREE;
+        final double py = (ay + fraction * dy) * METERS_PER_DEGREE;
+
+        return px * px + py * py;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private int row(double lat) {
+        return (int) Math.floor((lat - minLat) / cellLat);
+    }
+
+    private int column(double lon) {
+        return (int) Math.floor((lon - minLon) / cellLon);
+    }
+
+    private double lon(int point) {
+        return store.getShapePointLon(point);
+    }
+
+    private double lat(int point) {
+        return store.getShapePointLat(point);
+    }
+
+    @FunctionalInterface
+    private interface SegmentCellConsumer {
+        void accept(int segment, int cell);
+    }
+}
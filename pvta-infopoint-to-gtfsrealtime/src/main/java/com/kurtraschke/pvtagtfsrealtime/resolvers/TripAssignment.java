@@ -0,0 +1,80 @@
+package com.kurtraschke.pvtagtfsrealtime.resolvers;
+
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import javax.annotation.Nullable;
+
+/**
+ * The trip and service date a vehicle has been matched to, along with what
+ * the match was based on, so that it can be checked against the vehicle's
+ * next report.
+ */
+public final class TripAssignment {
+
+    private final int routeIndex;
+    private final String destination;
+    private final ServiceDay serviceDay;
+    private final int tripIndex;
+    private final int shapeIndex;
+    private final long reportEpochSecond;
+    private final long probeEpochSecond;
+    private final double distanceAlongShape;
+
+    TripAssignment(int routeIndex, @Nullable String destination, ServiceDay serviceDay, int tripIndex,
+                   int shapeIndex, long reportEpochSecond, long probeEpochSecond, double distanceAlongShape) {
+        this.routeIndex = routeIndex;
+        this.destination = destination;
+        this.serviceDay = serviceDay;
+        this.tripIndex = tripIndex;
+        this.shapeIndex = shapeIndex;
+        this.reportEpochSecond = reportEpochSecond;
+        this.probeEpochSecond = probeEpochSecond;
+        this.distanceAlongShape = distanceAlongShape;
+    }
+
+    public int getRouteIndex() {
+        return routeIndex;
+    }
+
+    @Nullable
+    public String getDestination() {
+        return destination;
+    }
+
+    public ServiceDay getServiceDay() {
+        return serviceDay;
+    }
+
+    public ServiceDate getServiceDate() {
+        return serviceDay.getServiceDate();
+    }
+
+    public int getTripIndex() {
+        return tripIndex;
+    }
+
+    public int getShapeIndex() {
+        return shapeIndex;
+    }
+
+    /**
+     * @return the time of the vehicle report the assignment is based on
+     */
+    public long getReportEpochSecond() {
+        return reportEpochSecond;
+    }
+
+    /**
+     * @return the vehicle's report time, corrected by its schedule deviation
+     */
+    public long getProbeEpochSecond() {
+        return probeEpochSecond;
+    }
+
+    /**
+     * @return the vehicle's position along the trip's shape, in meters
+     */
+    public double getDistanceAlongShape() {
+        return distanceAlongShape;
+    }
+}
@@ -0,0 +1,161 @@
+package com.kurtraschke.pvtagtfsrealtime.resolvers;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.ListMultimap;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Trips grouped by GTFS route and trimmed headsign, and separately by shape,
+ * each group sorted by the time of the trip's first stop, so that the trips
+ * which may be in progress at a given time can be found without scanning
+ * every trip on the route or shape.
+ */
+@Singleton
+public class TripCandidateIndex {
+
+    private static final int[] NO_CANDIDATES = new int[0];
+
+    private final TripEnvelopeTable envelopes;
+    private final ImmutableTable<Integer, String, CandidateGroup> candidateGroups;
+    private final CandidateGroup[] shapeCandidateGroups;
+
+    @Inject
+    public TripCandidateIndex(GtfsStore store, TripEnvelopeTable envelopes) {
+        this.envelopes = envelopes;
+
+        final ListMultimap<Integer, Integer> tripIndicesByRoute = ArrayListMultimap.create();
+        final ListMultimap<Integer, Integer> tripIndicesByShape = ArrayListMultimap.create();
+
+        for (int i = 0; i < envelopes.size(); i++) {
+            if (envelopes.hasStopTimes(i) && store.getTripShape(i) != GtfsStore.MISSING) {
+                tripIndicesByShape.put(store.getTripShape(i), i);
+
+                if (store.getTripHeadsign(i) != null) {
+                    tripIndicesByRoute.put(store.getTripRoute(i), i);
+                }
+            }
+        }
+
+        final ImmutableTable.Builder<Integer, String, CandidateGroup> candidateGroupsBuilder = ImmutableTable.builder();
+
+        for (int routeIndex : tripIndicesByRoute.keySet()) {
+            final ListMultimap<String, Integer> tripIndicesByHeadsign = ArrayListMultimap.create();
+
+            for (int tripIndex : tripIndicesByRoute.get(routeIndex)) {
+                tripIndicesByHeadsign.put(store.getTripHeadsign(tripIndex).trim(), tripIndex);
+            }
+
+            for (String headsign : tripIndicesByHeadsign.keySet()) {
+                candidateGroupsBuilder.put(routeIndex, headsign, new CandidateGroup(envelopes, tripIndicesByHeadsign.get(headsign)));
+            }
+        }
+
+        candidateGroups = candidateGroupsBuilder.build();
+
+        shapeCandidateGroups = new CandidateGroup[store.getShapeCount()];
+
+        for (int shapeIndex : tripIndicesByShape.keySet()) {
+            shapeCandidateGroups[shapeIndex] = new CandidateGroup(envelopes, tripIndicesByShape.get(shapeIndex));
+        }
+    }
+
+    /**
+     * Returns the indices of the trips with shapes on the given route and
+     * headsign whose stop times, widened by {@code windowSeconds} on each
+     * side, span the given time.
+     *
+     * @param routeIndex    index of the GTFS route
+     * @param headsign      trip headsign, compared against the trimmed GTFS headsign
+     * @param probeSeconds  seconds since the start of the service date
+     * @param windowSeconds slack applied before the first and after the last stop time
+     */
+    public int[] candidates(int routeIndex, String headsign, int probeSeconds, int windowSeconds) {
+        return candidates(candidateGroups.get(routeIndex, headsign), probeSeconds, windowSeconds);
+    }
+
+    /**
+     * Returns the indices of the trips with stop times on the given shape,
+     * whatever their route or headsign, whose stop times, widened by
+     * {@code windowSeconds} on each side, span the given time.
+     *
+     * @param shapeIndex    index of the shape
+     * @param probeSeconds  seconds since the start of the service date
+     * @param windowSeconds slack applied before the first and after the last stop time
+     */
+    public int[] candidatesOnShape(int shapeIndex, int probeSeconds, int windowSeconds) {
+        return candidates(shapeCandidateGroups[shapeIndex], probeSeconds, windowSeconds);
+    }
+
+    private int[] candidates(@Nullable CandidateGroup group, int probeSeconds, int windowSeconds) {
+        if (group == null) {
+            return NO_CANDIDATES;
+        }
+
+        // A trip can only span the probe time if it starts no later than probe + window, and
+        // no earlier than probe - window - (the longest trip in the group).
+        final int from = group.lowerBound(probeSeconds - windowSeconds - group.maxDurationSeconds);
+        final int to = group.lowerBound(probeSeconds + windowSeconds + 1);
+
+        final int[] matching = new int[to - from];
+        int count = 0;
+
+        for (int i = from; i < to; i++) {
+            final int tripIndex = group.tripIndices[i];
+
+            if (envelopes.getLastSeconds(tripIndex) + windowSeconds >= probeSeconds) {
+                matching[count++] = tripIndex;
+            }
+        }
+
+        return count == matching.length ? matching : Arrays.copyOf(matching, count);
+    }
+
+    private static final class CandidateGroup {
+        private final int[] tripIndices;
+        private final int[] startTimes;
+        private final int maxDurationSeconds;
+
+        CandidateGroup(TripEnvelopeTable envelopes, List<Integer> unsortedTripIndices) {
+            tripIndices = unsortedTripIndices.stream()
+                    .sorted(Comparator.comparingInt(envelopes::getFirstSeconds))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+
+            startTimes = new int[tripIndices.length];
+
+            int maxDuration = 0;
+
+            for (int i = 0; i < tripIndices.length; i++) {
+                startTimes[i] = envelopes.getFirstSeconds(tripIndices[i]);
+                maxDuration = Math.max(maxDuration, envelopes.getLastSeconds(tripIndices[i]) - startTimes[i]);
+            }
+
+            maxDurationSeconds = maxDuration;
+        }
+
+        int lowerBound(int seconds) {
+            int low = 0;
+            int high = startTimes.length;
+
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+
+                if (startTimes[mid] < seconds) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            return low;
+        }
+    }
+}
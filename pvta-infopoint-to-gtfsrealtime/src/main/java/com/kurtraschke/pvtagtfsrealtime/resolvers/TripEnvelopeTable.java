@@ -0,0 +1,83 @@
+package com.kurtraschke.pvtagtfsrealtime.resolvers;
+
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import static com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore.MISSING;
+
+/**
+ * The first and last scheduled second of every trip, stored in parallel
+ * primitive arrays indexed by the trip's index in the {@link GtfsStore}.
+ */
+@Singleton
+public class TripEnvelopeTable {
+
+    private final int[] firstSeconds;
+    private final int[] lastSeconds;
+    private final int maxLastSeconds;
+
+    @Inject
+    public TripEnvelopeTable(GtfsStore store) {
+        firstSeconds = new int[store.getTripCount()];
+        lastSeconds = new int[store.getTripCount()];
+
+        int max = Integer.MIN_VALUE;
+
+        for (int tripIndex = 0; tripIndex < firstSeconds.length; tripIndex++) {
+            final int from = store.getFirstStopTime(tripIndex);
+            final int to = from + store.getStopTimeCount(tripIndex);
+
+            int first = Integer.MAX_VALUE;
+            int last = Integer.MIN_VALUE;
+
+            for (int st = from; st < to; st++) {
+                final int arrival = store.getArrivalTime(st);
+                final int departure = store.getDepartureTime(st);
+
+                if (arrival != MISSING) {
+                    first = Math.min(first, arrival);
+                    last = Math.max(last, arrival);
+                }
+
+                if (departure != MISSING) {
+                    first = Math.min(first, departure);
+                    last = Math.max(last, departure);
+                }
+            }
+
+            firstSeconds[tripIndex] = first;
+            lastSeconds[tripIndex] = last;
+            max = Math.max(max, last);
+        }
+
+        maxLastSeconds = max;
+    }
+
+    public int size() {
+        return firstSeconds.length;
+    }
+
+    /**
+     * @return whether the trip has any stop time with an arrival or departure time
+     */
+    public boolean hasStopTimes(int tripIndex) {
+        return firstSeconds[tripIndex] <= lastSeconds[tripIndex];
+    }
+
+    public int getFirstSeconds(int tripIndex) {
+        return firstSeconds[tripIndex];
+    }
+
+    public int getLastSeconds(int tripIndex) {
+        return lastSeconds[tripIndex];
+    }
+
+    /**
+     * @return the latest scheduled second of any trip, relative to its service date
+     */
+    public int getMaxLastSeconds() {
+        return maxLastSeconds;
+    }
+}
@@ -1,204 +1,317 @@
 package com.kurtraschke.pvtagtfsrealtime.resolvers;
 
+import com.availtec.infopoint.client.VehicleLocation;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSortedMap;
-import com.google.common.collect.Range;
-import com.kurtraschke.pvtagtfsrealtime.ServiceDateFinder;
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.Pair;
-import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.VehicleLocationType;
-import org.gavaghan.geodesy.Ellipsoid;
-import org.gavaghan.geodesy.GeodeticCalculator;
-import org.gavaghan.geodesy.GlobalCoordinates;
-import org.jetbrains.annotations.Contract;
-import org.jetbrains.annotations.NotNull;
-import org.locationtech.jts.geom.Coordinate;
-import org.locationtech.jts.geom.CoordinateXY;
-import org.locationtech.jts.geom.GeometryFactory;
-import org.locationtech.jts.geom.LineString;
-import org.locationtech.jts.linearref.LengthIndexedLine;
-import org.onebusaway.gtfs.model.*;
-import org.onebusaway.gtfs.model.calendar.ServiceDate;
-import org.onebusaway.gtfs.services.GtfsRelationalDao;
-import org.onebusaway.gtfs.services.calendar.CalendarService;
+import com.google.inject.Inject;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import org.nnsoft.guice.sli4j.core.InjectLogger;
 import org.onebusaway.utility.InterpolationLibrary;
+import org.slf4j.Logger;
 
-import javax.inject.Inject;
+import javax.annotation.Nullable;
+import javax.inject.Named;
 import javax.inject.Singleton;
-import java.time.Duration;
-import java.time.Instant;
-import java.time.temporal.TemporalUnit;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.IntSummaryStatistics;
 import java.util.NavigableMap;
-import java.util.TimeZone;
-import java.util.stream.IntStream;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
 
-import static com.kurtraschke.common.Utils.fp;
-import static com.kurtraschke.common.Utils.pf;
-import static java.time.temporal.ChronoUnit.MINUTES;
-import static java.time.temporal.ChronoUnit.SECONDS;
+import static com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore.MISSING;
 import static org.onebusaway.utility.EOutOfRangeStrategy.LAST_VALUE;
 
 @Singleton
 public class VehicleToTripResolver {
 
-    private final GtfsRelationalDao dao;
-    private final CalendarService cs;
-    private final GeometryFactory gf;
-    private final GeodeticCalculator gc;
+    private static final int CANDIDATE_WINDOW_SECONDS = 30 * 60;
 
-    private final LoadingCache<AgencyAndId, LengthIndexedLine> shapeLineCache;
-    private final LoadingCache<Trip, NavigableMap<Integer, Double>> tripTimeToLocationMapCache;
+    // How far a vehicle may appear to move backwards along its shape, or stray
+    // from it, before its previous trip assignment is reconsidered.
+    private static final double PROGRESS_TOLERANCE_METERS = 100;
+    private static final double MAX_OFF_SHAPE_METERS = 250;
 
-    private final int overlapSeconds;
+    private static final double INITIAL_PROJECTION_SLACK_METERS = 1000;
+
+    // Without a route and headsign to go on, a trip is only accepted if the schedule
+    // places it this close to the vehicle.
+    private static final double MAX_FALLBACK_DISTANCE_METERS = 500;
+
+    private final GtfsStore store;
+    private final TripEnvelopeTable tripEnvelopeTable;
+    private final TripCandidateIndex tripCandidateIndex;
+    private final ServiceDayCache serviceDayCache;
+    private final ShapeGeometry shapeGeometry;
+    private final ShapeSegmentIndex shapeSegmentIndex;
+
+    private final LoadingCache<Integer, NavigableMap<Integer, Double>> tripTimeToLocationMapCache;
+    private final Cache<Integer, TripAssignment> assignments = CacheBuilder.newBuilder()
+            .expireAfterWrite(1, TimeUnit.HOURS)
+            .build();
+
+    private DistanceMetric rankingDistanceMetric = DistanceMetric.EQUIRECTANGULAR;
+
+    @InjectLogger
+    private Logger LOG;
 
     @Inject
-    public VehicleToTripResolver(GtfsRelationalDao dao,
-                                 CalendarService cs,
-                                 GeometryFactory gf,
-                                 GeodeticCalculator gc) {
-        this.dao = dao;
-        this.cs = cs;
-        this.gf = gf;
-        this.gc = gc;
-
-        shapeLineCache = CacheBuilder.newBuilder()
-                .maximumSize(50)
-                .build(CacheLoader.from(key -> new LengthIndexedLine(lineForShape(key))));
+    public VehicleToTripResolver(GtfsStore store,
+                                 TripEnvelopeTable tripEnvelopeTable,
+                                 TripCandidateIndex tripCandidateIndex,
+                                 ServiceDayCache serviceDayCache,
+                                 ShapeGeometry shapeGeometry,
+                                 ShapeSegmentIndex shapeSegmentIndex) {
+        this.store = store;
+        this.tripEnvelopeTable = tripEnvelopeTable;
+        this.tripCandidateIndex = tripCandidateIndex;
+        this.serviceDayCache = serviceDayCache;
+        this.shapeGeometry = shapeGeometry;
+        this.shapeSegmentIndex = shapeSegmentIndex;
 
         tripTimeToLocationMapCache = CacheBuilder.newBuilder()
                 .maximumSize(200)
-                .build(CacheLoader.from(key -> {
+                .recordStats()
+                .build(CacheLoader.from(tripIndex -> {
                     final ImmutableSortedMap.Builder<Integer, Double> timeToLocationMapBuilder = new ImmutableSortedMap.Builder<>(Comparator.naturalOrder());
-                    final LengthIndexedLine lil = shapeLineCache.getUnchecked(key.getShapeId());
-                    double index = -1;
-
-                    for (StopTime st : dao.getStopTimesForTrip(key)) {
-                        final Coordinate stopCoordinate = new CoordinateXY(st.getStop().getLon(), st.getStop().getLat());
+                    final int firstStopTime = store.getFirstStopTime(tripIndex);
+                    final double[] stopLocations = shapeGeometry.projectStops(tripIndex);
 
-                        if (index >= 0) {
-                            index = lil.indexOfAfter(stopCoordinate, index);
-                        } else {
-                            index = lil.indexOf(stopCoordinate);
-                        }
+                    for (int i = 0; i < stopLocations.length; i++) {
+                        final int arrival = store.getArrivalTime(firstStopTime + i);
+                        final int departure = store.getDepartureTime(firstStopTime + i);
+                        final double index = stopLocations[i];
 
-                        if (st.isArrivalTimeSet()) {
-                            timeToLocationMapBuilder.put(st.getArrivalTime(), index);
+                        if (arrival != MISSING) {
+                            timeToLocationMapBuilder.put(arrival, index);
                         }
 
-                        if (st.isDepartureTimeSet() && (!st.isArrivalTimeSet() || st.getDepartureTime() != st.getArrivalTime())) {
-                            timeToLocationMapBuilder.put(st.getDepartureTime(), index);
+                        if (departure != MISSING && departure != arrival) {
+                            timeToLocationMapBuilder.put(departure, index);
                         }
                     }
 
                     return timeToLocationMapBuilder.build();
                 }));
+    }
 
-        overlapSeconds = dao.getAllStopTimes().stream()
-                .flatMapToInt(VehicleToTripResolver::stopTimeIntStream)
-                .max()
-                .orElseThrow() - 86400;
+    @Inject(optional = true)
+    public void setRankingDistanceMetric(@Named("tripResolution.distanceMetric") DistanceMetric rankingDistanceMetric) {
+        this.rankingDistanceMetric = rankingDistanceMetric;
     }
 
-    public Pair<ServiceDate, Trip> resolveVehicle(VehicleLocationType vl, Route route) {
-        final Coordinate probeCoordinate = new Coordinate(vl.getLongitude(), vl.getLatitude());
+    public CacheStats getTripTimeToLocationMapCacheStats() {
+        return tripTimeToLocationMapCache.stats();
+    }
 
-        final TimeZone agencyTimeZone = cs.getTimeZoneForAgencyId(route.getAgency().getId());
+    /**
+     * Matches a vehicle to a trip. If the vehicle's previous assignment is still
+     * consistent with its new report, it is kept; otherwise every candidate trip
+     * on the route is considered.
+     *
+     * @throws NoSuchElementException if no trip matches the vehicle
+     */
+    public TripAssignment resolveVehicle(VehicleLocation vl, int routeIndex) {
+        final int agencyIndex = store.getRouteAgency(routeIndex);
 
         final int deviation = vl.getDeviation();
 
-        final Instant probeTime = vl.getLastUpdated()
-                .toGregorianCalendar(agencyTimeZone, null, null)
-                .toInstant()
-                .minus(deviation, MINUTES);
+        final long probeEpochSecond = vl.getLastUpdated() - 60L * deviation;
 
-        final ServiceDateFinder sdf = new ServiceDateFinder(overlapSeconds, agencyTimeZone.toZoneId());
+        final TripAssignment previous = assignments.getIfPresent(vl.getVehicleId());
 
-        final Pair<ServiceDate, Trip> resolvedTripAndServiceDate = dao.getTripsForRoute(route)
-                .stream()
-                .filter(t -> t.getShapeId() != null)
-                .filter(t -> t.getTripHeadsign().trim().equals(vl.getDestination()))
-                .flatMap(t -> sdf.possibleServiceDates(probeTime).stream().map(sd -> ImmutablePair.of(sd, t)))
-                .filter(fp(pf((sd, t) -> cs.getServiceIdsOnDate(sd).contains(t.getServiceId()))))
-                .filter(fp(pf((sd, t) -> tripStopTimeRange(t, sd.getAsCalendar(agencyTimeZone).toInstant(), 30L, MINUTES).contains(probeTime))))
-                .min(Comparator.comparing(pf((sd, t) -> distanceFromExpectedPosition(probeTime, probeCoordinate, t, sd, agencyTimeZone))))
-                .orElseThrow();
+        if (isOutOfOrder(previous, vl)) {
+            return previous;
+        }
+
+        TripAssignment assignment = null;
 
-        return resolvedTripAndServiceDate;
+        if (previous != null) {
+            assignment = continueAssignment(previous, vl, routeIndex, probeEpochSecond);
+        }
+
+        if (assignment == null) {
+            try {
+                assignment = searchAssignment(vl, agencyIndex, probeEpochSecond, Double.POSITIVE_INFINITY,
+                        probeTimeSeconds -> tripCandidateIndex.candidates(routeIndex, vl.getDestination(), probeTimeSeconds, CANDIDATE_WINDOW_SECONDS));
+            } catch (NoSuchElementException e) {
+                assignments.invalidate(vl.getVehicleId());
+                throw e;
+            }
+        }
+
+        assignments.put(vl.getVehicleId(), assignment);
+
+        return assignment;
     }
 
-    private double distanceFromExpectedPosition(Instant probeTime, Coordinate probeCoordinate, Trip t, ServiceDate sd, TimeZone agencyTimeZone) {
-        final int probeTimeSeconds = (int) Duration.between(sd.getAsCalendar(agencyTimeZone).toInstant(), probeTime).toSeconds();
+    /**
+     * Matches a vehicle to a trip by its position alone, for vehicles whose
+     * route could not be resolved or whose destination matches no headsign.
+     * The candidates are the trips on shapes passing near the vehicle, limited
+     * to the given route if it is known.
+     *
+     * @param routeIndex the vehicle's route, or -1 to consider trips on every route
+     * @throws NoSuchElementException if no trip matches the vehicle
+     */
+    public TripAssignment resolveVehicleByLocation(VehicleLocation vl, int routeIndex) {
+        final long probeEpochSecond = vl.getLastUpdated() - 60L * vl.getDeviation();
+
+        final TripAssignment previous = assignments.getIfPresent(vl.getVehicleId());
+
+        if (isOutOfOrder(previous, vl)) {
+            return previous;
+        }
 
-        final double interpolatedLocation = InterpolationLibrary.interpolate(
-                tripTimeToLocationMapCache.getUnchecked(t),
-                probeTimeSeconds,
-                LAST_VALUE
-        );
+        TripAssignment assignment = null;
+
+        if (previous != null && (routeIndex < 0 || previous.getRouteIndex() == routeIndex)) {
+            assignment = continueAssignment(previous, vl, previous.getRouteIndex(), probeEpochSecond);
+        }
 
-        final Coordinate coordinate = shapeLineCache.getUnchecked(t.getShapeId())
-                .extractPoint(interpolatedLocation);
+        if (assignment == null) {
+            final int[] shapeIndices = shapeSegmentIndex.nearbyShapes(vl.getLatitude(), vl.getLongitude(), MAX_OFF_SHAPE_METERS);
+
+            // All agencies in a feed share a time zone, and service indices are feed-wide, so any
+            // agency's service days will do when the route is unknown.
+            final int agencyIndex = routeIndex >= 0 ? store.getRouteAgency(routeIndex) : 0;
+
+            try {
+                assignment = searchAssignment(vl, agencyIndex, probeEpochSecond, MAX_FALLBACK_DISTANCE_METERS,
+                        probeTimeSeconds -> Arrays.stream(shapeIndices)
+                                .flatMap(shapeIndex -> Arrays.stream(tripCandidateIndex.candidatesOnShape(shapeIndex, probeTimeSeconds, CANDIDATE_WINDOW_SECONDS)))
+                                .filter(tripIndex -> routeIndex < 0 || store.getTripRoute(tripIndex) == routeIndex)
+                                .toArray());
+            } catch (NoSuchElementException e) {
+                assignments.invalidate(vl.getVehicleId());
+                throw e;
+            }
+        }
 
-        final double meters = gc.calculateGeodeticCurve(
-                Ellipsoid.WGS84,
-                coordinateToGlobalCoordinates(coordinate),
-                coordinateToGlobalCoordinates(probeCoordinate)
-        )
-                .getEllipsoidalDistance();
+        assignments.put(vl.getVehicleId(), assignment);
 
-        return meters;
+        return assignment;
     }
 
-    @NotNull
-    @Contract("_ -> new")
-    private static GlobalCoordinates coordinateToGlobalCoordinates(Coordinate coordinate) {
-        return new GlobalCoordinates(coordinate.getY(), coordinate.getX());
+    /**
+     * A report older than the one the vehicle's assignment is based on says nothing
+     * new about the vehicle, and must not move it back along its trip, so the
+     * assignment is kept as it is.
+     */
+    private static boolean isOutOfOrder(@Nullable TripAssignment previous, VehicleLocation vl) {
+        return previous != null && vl.getLastUpdated() < previous.getReportEpochSecond();
     }
 
-    @NotNull
-    private Range<Instant> tripStopTimeRange(Trip t, Instant base,
-                                             Long window, TemporalUnit unit) {
-        final IntSummaryStatistics intSummaryStatistics = dao.getStopTimesForTrip(t)
-                .stream()
-                .flatMapToInt(VehicleToTripResolver::stopTimeIntStream)
-                .summaryStatistics();
-
-        return Range.closed(
-                base.plusSeconds(intSummaryStatistics.getMin()).minus(window, unit),
-                base.plusSeconds(intSummaryStatistics.getMax()).plus(window, unit)
-        );
-    }
+    @Nullable
+    private TripAssignment continueAssignment(TripAssignment previous, VehicleLocation vl, int routeIndex, long probeEpochSecond) {
+        if (previous.getRouteIndex() != routeIndex || !Objects.equals(previous.getDestination(), vl.getDestination())) {
+            return null;
+        }
 
-    @NotNull
-    private Range<Instant> tripStopTimeRange(Trip t, Instant base) {
-       return tripStopTimeRange(t, base, 0L, SECONDS);
-    }
+        final ServiceDay sd = previous.getServiceDay();
+        final int tripIndex = previous.getTripIndex();
+        final int probeTimeSeconds = sd.secondsSinceMidnight(probeEpochSecond);
 
-    private LineString lineForShape(AgencyAndId shapeId) {
-        return gf.createLineString(
-                dao.getShapePointsForShapeId(shapeId)
-                        .stream()
-                        .sorted(Comparator.comparing(ShapePoint::getSequence))
-                        .map(sp -> new CoordinateXY(sp.getLon(), sp.getLat()))
-                        .toArray(Coordinate[]::new)
-        );
+        if (probeTimeSeconds < tripEnvelopeTable.getFirstSeconds(tripIndex) - CANDIDATE_WINDOW_SECONDS
+                || probeTimeSeconds > tripEnvelopeTable.getLastSeconds(tripIndex) + CANDIDATE_WINDOW_SECONDS) {
+            return null;
+        }
+
+        final double distanceAlongShape = shapeGeometry.projectAfter(previous.getShapeIndex(), vl.getLongitude(), vl.getLatitude(),
+                Math.max(0, previous.getDistanceAlongShape() - PROGRESS_TOLERANCE_METERS));
+
+        final double[] lonLat = new double[2];
+        shapeGeometry.pointAt(previous.getShapeIndex(), distanceAlongShape, lonLat);
+
+        if (rankingDistanceMetric.distance(lonLat[1], lonLat[0], vl.getLatitude(), vl.getLongitude()) > MAX_OFF_SHAPE_METERS) {
+            return null;
+        }
+
+        return new TripAssignment(routeIndex, previous.getDestination(), sd, tripIndex, previous.getShapeIndex(),
+                vl.getLastUpdated(), probeEpochSecond, distanceAlongShape);
     }
 
-    private static IntStream stopTimeIntStream(StopTime st) {
-        IntStream.Builder b = IntStream.builder();
+    /**
+     * Finds the candidate trip whose scheduled position is nearest the vehicle.
+     *
+     * @param maxDistance how far from the vehicle the best trip's scheduled position may be
+     * @param candidates  the candidate trips at a number of seconds since the start of a service date
+     */
+    private TripAssignment searchAssignment(VehicleLocation vl, int agencyIndex, long probeEpochSecond,
+                                            double maxDistance, IntFunction<int[]> candidates) {
+        final double probeLat = vl.getLatitude();
+        final double probeLon = vl.getLongitude();
+        final double[] expectedLonLat = new double[2];
+
+        ServiceDay bestServiceDay = null;
+        int bestTripIndex = -1;
+        int bestShapeIndex = -1;
+        int bestProbeTimeSeconds = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+
+        for (ServiceDay sd : serviceDayCache.possibleServiceDays(agencyIndex, probeEpochSecond)) {
+            final int probeTimeSeconds = sd.secondsSinceMidnight(probeEpochSecond);
+
+            for (int tripIndex : candidates.apply(probeTimeSeconds)) {
+                if (!sd.isServiceActive(store.getTripService(tripIndex))) {
+                    continue;
+                }
+
+                final int shapeIndex = store.getTripShape(tripIndex);
+
+                expectedPosition(probeTimeSeconds, tripIndex, shapeIndex, expectedLonLat);
+
+                final double distance = rankingDistanceMetric.distance(expectedLonLat[1], expectedLonLat[0], probeLat, probeLon);
+
+                if (distance < bestDistance) {
+                    bestServiceDay = sd;
+                    bestTripIndex = tripIndex;
+                    bestShapeIndex = shapeIndex;
+                    bestProbeTimeSeconds = probeTimeSeconds;
+                    bestDistance = distance;
+                }
+            }
+        }
 
-        if (st.isArrivalTimeSet()) {
-            b.accept(st.getArrivalTime());
+        if (bestServiceDay == null || bestDistance > maxDistance) {
+            throw new NoSuchElementException();
         }
 
-        if (st.isDepartureTimeSet()) {
-            b.accept(st.getDepartureTime());
+        final double expectedDistanceAlongShape = expectedPosition(bestProbeTimeSeconds, bestTripIndex, bestShapeIndex, expectedLonLat);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Vehicle {} resolved to trip {} on {}, {} m ({} m ellipsoidal) from its expected position",
+                    vl.getVehicleId(), store.getTripId(bestTripIndex), bestServiceDay.getServiceDate(), bestDistance,
+                    DistanceMetric.ELLIPSOIDAL.distance(expectedLonLat[1], expectedLonLat[0], probeLat, probeLon));
         }
 
-        return b.build();
+        // Search forward from a little before where the schedule puts the vehicle, so that
+        // shapes which double back on themselves are not matched to the wrong leg.
+        final double distanceAlongShape = shapeGeometry.projectAfter(bestShapeIndex, probeLon, probeLat,
+                Math.max(0, expectedDistanceAlongShape - INITIAL_PROJECTION_SLACK_METERS));
+
+        return new TripAssignment(store.getTripRoute(bestTripIndex), vl.getDestination(), bestServiceDay, bestTripIndex,
+                bestShapeIndex, vl.getLastUpdated(), probeEpochSecond, distanceAlongShape);
+    }
+
+    /**
+     * @return the distance along the shape at which the schedule places the trip at the given time
+     */
+    private double expectedPosition(int probeTimeSeconds, int tripIndex, int shapeIndex, double[] expectedLonLat) {
+        final double interpolatedLocation = InterpolationLibrary.interpolate(
+                tripTimeToLocationMapCache.getUnchecked(tripIndex),
+                probeTimeSeconds,
+                LAST_VALUE
+        );
+
+        shapeGeometry.pointAt(shapeIndex, interpolatedLocation, expectedLonLat);
+
+        return interpolatedLocation;
     }
 
 }
@@ -0,0 +1,182 @@
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.Position;
+import com.google.transit.realtime.GtfsRealtime.VehiclePosition;
+import com.kurtraschke.pvtagtfsrealtime.exporter.AtomicFeedFileWriter;
+import com.kurtraschke.pvtagtfsrealtime.exporter.SerializedFeedCache;
+import com.kurtraschke.pvtagtfsrealtime.producers.EntityPublisher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nnsoft.guice.sli4j.slf4j.Slf4jLoggingModule;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeExporter;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeExporterModule;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.VehiclePositions;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeSink;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AtomicFeedFileWriterTest {
+
+    private static final FileTime LONG_AGO = FileTime.fromMillis(0);
+
+    @TempDir
+    Path dir;
+
+    private Path path;
+    private Path temp;
+    private long timestamp = 1557835200;
+    private String entityId = "1";
+
+    private final SerializedFeedCache cache = new SerializedFeedCache(() -> FeedMessage.newBuilder()
+            .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0").setTimestamp(timestamp))
+            .addEntity(FeedEntity.newBuilder().setId(entityId))
+            .build());
+
+    @BeforeEach
+    void setUp() {
+        path = dir.resolve("vehiclePositions.pb");
+        temp = dir.resolve(".vehiclePositions.pb.tmp");
+    }
+
+    @Test
+    void writesFeed() throws IOException {
+        newWriter();
+        cache.refresh();
+
+        assertArrayEquals(protobuf(), Files.readAllBytes(path));
+        assertFalse(Files.exists(temp));
+
+        entityId = "2";
+        cache.refresh();
+
+        assertArrayEquals(protobuf(), Files.readAllBytes(path));
+    }
+
+    @Test
+    void changedTimestampNotRewritten() throws IOException {
+        newWriter();
+        cache.refresh();
+        Files.setLastModifiedTime(path, LONG_AGO);
+
+        timestamp++;
+        cache.refresh();
+
+        assertEquals(LONG_AGO, Files.getLastModifiedTime(path));
+    }
+
+    @Test
+    void republishedEntitiesNotRewritten() throws Exception {
+        // A real exporter, which stamps the feed with the time of every update.
+        final Injector injector = Guice.createInjector(new GtfsRealtimeExporterModule());
+        final GtfsRealtimeExporter exporter = injector.getInstance(Key.get(GtfsRealtimeExporter.class, VehiclePositions.class));
+        final GtfsRealtimeSink sink = injector.getInstance(Key.get(GtfsRealtimeSink.class, VehiclePositions.class));
+
+        final SerializedFeedCache exporterCache = new SerializedFeedCache(exporter::getFeed);
+        final EntityPublisher publisher = new EntityPublisher(sink, exporterCache, false);
+
+        final AtomicFeedFileWriter writer = Guice.createInjector(new Slf4jLoggingModule())
+                .getInstance(AtomicFeedFileWriter.class);
+        writer.setPath(path.toFile());
+        writer.setCache(exporterCache);
+
+        publisher.publish(List.of(FeedEntity.newBuilder()
+                .setId("1")
+                .setVehicle(VehiclePosition.newBuilder()
+                        .setPosition(Position.newBuilder().setLatitude(42.39f).setLongitude(-72.52f)))
+                .build()));
+
+        final byte[] written = Files.readAllBytes(path);
+        final long writtenTimestamp = exporterCache.getCurrent().getTimestamp();
+        Files.setLastModifiedTime(path, LONG_AGO);
+
+        // Header timestamps are in whole seconds.
+        do {
+            Thread.sleep(100);
+            publisher.republish();
+        } while (exporterCache.getCurrent().getTimestamp() == writtenTimestamp);
+
+        assertEquals(LONG_AGO, Files.getLastModifiedTime(path));
+        assertArrayEquals(written, Files.readAllBytes(path));
+    }
+
+    @Test
+    void unchangedFeedNotRewritten() throws IOException {
+        newWriter();
+        cache.refresh();
+
+        // Whatever is in the file now, the writer knows it last wrote this feed, and leaves it.
+        Files.write(path, new byte[]{1, 2, 3});
+        cache.refresh();
+
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(path));
+    }
+
+    @Test
+    void unchangedFileFromPreviousRunKept() throws IOException {
+        cache.refresh();
+        Files.write(path, protobuf());
+        Files.setLastModifiedTime(path, LONG_AGO);
+
+        newWriter();
+        cache.refresh();
+
+        assertEquals(LONG_AGO, Files.getLastModifiedTime(path));
+    }
+
+    @Test
+    void changedFileFromPreviousRunReplaced() throws IOException {
+        cache.refresh();
+
+        // The same length, but different bytes.
+        final byte[] stale = protobuf();
+        stale[stale.length - 1]++;
+        Files.write(path, stale);
+
+        newWriter();
+        cache.refresh();
+
+        assertArrayEquals(protobuf(), Files.readAllBytes(path));
+    }
+
+    @Test
+    void temporaryFileRemovedWhenMoveFails() throws IOException {
+        newWriter();
+        cache.refresh();
+
+        // A non-empty directory cannot be replaced by a file.
+        Files.delete(path);
+        Files.createDirectory(path);
+        Files.createFile(path.resolve("occupied"));
+
+        entityId = "2";
+        cache.refresh();
+
+        assertTrue(Files.isDirectory(path));
+        assertFalse(Files.exists(temp));
+    }
+
+    private void newWriter() {
+        final AtomicFeedFileWriter writer = Guice.createInjector(new Slf4jLoggingModule())
+                .getInstance(AtomicFeedFileWriter.class);
+
+        writer.setPath(path.toFile());
+        writer.setCache(cache);
+    }
+
+    private byte[] protobuf() {
+        final byte[] bytes = new byte[cache.getCurrent().getProtobuf().remaining()];
+        cache.getCurrent().getProtobuf().get(bytes);
+        return bytes;
+    }
+}
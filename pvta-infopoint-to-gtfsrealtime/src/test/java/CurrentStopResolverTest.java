@@ -0,0 +1,102 @@
+import com.availtec.infopoint.client.VehicleLocation;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.CurrentStopResolver;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.TripAssignment;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.VehicleToTripResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nnsoft.guice.sli4j.slf4j.Slf4jLoggingModule;
+import org.onebusaway.gtfs.model.Stop;
+
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CurrentStopResolverTest {
+
+    private static final long EIGHT_AM = ZonedDateTime.of(2019, 5, 14, 8, 0, 0, 0, TestGtfs.TIME_ZONE).toEpochSecond();
+
+    private GtfsStore store;
+    private VehicleToTripResolver tripResolver;
+    private CurrentStopResolver stopResolver;
+
+    /**
+     * One trip along a straight shape, which serves Haigis Mall at both ends:
+     * once at each of the two stops of that name, spelt differently.
+     */
+    @BeforeEach
+    void setUp() {
+        final TestGtfs gtfs = new TestGtfs();
+
+        final Stop[] stops = {
+                gtfs.stop("1", "Haigis Mall", TestGtfs.lon(0)),
+                gtfs.stop("2", "North Pleasant St", TestGtfs.lon(1)),
+                gtfs.stop("3", null, TestGtfs.lon(2)),
+                gtfs.stop("4", " HAIGIS  Mall", TestGtfs.lon(3)),
+        };
+
+        gtfs.shape("S1", TestGtfs.LAT, TestGtfs.lon(0), TestGtfs.lon(3));
+
+        final int[][] times = new int[stops.length][];
+
+        for (int i = 0; i < stops.length; i++) {
+            final int time = TestGtfs.FIRST_DEPARTURE + i * TestGtfs.RUNNING_TIME;
+            times[i] = new int[]{time, time};
+        }
+
+        gtfs.trip("T1", "B43", stops, times);
+
+        store = gtfs.build();
+
+        final Injector injector = Guice.createInjector(new Slf4jLoggingModule(),
+                binder -> binder.bind(GtfsStore.class).toInstance(store));
+
+        tripResolver = injector.getInstance(VehicleToTripResolver.class);
+        stopResolver = injector.getInstance(CurrentStopResolver.class);
+    }
+
+    @Test
+    void stopNameNormalized() {
+        final TripAssignment assignment = assignment(1.2);
+
+        assertEquals(stopTime(assignment, 1), stopResolver.resolveCurrentStop(assignment, "North Pleasant St"));
+        assertEquals(stopTime(assignment, 1), stopResolver.resolveCurrentStop(assignment, "  north\tpleasant   ST "));
+    }
+
+    @Test
+    void nearestVisitChosen() {
+        final TripAssignment leaving = assignment(0.2);
+
+        assertEquals(stopTime(leaving, 0), stopResolver.resolveCurrentStop(leaving, "Haigis Mall"));
+
+        final TripAssignment arriving = assignment(2.8);
+
+        assertEquals(stopTime(arriving, 3), stopResolver.resolveCurrentStop(arriving, "Haigis Mall"));
+        assertEquals(stopTime(arriving, 3), stopResolver.resolveCurrentStop(arriving, "haigis mall "));
+    }
+
+    @Test
+    void unknownStopName() {
+        final TripAssignment assignment = assignment(1.2);
+
+        assertEquals(GtfsStore.MISSING, stopResolver.resolveCurrentStop(assignment, "Fine Arts Center"));
+        assertEquals(GtfsStore.MISSING, stopResolver.resolveCurrentStop(assignment, ""));
+        assertEquals(GtfsStore.MISSING, stopResolver.resolveCurrentStop(assignment, null));
+    }
+
+    /**
+     * Assigns a vehicle on schedule, {@code stop} stops along the trip.
+     */
+    private TripAssignment assignment(double stop) {
+        final VehicleLocation vl = new VehicleLocation(1, "1", 43, "Amherst", 0, "",
+                EIGHT_AM + (long) (stop * TestGtfs.RUNNING_TIME), TestGtfs.LAT, TestGtfs.lon(stop));
+
+        return tripResolver.resolveVehicle(vl, store.routeIndexOf(TestGtfs.id("B43")));
+    }
+
+    private int stopTime(TripAssignment assignment, int position) {
+        return store.getFirstStopTime(assignment.getTripIndex()) + position;
+    }
+}
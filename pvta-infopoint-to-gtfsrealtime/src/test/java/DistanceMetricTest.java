@@ -0,0 +1,67 @@
+import com.kurtraschke.pvtagtfsrealtime.resolvers.DistanceMetric;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DistanceMetricTest {
+
+    private static final double SPRINGFIELD_LAT = 42.1015;
+    private static final double SPRINGFIELD_LON = -72.5898;
+
+    @Test
+    void equirectangularCloseToEllipsoidal() {
+        final double equirectangular = DistanceMetric.EQUIRECTANGULAR.distance(42.1015, -72.5898, 42.3732, -72.5199);
+        final double ellipsoidal = DistanceMetric.ELLIPSOIDAL.distance(42.1015, -72.5898, 42.3732, -72.5199);
+
+        assertEquals(ellipsoidal, equirectangular, ellipsoidal * 0.005);
+    }
+
+    @Test
+    void rankingAgreesWithEllipsoidal() {
+        final Random random = new Random(413);
+
+        for (int trial = 0; trial < 1000; trial++) {
+            final double probeLat = SPRINGFIELD_LAT + offset(random, 0.2);
+            final double probeLon = SPRINGFIELD_LON + offset(random, 0.2);
+
+            int nearestEquirectangular = -1;
+            int nearestEllipsoidal = -1;
+            double bestEquirectangular = Double.POSITIVE_INFINITY;
+            double bestEllipsoidal = Double.POSITIVE_INFINITY;
+            double secondBestEllipsoidal = Double.POSITIVE_INFINITY;
+
+            for (int candidate = 0; candidate < 8; candidate++) {
+                // Candidates a few hundred meters to a few kilometers from the vehicle.
+                final double lat = probeLat + offset(random, 0.02);
+                final double lon = probeLon + offset(random, 0.02);
+
+                final double equirectangular = DistanceMetric.EQUIRECTANGULAR.distance(lat, lon, probeLat, probeLon);
+                final double ellipsoidal = DistanceMetric.ELLIPSOIDAL.distance(lat, lon, probeLat, probeLon);
+
+                if (equirectangular < bestEquirectangular) {
+                    bestEquirectangular = equirectangular;
+                    nearestEquirectangular = candidate;
+                }
+
+                if (ellipsoidal < bestEllipsoidal) {
+                    secondBestEllipsoidal = bestEllipsoidal;
+                    bestEllipsoidal = ellipsoidal;
+                    nearestEllipsoidal = candidate;
+                } else if (ellipsoidal < secondBestEllipsoidal) {
+                    secondBestEllipsoidal = ellipsoidal;
+                }
+            }
+
+            // The metrics differ by a fraction of a percent depending on bearing, so near-ties may rank either way.
+            if (secondBestEllipsoidal > bestEllipsoidal * 1.01) {
+                assertEquals(nearestEllipsoidal, nearestEquirectangular, "trial " + trial);
+            }
+        }
+    }
+
+    private static double offset(Random random, double range) {
+        return (random.nextDouble() * 2 - 1) * range;
+    }
+}
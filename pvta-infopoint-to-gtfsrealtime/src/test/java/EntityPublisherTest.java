@@ -0,0 +1,94 @@
+import com.google.transit.realtime.GtfsRealtime.FeedEntity;
+import com.google.transit.realtime.GtfsRealtime.FeedHeader;
+import com.google.transit.realtime.GtfsRealtime.FeedMessage;
+import com.google.transit.realtime.GtfsRealtime.Position;
+import com.kurtraschke.pvtagtfsrealtime.exporter.SerializedFeedCache;
+import com.kurtraschke.pvtagtfsrealtime.producers.EntityPublisher;
+import org.junit.jupiter.api.Test;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeFullUpdate;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeIncrementalUpdate;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeSink;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityPublisherTest {
+
+    private final List<GtfsRealtimeFullUpdate> fullUpdates = new ArrayList<>();
+    private final List<GtfsRealtimeIncrementalUpdate> incrementalUpdates = new ArrayList<>();
+
+    private final GtfsRealtimeSink sink = new GtfsRealtimeSink() {
+        @Override
+        public void handleFullUpdate(GtfsRealtimeFullUpdate update) {
+            fullUpdates.add(update);
+        }
+
+        @Override
+        public void handleIncrementalUpdate(GtfsRealtimeIncrementalUpdate update) {
+            incrementalUpdates.add(update);
+        }
+    };
+
+    private final SerializedFeedCache cache = new SerializedFeedCache(() -> FeedMessage.newBuilder()
+            .setHeader(FeedHeader.newBuilder().setGtfsRealtimeVersion("2.0"))
+            .build());
+
+    @Test
+    void fullMode() {
+        final EntityPublisher publisher = new EntityPublisher(sink, cache, false);
+
+        publisher.publish(List.of(vehicle("1", 42.1f), vehicle("2", 42.2f)));
+        publisher.publish(List.of(vehicle("1", 42.1f)));
+
+        assertEquals(2, fullUpdates.size());
+        assertEquals(1, fullUpdates.get(1).getEntities().size());
+        assertTrue(incrementalUpdates.isEmpty());
+        assertNotNull(cache.getCurrent());
+    }
+
+    @Test
+    void differentialMode() {
+        final EntityPublisher publisher = new EntityPublisher(sink, cache, true);
+
+        publisher.publish(List.of(vehicle("1", 42.1f), vehicle("2", 42.2f), vehicle("3", 42.3f)));
+
+        // The first cycle establishes the full dataset.
+        assertEquals(1, fullUpdates.size());
+        assertEquals(3, fullUpdates.get(0).getEntities().size());
+
+        publisher.publish(List.of(vehicle("1", 42.1f), vehicle("2", 42.25f), vehicle("4", 42.4f)));
+
+        assertEquals(1, incrementalUpdates.size());
+
+        final GtfsRealtimeIncrementalUpdate update = incrementalUpdates.get(0);
+
+        assertEquals(List.of("2", "4"), update.getUpdatedEntities().stream().map(FeedEntity::getId).collect(toList()));
+        assertEquals(List.of("3"), update.getDeletedEntities());
+    }
+
+    @Test
+    void republishUnchanged() {
+        final EntityPublisher publisher = new EntityPublisher(sink, cache, true);
+
+        assertFalse(publisher.hasPublished());
+        assertThrows(IllegalStateException.class, publisher::republish);
+
+        publisher.publish(List.of(vehicle("1", 42.1f)));
+        publisher.republish();
+
+        assertTrue(publisher.hasPublished());
+        assertEquals(1, incrementalUpdates.size());
+        assertTrue(incrementalUpdates.get(0).getUpdatedEntities().isEmpty());
+        assertTrue(incrementalUpdates.get(0).getDeletedEntities().isEmpty());
+    }
+
+    private static FeedEntity vehicle(String id, float latitude) {
+        final FeedEntity.Builder feb = FeedEntity.newBuilder();
+        feb.setId(id);
+        feb.getVehicleBuilder().setPosition(Position.newBuilder().setLatitude(latitude).setLongitude(-72.5f));
+        return feb.build();
+    }
+}
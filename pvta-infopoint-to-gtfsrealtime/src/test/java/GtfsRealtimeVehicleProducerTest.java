@@ -0,0 +1,195 @@
+import com.availtec.infopoint.client.InfopointClient;
+import com.availtec.infopoint.client.VehicleLocation;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Scopes;
+import com.google.inject.name.Names;
+import com.kurtraschke.pvtagtfsrealtime.exporter.SerializedFeedCache;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.metrics.MetricsRegistry;
+import com.kurtraschke.pvtagtfsrealtime.producers.GtfsRealtimeVehicleProducer;
+import com.kurtraschke.pvtagtfsrealtime.providers.GtfsStoreProvider;
+import com.kurtraschke.pvtagtfsrealtime.providers.SerializedFeedCacheProvider;
+import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.ArrayOfRoute;
+import org.datacontract.schemas._2004._07.availtec_myavail_tids_datamanager.RouteType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nnsoft.guice.sli4j.slf4j.Slf4jLoggingModule;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeExporterModule;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.TripUpdates;
+import org.onebusaway.gtfs_realtime.exporter.GtfsRealtimeGuiceBindingTypes.VehiclePositions;
+import org.onebusaway.guice.jsr250.JSR250Module;
+import org.onebusaway.guice.jsr250.LifecycleService;
+
+import java.io.File;
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtfsRealtimeVehicleProducerTest {
+
+    private static final long EIGHT_AM = 1557835200;
+
+    private static final String REUSED = "pvta_vehicles_reused_total";
+    private static final String RESOLVED = "pvta_vehicle_stage_seconds_count{stage=\"trip\"}";
+
+    @TempDir
+    Path dir;
+
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService vehicleResolutionExecutor = Executors.newFixedThreadPool(2);
+
+    // What the stub Infopoint reports on the next poll.
+    private volatile List<VehicleLocation> vehicles = List.of();
+
+    private LifecycleService lifecycleService;
+    private GtfsRealtimeVehicleProducer producer;
+    private MetricsRegistry metrics;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        final GtfsStore store = TestGtfs.straightLine(5, 5, 600).build();
+        final File gtfsPath = Files.createDirectory(dir.resolve("gtfs")).toFile();
+
+        final InfopointClient infopointClient = new InfopointClient(URI.create("http://localhost/")) {
+            @Override
+            public ArrayOfRoute getAllRoutes() {
+                final RouteType b43 = new RouteType();
+                b43.setRouteId(43);
+                b43.setShortName("B43");
+
+                final ArrayOfRoute routes = new ArrayOfRoute();
+                routes.getRoute().add(b43);
+                return routes;
+            }
+
+            @Override
+            public boolean getAllVehiclesIfModified(ZoneId timeZone, Consumer<VehicleLocation> consumer) {
+                vehicles.forEach(consumer);
+                return true;
+            }
+        };
+
+        // Holds the scheduler's only thread, so that the cycles the producer schedules for itself never run and
+        // only those the test runs count.
+        scheduledExecutorService.submit(() -> {
+            Thread.sleep(Long.MAX_VALUE);
+            return null;
+        });
+
+        final Injector injector = Guice.createInjector(
+                new JSR250Module(),
+                new GtfsRealtimeExporterModule(),
+                new Slf4jLoggingModule(),
+                binder -> {
+                    binder.bind(InfopointClient.class).toInstance(infopointClient);
+                    binder.bind(ScheduledExecutorService.class).toInstance(scheduledExecutorService);
+                    binder.bind(ExecutorService.class)
+                            .annotatedWith(Names.named("vehicleResolution"))
+                            .toInstance(vehicleResolutionExecutor);
+                    binder.bind(GtfsStoreProvider.class).toInstance(new GtfsStoreProvider(null, gtfsPath) {
+                        @Override
+                        public GtfsStore get() {
+                            return store;
+                        }
+                    });
+                    binder.bind(File.class).annotatedWith(Names.named("PVTA.gtfsPath")).toInstance(gtfsPath);
+                    binder.bindConstant().annotatedWith(Names.named("PVTA.gtfsReloadInterval")).to(0);
+                    binder.bindConstant().annotatedWith(Names.named("refreshRate.vehicles")).to(30);
+
+                    for (Class<? extends Annotation> feedAnnotationType : List.of(VehiclePositions.class, TripUpdates.class)) {
+                        binder.bind(SerializedFeedCache.class)
+                                .annotatedWith(feedAnnotationType)
+                                .toProvider(new SerializedFeedCacheProvider(feedAnnotationType))
+                                .in(Scopes.SINGLETON);
+                    }
+                });
+
+        producer = injector.getInstance(GtfsRealtimeVehicleProducer.class);
+        metrics = injector.getInstance(MetricsRegistry.class);
+        lifecycleService = injector.getInstance(LifecycleService.class);
+        lifecycleService.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        lifecycleService.stop();
+        scheduledExecutorService.shutdownNow();
+        vehicleResolutionExecutor.shutdownNow();
+    }
+
+    @Test
+    void unchangedVehiclesReused() {
+        vehicles = List.of(vehicle(3201, 0.5), vehicle(3202, 1.5));
+        producer.runOnce();
+
+        assertEquals(0, metric(REUSED));
+        assertEquals(2, metric(RESOLVED));
+
+        // Equal reports, parsed afresh.
+        vehicles = List.of(vehicle(3201, 0.5), vehicle(3202, 1.5));
+        producer.runOnce();
+
+        assertEquals(2, metric(REUSED));
+        assertEquals(2, metric(RESOLVED));
+    }
+
+    @Test
+    void changedVehicleResolvedAgain() {
+        vehicles = List.of(vehicle(3201, 0.5), vehicle(3202, 1.5));
+        producer.runOnce();
+
+        vehicles = List.of(vehicle(3201, 0.5), vehicle(3202, 1.6));
+        producer.runOnce();
+
+        assertEquals(1, metric(REUSED));
+        assertEquals(3, metric(RESOLVED));
+    }
+
+    @Test
+    void newVehicleResolved() {
+        vehicles = List.of(vehicle(3201, 0.5));
+        producer.runOnce();
+
+        vehicles = List.of(vehicle(3201, 0.5), vehicle(3202, 1.5));
+        producer.runOnce();
+
+        assertEquals(1, metric(REUSED));
+        assertEquals(2, metric(RESOLVED));
+    }
+
+    /**
+     * @return the value of a sample, as the metrics endpoint would report it
+     */
+    private double metric(String sample) {
+        final StringBuilder text = new StringBuilder();
+        metrics.writeTo(text);
+
+        for (String line : text.toString().split("\n")) {
+            if (line.startsWith(sample + " ")) {
+                return Double.parseDouble(line.substring(sample.length() + 1));
+            }
+        }
+
+        throw new AssertionError("No sample " + sample + " in\n" + text);
+    }
+
+    /**
+     * A vehicle on T1 at eight in the morning, {@code stop} stops along the line.
+     */
+    private static VehicleLocation vehicle(int vehicleId, double stop) {
+        return new VehicleLocation(vehicleId, Integer.toString(vehicleId), 43, "B43 Amherst", 0, "",
+                EIGHT_AM + (long) (stop * TestGtfs.RUNNING_TIME), TestGtfs.LAT, TestGtfs.lon(stop));
+    }
+}
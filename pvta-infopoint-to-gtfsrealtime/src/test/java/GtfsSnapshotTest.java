@@ -0,0 +1,159 @@
+import com.google.common.hash.HashCode;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsSnapshot;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import java.nio.file.Path;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtfsSnapshotTest {
+
+    private static final HashCode GTFS_HASH = HashCode.fromLong(42);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void roundTrip() throws Exception {
+        final Path snapshotPath = tempDir.resolve("gtfs.zip.snapshot");
+        final GtfsStore original = GtfsStore.fromDao(sampleDao());
+
+        GtfsSnapshot.write(snapshotPath, GTFS_HASH, original);
+
+        final GtfsStore store = GtfsSnapshot.read(snapshotPath, GTFS_HASH);
+
+        assertNotNull(store);
+
+        assertEquals(1, store.getAgencyCount());
+        assertEquals("PVTA", store.getAgencyId(0));
+        assertEquals(TimeZone.getTimeZone("America/New_York"), store.getAgencyTimeZone(0));
+
+        final int route = store.routeIndexOf(new AgencyAndId("PVTA", "B43"));
+        assertEquals(original.routeIndexOf(new AgencyAndId("PVTA", "B43")), route);
+        assertEquals("B43", store.getRouteShortName(route));
+        assertNull(store.getRouteLongName(route));
+        assertEquals(0, store.getRouteAgency(route));
+
+        assertEquals(1, store.getTripCount());
+        assertEquals("T1", store.getTripId(0));
+        assertEquals(route, store.getTripRoute(0));
+        assertEquals("Amherst", store.getTripHeadsign(0));
+        assertEquals(store.shapeIndexOf(new AgencyAndId("PVTA", "S1")), store.getTripShape(0));
+
+        final int first = store.getFirstStopTime(0);
+        assertEquals(2, store.getStopTimeCount(0));
+        assertEquals(8 * 3600, store.getDepartureTime(first));
+        assertEquals(GtfsStore.MISSING, store.getDepartureTime(first + 1));
+        assertEquals(8 * 3600 + 600, store.getArrivalTime(first + 1));
+        assertEquals(2, store.getStopSequence(first + 1));
+        assertEquals("Main St", store.getStopName(store.getStopTimeStop(first + 1)));
+        assertEquals(original.getStopLat(0), store.getStopLat(0));
+
+        final int shape = store.shapeIndexOf(new AgencyAndId("PVTA", "S1"));
+        assertEquals(2, store.getShapePointCount(shape));
+        assertEquals(original.getShapePointLon(store.getFirstShapePoint(shape) + 1),
+                store.getShapePointLon(store.getFirstShapePoint(shape) + 1));
+
+        assertEquals(1, store.getServiceCount());
+        assertEquals(original.getActiveServices(new ServiceDate(2019, 7, 4)), store.getActiveServices(new ServiceDate(2019, 7, 4)));
+        assertEquals(original.getActiveServices(new ServiceDate(2019, 7, 5)), store.getActiveServices(new ServiceDate(2019, 7, 5)));
+    }
+
+    @Test
+    void staleSnapshotIsIgnored() throws Exception {
+        final Path snapshotPath = tempDir.resolve("gtfs.zip.snapshot");
+
+        GtfsSnapshot.write(snapshotPath, GTFS_HASH, GtfsStore.fromDao(sampleDao()));
+
+        assertNull(GtfsSnapshot.read(snapshotPath, HashCode.fromLong(43)));
+        assertNull(GtfsSnapshot.read(tempDir.resolve("missing.snapshot"), GTFS_HASH));
+    }
+
+    private static GtfsRelationalDaoImpl sampleDao() {
+        final GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+
+        final Agency agency = new Agency();
+        agency.setId("PVTA");
+        agency.setName("Pioneer Valley Transit Authority");
+        agency.setTimezone("America/New_York");
+        dao.saveEntity(agency);
+
+        final Route route = new Route();
+        route.setId(new AgencyAndId("PVTA", "B43"));
+        route.setAgency(agency);
+        route.setShortName("B43");
+        route.setType(3);
+        dao.saveEntity(route);
+
+        final Trip trip = new Trip();
+        trip.setId(new AgencyAndId("PVTA", "T1"));
+        trip.setRoute(route);
+        trip.setServiceId(new AgencyAndId("PVTA", "WKDY"));
+        trip.setShapeId(new AgencyAndId("PVTA", "S1"));
+        trip.setTripHeadsign("Amherst");
+        dao.saveEntity(trip);
+
+        final Stop first = stop("1", "Haigis Mall");
+        final Stop second = stop("2", "Main St");
+        dao.saveEntity(first);
+        dao.saveEntity(second);
+
+        final StopTime departure = new StopTime();
+        departure.setId(1);
+        departure.setTrip(trip);
+        departure.setStop(first);
+        departure.setStopSequence(1);
+        departure.setArrivalTime(8 * 3600);
+        departure.setDepartureTime(8 * 3600);
+        dao.saveEntity(departure);
+
+        final StopTime arrival = new StopTime();
+        arrival.setId(2);
+        arrival.setTrip(trip);
+        arrival.setStop(second);
+        arrival.setStopSequence(2);
+        arrival.setArrivalTime(8 * 3600 + 600);
+        dao.saveEntity(arrival);
+
+        for (int i = 0; i < 2; i++) {
+            final ShapePoint sp = new ShapePoint();
+            sp.setId(i + 1);
+            sp.setShapeId(new AgencyAndId("PVTA", "S1"));
+            sp.setSequence(i);
+            sp.setLat(42.39);
+            sp.setLon(-72.52 + i * 0.01);
+            dao.saveEntity(sp);
+        }
+
+        final ServiceCalendarDate calendarDate = new ServiceCalendarDate();
+        calendarDate.setId(1);
+        calendarDate.setServiceId(new AgencyAndId("PVTA", "WKDY"));
+        calendarDate.setDate(new ServiceDate(2019, 7, 4));
+        calendarDate.setExceptionType(ServiceCalendarDate.EXCEPTION_TYPE_REMOVE);
+        dao.saveEntity(calendarDate);
+
+        return dao;
+    }
+
+    private static Stop stop(String id, String name) {
+        final Stop stop = new Stop();
+        stop.setId(new AgencyAndId("PVTA", id));
+        stop.setName(name);
+        stop.setLat(42.39);
+        stop.setLon(-72.52);
+        return stop;
+    }
+}
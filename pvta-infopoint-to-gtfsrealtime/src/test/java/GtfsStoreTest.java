@@ -0,0 +1,177 @@
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GtfsStoreTest {
+
+    private static final AgencyAndId WEEKDAY = new AgencyAndId("PVTA", "WKDY");
+    private static final AgencyAndId HOLIDAY = new AgencyAndId("PVTA", "HOL");
+
+    private GtfsStore store;
+
+    @BeforeEach
+    void setUp() {
+        final GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+
+        final Agency agency = new Agency();
+        agency.setId("PVTA");
+        agency.setTimezone("America/New_York");
+        dao.saveEntity(agency);
+
+        final Route route = new Route();
+        route.setId(new AgencyAndId("PVTA", "B43"));
+        route.setAgency(agency);
+        route.setShortName("B43");
+        dao.saveEntity(route);
+
+        final Trip trip = new Trip();
+        trip.setId(new AgencyAndId("PVTA", "T1"));
+        trip.setRoute(route);
+        trip.setServiceId(WEEKDAY);
+        trip.setShapeId(new AgencyAndId("PVTA", "S1"));
+        trip.setTripHeadsign("Amherst");
+        dao.saveEntity(trip);
+
+        final Stop first = stop("1", "Haigis Mall");
+        final Stop second = stop("2", "Main St");
+        dao.saveEntity(first);
+        dao.saveEntity(second);
+
+        // Saved out of order to check that stop times are ordered by sequence.
+        final StopTime arrival = new StopTime();
+        arrival.setId(2);
+        arrival.setTrip(trip);
+        arrival.setStop(second);
+        arrival.setStopSequence(2);
+        arrival.setArrivalTime(8 * 3600 + 600);
+        dao.saveEntity(arrival);
+
+        final StopTime departure = new StopTime();
+        departure.setId(1);
+        departure.setTrip(trip);
+        departure.setStop(first);
+        departure.setStopSequence(1);
+        departure.setArrivalTime(8 * 3600);
+        departure.setDepartureTime(8 * 3600);
+        dao.saveEntity(departure);
+
+        for (int i = 0; i < 3; i++) {
+            final ShapePoint sp = new ShapePoint();
+            sp.setId(i + 1);
+            sp.setShapeId(new AgencyAndId("PVTA", "S1"));
+            sp.setSequence(2 - i);
+            sp.setLat(42.39);
+            sp.setLon(-72.52 + (2 - i) * 0.01);
+            dao.saveEntity(sp);
+        }
+
+        final ServiceCalendar calendar = new ServiceCalendar();
+        calendar.setServiceId(WEEKDAY);
+        calendar.setStartDate(new ServiceDate(2019, 1, 1));
+        calendar.setEndDate(new ServiceDate(2019, 12, 31));
+        calendar.setMonday(1);
+        calendar.setTuesday(1);
+        calendar.setWednesday(1);
+        calendar.setThursday(1);
+        calendar.setFriday(1);
+        dao.saveEntity(calendar);
+
+        dao.saveEntity(calendarDate(WEEKDAY, new ServiceDate(2019, 7, 4), ServiceCalendarDate.EXCEPTION_TYPE_REMOVE));
+        dao.saveEntity(calendarDate(HOLIDAY, new ServiceDate(2019, 7, 4), ServiceCalendarDate.EXCEPTION_TYPE_ADD));
+        dao.saveEntity(calendarDate(WEEKDAY, new ServiceDate(2019, 7, 6), ServiceCalendarDate.EXCEPTION_TYPE_ADD));
+
+        store = GtfsStore.fromDao(dao);
+    }
+
+    @Test
+    void trips() {
+        assertEquals(1, store.getTripCount());
+        assertEquals("T1", store.getTripId(0));
+        assertEquals("Amherst", store.getTripHeadsign(0));
+        assertEquals(store.routeIndexOf(new AgencyAndId("PVTA", "B43")), store.getTripRoute(0));
+        assertEquals(store.shapeIndexOf(new AgencyAndId("PVTA", "S1")), store.getTripShape(0));
+        assertEquals("America/New_York", store.getAgencyTimeZone(store.getRouteAgency(store.getTripRoute(0))).getID());
+    }
+
+    @Test
+    void stopTimes() {
+        final int first = store.getFirstStopTime(0);
+
+        assertEquals(2, store.getStopTimeCount(0));
+        assertEquals(1, store.getStopSequence(first));
+        assertEquals(8 * 3600, store.getDepartureTime(first));
+        assertEquals(8 * 3600 + 600, store.getArrivalTime(first + 1));
+        assertEquals(GtfsStore.MISSING, store.getDepartureTime(first + 1));
+        assertEquals("Main St", store.getStopName(store.getStopTimeStop(first + 1)));
+    }
+
+    @Test
+    void shapePoints() {
+        final int shapeIndex = store.getTripShape(0);
+        final int first = store.getFirstShapePoint(shapeIndex);
+
+        assertEquals(3, store.getShapePointCount(shapeIndex));
+        assertEquals(-72.52, store.getShapePointLon(first), 1e-5);
+        assertEquals(-72.50, store.getShapePointLon(first + 2), 1e-5);
+    }
+
+    @Test
+    void activeServices() {
+        final int weekday = store.getTripService(0);
+
+        // Wednesday
+        assertEquals(bits(weekday), store.getActiveServices(new ServiceDate(2019, 7, 3)));
+        // Independence Day: the weekday service is removed and the holiday service added.
+        final BitSet holiday = store.getActiveServices(new ServiceDate(2019, 7, 4));
+        assertFalse(holiday.get(weekday));
+        assertEquals(1, holiday.cardinality());
+        // Saturday, with weekday service added.
+        assertEquals(bits(weekday), store.getActiveServices(new ServiceDate(2019, 7, 6)));
+        // Sunday
+        assertTrue(store.getActiveServices(new ServiceDate(2019, 7, 7)).isEmpty());
+        // After the end of the calendar.
+        assertTrue(store.getActiveServices(new ServiceDate(2020, 1, 1)).isEmpty());
+    }
+
+    private static BitSet bits(int... indices) {
+        final BitSet bits = new BitSet();
+
+        for (int index : indices) {
+            bits.set(index);
+        }
+
+        return bits;
+    }
+
+    private static Stop stop(String id, String name) {
+        final Stop stop = new Stop();
+        stop.setId(new AgencyAndId("PVTA", id));
+        stop.setName(name);
+        stop.setLat(42.39);
+        stop.setLon(-72.52);
+        return stop;
+    }
+
+    private static ServiceCalendarDate calendarDate(AgencyAndId serviceId, ServiceDate date, int exceptionType) {
+        final ServiceCalendarDate calendarDate = new ServiceCalendarDate();
+        calendarDate.setServiceId(serviceId);
+        calendarDate.setDate(date);
+        calendarDate.setExceptionType(exceptionType);
+        return calendarDate;
+    }
+}
@@ -0,0 +1,33 @@
+import com.google.common.collect.ImmutableList;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.InfopointRoute;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.InfopointRouteCatalog;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InfopointRouteCatalogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTrip() throws IOException {
+        final Path path = dir.resolve("routes");
+        final ImmutableList<InfopointRoute> routes = ImmutableList.of(
+                new InfopointRoute(20030, "B43", "B43", "Northampton - Amherst"),
+                new InfopointRoute(20031, "R41", null, null));
+
+        InfopointRouteCatalog.write(path, routes);
+
+        assertEquals(routes, InfopointRouteCatalog.read(path));
+    }
+
+    @Test
+    void missingFile() throws IOException {
+        assertNull(InfopointRouteCatalog.read(dir.resolve("routes")));
+    }
+}
@@ -0,0 +1,73 @@
+import com.kurtraschke.pvtagtfsrealtime.metrics.Histogram;
+import com.kurtraschke.pvtagtfsrealtime.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+    @Test
+    void histogram() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final Histogram histogram = registry.histogram("stage_seconds", "Stage time.", "stage", "trip");
+
+        histogram.observe(0.003);
+        histogram.observe(0.003);
+        histogram.observe(60);
+
+        final String text = write(registry);
+
+        assertTrue(text.contains("# TYPE pvta_stage_seconds histogram\n"));
+        assertTrue(text.contains("pvta_stage_seconds_bucket{stage=\"trip\",le=\"0.0025\"} 0\n"));
+        assertTrue(text.contains("pvta_stage_seconds_bucket{stage=\"trip\",le=\"0.005\"} 2\n"));
+        assertTrue(text.contains("pvta_stage_seconds_bucket{stage=\"trip\",le=\"30.0\"} 2\n"));
+        assertTrue(text.contains("pvta_stage_seconds_bucket{stage=\"trip\",le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("pvta_stage_seconds_count{stage=\"trip\"} 3\n"));
+    }
+
+    @Test
+    void sameLabelsSameMetric() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final LongAdder matched = registry.counter("vehicles_total", "Vehicles.", "result", "matched");
+
+        matched.add(2);
+        registry.counter("vehicles_total", "Vehicles.", "result", "matched").increment();
+        registry.counter("vehicles_total", "Vehicles.", "result", "no_trip").increment();
+
+        final String text = write(registry);
+
+        assertTrue(text.contains("pvta_vehicles_total{result=\"matched\"} 3\n"));
+        assertTrue(text.contains("pvta_vehicles_total{result=\"no_trip\"} 1\n"));
+        assertEquals(1, text.split("# TYPE pvta_vehicles_total", -1).length - 1);
+    }
+
+    @Test
+    void gauge() {
+        final MetricsRegistry registry = new MetricsRegistry();
+
+        registry.gauge("feed_age_seconds", "Feed age.", () -> 1.5, "feed", "Alerts");
+        registry.gauge("unpublished_seconds", "Unpublished.", () -> Double.NaN);
+
+        final String text = write(registry);
+
+        assertTrue(text.contains("pvta_feed_age_seconds{feed=\"Alerts\"} 1.5\n"));
+        assertTrue(text.contains("pvta_unpublished_seconds NaN\n"));
+    }
+
+    @Test
+    void typeMismatch() {
+        final MetricsRegistry registry = new MetricsRegistry();
+
+        registry.counter("requests_total", "Requests.");
+
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("requests_total", "Requests.", () -> 0));
+    }
+
+    private static String write(MetricsRegistry registry) {
+        final StringBuilder sb = new StringBuilder();
+        registry.writeTo(sb);
+        return sb.toString();
+    }
+}
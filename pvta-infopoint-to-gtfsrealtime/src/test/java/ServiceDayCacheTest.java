@@ -0,0 +1,119 @@
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.ServiceDay;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.ServiceDayCache;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.TripEnvelopeTable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServiceDayCacheTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private ServiceDayCache cache;
+
+    @BeforeEach
+    void setUp() {
+        final TestGtfs gtfs = new TestGtfs();
+        final Stop[] line = gtfs.line(2);
+
+        // The latest trip runs until 02:00 the next morning, so a day's service overlaps the first two
+        // hours of the next.
+        gtfs.trip("OWL", "B43", line, new int[]{23 * 3600, 23 * 3600}, new int[]{26 * 3600, 26 * 3600});
+
+        final GtfsStore store = gtfs.build();
+        cache = new ServiceDayCache(store, new TripEnvelopeTable(store));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void yesterdayOnlyDuringOverlap() {
+        assertEquals(List.of(date(2019, 5, 14), date(2019, 5, 13)), dates("2019-05-14T05:00:00Z"));
+        assertEquals(List.of(date(2019, 5, 14), date(2019, 5, 13)), dates("2019-05-14T06:00:00Z"));
+        assertEquals(List.of(date(2019, 5, 14)), dates("2019-05-14T06:00:01Z"));
+    }
+
+    @Test
+    void bothSidesOfMidnight() {
+        assertEquals(List.of(date(2019, 5, 13)), dates("2019-05-14T03:59:59Z"));
+        assertEquals(List.of(date(2019, 5, 14), date(2019, 5, 13)), dates("2019-05-14T04:00:00Z"));
+    }
+
+    @Test
+    void dayRollsOver() {
+        final List<ServiceDay> morning = days("2019-05-14T07:00:00Z");
+
+        // The same day is served from the same lists until the date changes.
+        assertSame(morning, days("2019-05-14T16:00:00Z"));
+
+        assertEquals(List.of(date(2019, 5, 15), date(2019, 5, 14)), dates("2019-05-15T05:00:00Z"));
+
+        // A report from before the current day, which arrived late.
+        assertEquals(List.of(date(2019, 5, 14)), dates("2019-05-14T07:00:00Z"));
+    }
+
+    @Test
+    void shortDay() {
+        // 2019-03-10 has 23 hours; the next day starts at 04:00 UTC, not 05:00.
+        final List<ServiceDay> noon = days("2019-03-10T16:00:00Z");
+
+        assertSame(noon, days("2019-03-11T03:59:59Z"));
+        assertEquals(List.of(date(2019, 3, 11), date(2019, 3, 10)), dates("2019-03-11T04:00:00Z"));
+    }
+
+    @Test
+    void longDay() {
+        // 2019-11-03 has 25 hours; the next day starts at 05:00 UTC, not 04:00.
+        final List<ServiceDay> noon = days("2019-11-03T17:00:00Z");
+
+        assertSame(noon, days("2019-11-04T04:30:00Z"));
+        assertEquals(List.of(date(2019, 11, 4), date(2019, 11, 3)), dates("2019-11-04T05:00:00Z"));
+    }
+
+    @Test
+    void concurrentRollover() throws Exception {
+        final List<Future<?>> probes = new ArrayList<>();
+
+        // Each thread keeps moving the current day back and forth across midnight.
+        for (int t = 0; t < 4; t++) {
+            probes.add(executor.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    assertEquals(List.of(date(2019, 5, 13)), dates("2019-05-14T03:59:59Z"));
+                    assertEquals(List.of(date(2019, 5, 14), date(2019, 5, 13)), dates("2019-05-14T04:00:00Z"));
+                }
+            }));
+        }
+
+        for (Future<?> probe : probes) {
+            probe.get();
+        }
+    }
+
+    private List<ServiceDay> days(String instant) {
+        return cache.possibleServiceDays(0, Instant.parse(instant).getEpochSecond());
+    }
+
+    private List<ServiceDate> dates(String instant) {
+        return days(instant).stream().map(ServiceDay::getServiceDate).collect(Collectors.toList());
+    }
+
+    private static ServiceDate date(int year, int month, int day) {
+        return new ServiceDate(year, month, day);
+    }
+}
@@ -0,0 +1,61 @@
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.ShapeGeometry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShapeGeometryTest {
+
+    // 0.01 degrees of longitude along the equator.
+    private static final double SEGMENT_METERS = 1111.95;
+
+    private ShapeGeometry shapeGeometry;
+    private int shapeIndex;
+
+    @BeforeEach
+    void setUp() {
+        final TestGtfs gtfs = new TestGtfs();
+        gtfs.shape("shape", 0.0, 0.0, 0.01, 0.02);
+
+        shapeGeometry = new ShapeGeometry(gtfs.build());
+        shapeIndex = shapeGeometry.indexOf(TestGtfs.id("shape"));
+    }
+
+    @Test
+    void length() {
+        assertEquals(2 * SEGMENT_METERS, shapeGeometry.getLength(shapeIndex), 1.0);
+    }
+
+    @Test
+    void pointAt() {
+        final double[] lonLat = new double[2];
+
+        shapeGeometry.pointAt(shapeIndex, SEGMENT_METERS * 1.5, lonLat);
+        assertEquals(0.015, lonLat[0], 1e-6);
+        assertEquals(0.0, lonLat[1], 1e-6);
+
+        shapeGeometry.pointAt(shapeIndex, -10, lonLat);
+        assertEquals(0.0, lonLat[0], 1e-9);
+
+        shapeGeometry.pointAt(shapeIndex, 1e6, lonLat);
+        assertEquals(0.02, lonLat[0], 1e-9);
+    }
+
+    @Test
+    void project() {
+        assertEquals(SEGMENT_METERS * 0.5, shapeGeometry.project(shapeIndex, 0.005, 0.001), 1.0);
+        assertEquals(SEGMENT_METERS * 2, shapeGeometry.project(shapeIndex, 0.05, 0.0), 1.0);
+    }
+
+    @Test
+    void projectAfter() {
+        assertEquals(SEGMENT_METERS * 1.5, shapeGeometry.projectAfter(shapeIndex, 0.005, 0.0, SEGMENT_METERS * 1.5), 1.0);
+        assertEquals(SEGMENT_METERS * 1.8, shapeGeometry.projectAfter(shapeIndex, 0.018, 0.0, SEGMENT_METERS), 1.0);
+    }
+
+    @Test
+    void unknownShape() {
+        assertEquals(-1, shapeGeometry.indexOf(TestGtfs.id("missing")));
+    }
+}
@@ -0,0 +1,60 @@
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.ShapeSegmentIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShapeSegmentIndexTest {
+
+    private GtfsStore store;
+    private ShapeSegmentIndex index;
+
+    @BeforeEach
+    void setUp() {
+        final TestGtfs gtfs = new TestGtfs();
+
+        // Two east-west shapes about 1.1 km apart, each a single 2.5 km segment.
+        gtfs.shape("NORTH", 42.40, -72.52, -72.49);
+        gtfs.shape("SOUTH", 42.39, -72.52, -72.49);
+
+        store = gtfs.build();
+        index = new ShapeSegmentIndex(store);
+    }
+
+    @Test
+    void nearOneShape() {
+        assertArrayEquals(new int[]{north()}, index.nearbyShapes(42.4009, -72.505, 250));
+        assertArrayEquals(new int[]{south()}, index.nearbyShapes(42.3891, -72.505, 250));
+    }
+
+    @Test
+    void nearBothShapes() {
+        assertArrayEquals(sorted(north(), south()), index.nearbyShapes(42.395, -72.505, 600));
+    }
+
+    @Test
+    void beyondEndOfShape() {
+        // About 200 m past the eastern end of the northern shape.
+        assertArrayEquals(new int[]{north()}, index.nearbyShapes(42.40, -72.4876, 250));
+        assertArrayEquals(new int[0], index.nearbyShapes(42.40, -72.4876, 150));
+    }
+
+    @Test
+    void farFromShapes() {
+        assertArrayEquals(new int[0], index.nearbyShapes(42.395, -72.505, 250));
+        assertArrayEquals(new int[0], index.nearbyShapes(40.0, -75.0, 250));
+    }
+
+    private int north() {
+        return store.shapeIndexOf(TestGtfs.id("NORTH"));
+    }
+
+    private int south() {
+        return store.shapeIndexOf(TestGtfs.id("SOUTH"));
+    }
+
+    private static int[] sorted(int a, int b) {
+        return new int[]{Math.min(a, b), Math.max(a, b)};
+    }
+}
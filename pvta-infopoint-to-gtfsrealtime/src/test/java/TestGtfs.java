@@ -0,0 +1,198 @@
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+
+import javax.annotation.Nullable;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds small GTFS feeds for tests. Every feed has agency PVTA, in
+ * America/New_York, and service DAILY, which runs every day of 2019; every
+ * trip runs along shape S1 with headsign "Amherst".
+ */
+final class TestGtfs {
+
+    static final ZoneId TIME_ZONE = ZoneId.of("America/New_York");
+
+    // Stops and shape S1 lie along this parallel, from FIRST_LON eastwards.
+    static final double LAT = 42.39;
+    static final double FIRST_LON = -72.52;
+    static final double STOP_SPACING_DEGREES = 0.01;
+    static final double METERS_PER_DEGREE_LAT = 111195;
+
+    // The schedule of straightLine, in seconds after midnight.
+    static final int FIRST_DEPARTURE = 8 * 3600;
+    static final int RUNNING_TIME = 300;
+
+    private final GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    private final Agency agency = new Agency();
+    private final ServiceCalendar calendar = new ServiceCalendar();
+    private final Map<String, Route> routes = new HashMap<>();
+
+    private int nextId = 1;
+
+    TestGtfs() {
+        agency.setId("PVTA");
+        agency.setTimezone(TIME_ZONE.getId());
+        dao.saveEntity(agency);
+
+        calendar.setServiceId(id("DAILY"));
+        calendar.setStartDate(new ServiceDate(2019, 1, 1));
+        calendar.setEndDate(new ServiceDate(2019, 12, 31));
+        calendar.setMonday(1);
+        calendar.setTuesday(1);
+        calendar.setWednesday(1);
+        calendar.setThursday(1);
+        calendar.setFriday(1);
+        calendar.setSaturday(1);
+        calendar.setSunday(1);
+        dao.saveEntity(calendar);
+    }
+
+    /**
+     * Trips T1, T2 and so on, on route B43, along a line of stops built by
+     * {@link #line(int)}. T1 leaves the first stop at
+     * {@link #FIRST_DEPARTURE}, each later trip {@code headway} seconds after
+     * the one before, and every trip takes {@link #RUNNING_TIME} between
+     * stops, with no dwell.
+     */
+    static TestGtfs straightLine(int stops, int trips, int headway) {
+        final TestGtfs gtfs = new TestGtfs();
+        final Stop[] line = gtfs.line(stops);
+
+        for (int t = 0; t < trips; t++) {
+            final int[][] times = new int[stops][];
+
+            for (int i = 0; i < stops; i++) {
+                final int time = FIRST_DEPARTURE + t * headway + i * RUNNING_TIME;
+                times[i] = new int[]{time, time};
+            }
+
+            gtfs.trip("T" + (t + 1), "B43", line, times);
+        }
+
+        return gtfs;
+    }
+
+    /**
+     * @return the longitude {@code index} stops along a {@link #line(int)},
+     * which may be between two stops
+     */
+    static double lon(double index) {
+        return FIRST_LON + index * STOP_SPACING_DEGREES;
+    }
+
+    /**
+     * @return the distance between consecutive stops of a {@link #line(int)}, in meters
+     */
+    static double stopSpacingMeters() {
+        return STOP_SPACING_DEGREES * METERS_PER_DEGREE_LAT * Math.cos(Math.toRadians(LAT));
+    }
+
+    /**
+     * Adds stops 1 to {@code count}, {@link #STOP_SPACING_DEGREES} of
+     * longitude apart, and shape S1 joining them.
+     */
+    Stop[] line(int count) {
+        final Stop[] stops = new Stop[count];
+        final double[] lons = new double[count];
+
+        for (int i = 0; i < count; i++) {
+            lons[i] = lon(i);
+            stops[i] = stop(Integer.toString(i + 1), null, lons[i]);
+        }
+
+        shape("S1", LAT, lons);
+
+        return stops;
+    }
+
+    Stop stop(String id, @Nullable String name, double lon) {
+        final Stop stop = new Stop();
+        stop.setId(id(id));
+        stop.setName(name);
+        stop.setLat(LAT);
+        stop.setLon(lon);
+        dao.saveEntity(stop);
+        return stop;
+    }
+
+    /**
+     * Adds a shape along a parallel. The points are saved last first, so
+     * that the store has to sort them by sequence.
+     */
+    void shape(String id, double lat, double... lons) {
+        for (int i = lons.length - 1; i >= 0; i--) {
+            final ShapePoint sp = new ShapePoint();
+            sp.setId(nextId++);
+            sp.setShapeId(id(id));
+            sp.setSequence(i);
+            sp.setLat(lat);
+            sp.setLon(lons[i]);
+            dao.saveEntity(sp);
+        }
+    }
+
+    /**
+     * Adds a route, unless it has already been added.
+     */
+    Route route(String id) {
+        return routes.computeIfAbsent(id, k -> {
+            final Route route = new Route();
+            route.setId(id(k));
+            route.setAgency(agency);
+            dao.saveEntity(route);
+            return route;
+        });
+    }
+
+    /**
+     * Adds a trip serving {@code stops} in order.
+     *
+     * @param times the arrival and departure time at each stop, or null for a stop with no times
+     */
+    Trip trip(String id, String routeId, Stop[] stops, int[]... times) {
+        final Trip trip = new Trip();
+        trip.setId(id(id));
+        trip.setRoute(route(routeId));
+        trip.setServiceId(calendar.getServiceId());
+        trip.setShapeId(id("S1"));
+        trip.setTripHeadsign("Amherst");
+        dao.saveEntity(trip);
+
+        for (int i = 0; i < stops.length; i++) {
+            final StopTime st = new StopTime();
+            st.setId(nextId++);
+            st.setTrip(trip);
+            st.setStop(stops[i]);
+            st.setStopSequence(i + 1);
+
+            if (times[i] != null) {
+                st.setArrivalTime(times[i][0]);
+                st.setDepartureTime(times[i][1]);
+            }
+
+            dao.saveEntity(st);
+        }
+
+        return trip;
+    }
+
+    GtfsStore build() {
+        return GtfsStore.fromDao(dao);
+    }
+
+    static AgencyAndId id(String id) {
+        return new AgencyAndId("PVTA", id);
+    }
+}
@@ -0,0 +1,92 @@
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.TripCandidateIndex;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.TripEnvelopeTable;
+import org.junit.jupiter.api.Test;
+import org.onebusaway.gtfs.model.Stop;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TripCandidateIndexTest {
+
+    private static final int WINDOW = 600;
+
+    // T1 runs from FIRST_DEPARTURE to LAST_ARRIVAL.
+    private static final int FIRST_DEPARTURE = TestGtfs.FIRST_DEPARTURE;
+    private static final int LAST_ARRIVAL = FIRST_DEPARTURE + 4 * TestGtfs.RUNNING_TIME;
+
+    private GtfsStore store;
+    private TripCandidateIndex index;
+
+    @Test
+    void tripStartingAtEndOfWindow() {
+        build(TestGtfs.straightLine(5, 1, 0));
+
+        assertEquals(List.of("T1"), candidates(FIRST_DEPARTURE - WINDOW));
+        assertEquals(List.of(), candidates(FIRST_DEPARTURE - WINDOW - 1));
+    }
+
+    @Test
+    void tripEndingAtStartOfWindow() {
+        build(TestGtfs.straightLine(5, 1, 0));
+
+        assertEquals(List.of("T1"), candidates(LAST_ARRIVAL + WINDOW));
+        assertEquals(List.of(), candidates(LAST_ARRIVAL + WINDOW + 1));
+    }
+
+    @Test
+    void longTripInGroup() {
+        final TestGtfs gtfs = new TestGtfs();
+        final Stop[] line = gtfs.line(5);
+
+        // A short trip before T1, and a long one which starts before both and runs until well after
+        // them: eight hours, where the others take twenty minutes.
+        gtfs.trip("T1", "B43", line, times(FIRST_DEPARTURE, TestGtfs.RUNNING_TIME));
+        gtfs.trip("EARLY", "B43", line, times(5 * 3600, TestGtfs.RUNNING_TIME));
+        gtfs.trip("LONG", "B43", line, times(4 * 3600, 2 * 3600));
+
+        build(gtfs);
+
+        // Only LONG spans 10:00, though it starts earliest of all, so the search has to reach
+        // back the length of the longest trip in the group, and then pass over EARLY.
+        assertEquals(List.of("LONG"), candidates(10 * 3600));
+        assertEquals(List.of("LONG"), candidatesOnShape(10 * 3600));
+
+        assertEquals(List.of("LONG", "EARLY"), candidates(5 * 3600 + 600));
+        assertEquals(List.of("LONG", "T1"), candidates(FIRST_DEPARTURE));
+    }
+
+    private void build(TestGtfs gtfs) {
+        store = gtfs.build();
+        index = new TripCandidateIndex(store, new TripEnvelopeTable(store));
+    }
+
+    private List<String> candidates(int probeSeconds) {
+        return tripIds(index.candidates(store.routeIndexOf(TestGtfs.id("B43")), "Amherst", probeSeconds, WINDOW));
+    }
+
+    private List<String> candidatesOnShape(int probeSeconds) {
+        return tripIds(index.candidatesOnShape(store.shapeIndexOf(TestGtfs.id("S1")), probeSeconds, WINDOW));
+    }
+
+    private List<String> tripIds(int[] tripIndices) {
+        return Arrays.stream(tripIndices).mapToObj(store::getTripId).collect(Collectors.toList());
+    }
+
+    /**
+     * Times at five stops, {@code runningTime} apart, with no dwell.
+     */
+    private static int[][] times(int firstDeparture, int runningTime) {
+        final int[][] times = new int[5][];
+
+        for (int i = 0; i < times.length; i++) {
+            final int time = firstDeparture + i * runningTime;
+            times[i] = new int[]{time, time};
+        }
+
+        return times;
+    }
+}
@@ -0,0 +1,106 @@
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.predictions.TripPrediction;
+import com.kurtraschke.pvtagtfsrealtime.predictions.TripUpdatePredictor;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.ShapeGeometry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TripUpdatePredictorTest {
+
+    private static final int EIGHT_AM = 8 * 3600;
+
+    // Five stops, evenly spaced along a straight shape. The third stop has three
+    // minutes of scheduled dwell and the fourth has no times.
+    private static final int[][] TIMES = {
+            {EIGHT_AM, EIGHT_AM},
+            {EIGHT_AM + 300, EIGHT_AM + 300},
+            {EIGHT_AM + 600, EIGHT_AM + 780},
+            null,
+            {EIGHT_AM + 1200, EIGHT_AM + 1200},
+    };
+
+    private GtfsStore store;
+    private TripUpdatePredictor predictor;
+    private double stopSpacing;
+
+    @BeforeEach
+    void setUp() {
+        final TestGtfs gtfs = new TestGtfs();
+        gtfs.trip("T1", "B43", gtfs.line(TIMES.length), TIMES);
+        store = gtfs.build();
+
+        final ShapeGeometry shapeGeometry = new ShapeGeometry(store);
+        stopSpacing = shapeGeometry.getLength(0) / (TIMES.length - 1);
+
+        predictor = new TripUpdatePredictor(store, shapeGeometry);
+        predictor.setDwellSeconds(20);
+        predictor.setRecoveryTimeConstant(0);
+    }
+
+    @Test
+    void lateVehicleRecoversDuringScheduledDwell() {
+        // Half way between the first and second stops, two minutes late.
+        final TripPrediction prediction = predictor.predict(0, 0, stopSpacing / 2, GtfsStore.MISSING, 120,
+                EIGHT_AM + 150 + 120);
+
+        assertEquals(store.getFirstStopTime(0) + 1, prediction.getFirstStopTime());
+        assertEquals(4, prediction.size());
+
+        assertEquals(120, prediction.getArrivalDelay(0));
+        assertEquals(EIGHT_AM + 300 + 120, prediction.getArrivalTime(0));
+        assertEquals(120, prediction.getDepartureDelay(0));
+
+        // Two minutes late, with three minutes scheduled at the stop, of which 20 seconds are needed.
+        assertEquals(120, prediction.getArrivalDelay(1));
+        assertEquals(0, prediction.getDepartureDelay(1));
+
+        // The stop without times is interpolated half way between its neighbours.
+        assertEquals(EIGHT_AM + 990, prediction.getArrivalTime(2));
+        assertEquals(0, prediction.getArrivalDelay(3));
+    }
+
+    @Test
+    void earlyVehicleHoldsForScheduledDeparture() {
+        final TripPrediction prediction = predictor.predict(0, 0, stopSpacing * 1.5, GtfsStore.MISSING, -120,
+                EIGHT_AM + 450 - 120);
+
+        assertEquals(-120, prediction.getArrivalDelay(0));
+        assertEquals(EIGHT_AM + 780, prediction.getDepartureTime(0));
+        assertEquals(0, prediction.getArrivalDelay(1));
+    }
+
+    @Test
+    void delayDecaysWithRunningTime() {
+        predictor.setRecoveryTimeConstant(600);
+
+        final TripPrediction prediction = predictor.predict(0, 0, 0, GtfsStore.MISSING, 600, EIGHT_AM + 600);
+
+        assertEquals(600, prediction.getDepartureDelay(0));
+        assertEquals(Math.round(600 * Math.exp(-0.5)), prediction.getArrivalDelay(1));
+        assertTrue(prediction.getArrivalDelay(4) < prediction.getArrivalDelay(1));
+    }
+
+    @Test
+    void reportedStopIsPassed() {
+        // The vehicle appears to be short of the second stop, but Infopoint reports it there.
+        final TripPrediction prediction = predictor.predict(0, 0, stopSpacing / 2, store.getFirstStopTime(0) + 1, 0,
+                EIGHT_AM + 300);
+
+        assertEquals(store.getFirstStopTime(0) + 2, prediction.getFirstStopTime());
+        assertEquals(3, prediction.size());
+    }
+
+    @Test
+    void nothingPredictedBeforeReport() {
+        // The vehicle reports late, but from a position it should have passed long ago.
+        final TripPrediction prediction = predictor.predict(0, 0, stopSpacing / 2, GtfsStore.MISSING, 0,
+                EIGHT_AM + 3600);
+
+        for (int i = 0; i < prediction.size(); i++) {
+            assertTrue(prediction.getArrivalTime(i) >= EIGHT_AM + 3600);
+            assertTrue(prediction.getDepartureTime(i) >= prediction.getArrivalTime(i));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import com.availtec.infopoint.client.VehicleLocation;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsContext;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.producers.VehicleResolutionKey;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nnsoft.guice.sli4j.slf4j.Slf4jLoggingModule;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VehicleResolutionKeyTest {
+
+    private static final long EIGHT_AM = 1557835200;
+
+    private TestGtfs gtfs;
+    private Injector injector;
+    private GtfsContext context;
+    private int route;
+
+    @BeforeEach
+    void setUp() {
+        gtfs = TestGtfs.straightLine(2, 1, 0);
+        injector = Guice.createInjector(new Slf4jLoggingModule());
+
+        context = loadGeneration();
+        route = context.getStore().routeIndexOf(TestGtfs.id("B43"));
+    }
+
+    @Test
+    void unchangedVehicleReused() {
+        final VehicleResolutionKey key = new VehicleResolutionKey(context, vehicle(), route);
+        final VehicleResolutionKey next = new VehicleResolutionKey(context, vehicle(), route);
+
+        assertEquals(key, next);
+        assertEquals(key.hashCode(), next.hashCode());
+    }
+
+    @Test
+    void changedReportNotReused() {
+        final VehicleResolutionKey key = new VehicleResolutionKey(context, vehicle(), route);
+
+        for (VehicleLocation changed : List.of(
+                new VehicleLocation(3202, "3201", 43, "B43 Amherst", 2, "Haigis Mall", EIGHT_AM, 42.39, -72.52),
+                new VehicleLocation(3201, "3202", 43, "B43 Amherst", 2, "Haigis Mall", EIGHT_AM, 42.39, -72.52),
+                new VehicleLocation(3201, "3201", 44, "B43 Amherst", 2, "Haigis Mall", EIGHT_AM, 42.39, -72.52),
+                new VehicleLocation(3201, "3201", 43, "B43 Northampton", 2, "Haigis Mall", EIGHT_AM, 42.39, -72.52),
+                new VehicleLocation(3201, "3201", 43, "B43 Amherst", 3, "Haigis Mall", EIGHT_AM, 42.39, -72.52),
+                new VehicleLocation(3201, "3201", 43, "B43 Amherst", 2, "Main St", EIGHT_AM, 42.39, -72.52),
+                new VehicleLocation(3201, "3201", 43, "B43 Amherst", 2, "Haigis Mall", EIGHT_AM + 30, 42.39, -72.52),
+                new VehicleLocation(3201, "3201", 43, "B43 Amherst", 2, "Haigis Mall", EIGHT_AM, 42.3901, -72.52),
+                new VehicleLocation(3201, "3201", 43, "B43 Amherst", 2, "Haigis Mall", EIGHT_AM, 42.39, -72.5201))) {
+            assertNotEquals(key, new VehicleResolutionKey(context, changed, route));
+        }
+    }
+
+    @Test
+    void changedRouteNotReused() {
+        final VehicleResolutionKey key = new VehicleResolutionKey(context, vehicle(), route);
+
+        // The Infopoint route mapping can change between polls while the report itself does not.
+        assertNotEquals(key, new VehicleResolutionKey(context, vehicle(), -1));
+    }
+
+    @Test
+    void reloadedGtfsNotReused() {
+        final VehicleResolutionKey key = new VehicleResolutionKey(context, vehicle(), route);
+
+        // Reloading builds a new generation even when the GTFS is unchanged, and its indices need not agree.
+        final GtfsContext reloaded = loadGeneration();
+
+        assertEquals(route, reloaded.getStore().routeIndexOf(TestGtfs.id("B43")));
+        assertNotEquals(key, new VehicleResolutionKey(reloaded, vehicle(), route));
+    }
+
+    /**
+     * Builds a GTFS generation the way {@code GtfsContextManager} does, in a
+     * child injector of its own.
+     */
+    private GtfsContext loadGeneration() {
+        final GtfsStore store = gtfs.build();
+
+        return injector.createChildInjector(binder -> binder.bind(GtfsStore.class).toInstance(store))
+                .getInstance(GtfsContext.class);
+    }
+
+    private static VehicleLocation vehicle() {
+        return new VehicleLocation(3201, "3201", 43, "B43 Amherst", 2, "Haigis Mall", EIGHT_AM, 42.39, -72.52);
+    }
+}
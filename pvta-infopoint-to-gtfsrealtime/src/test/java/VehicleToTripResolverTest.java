@@ -0,0 +1,159 @@
+import com.availtec.infopoint.client.VehicleLocation;
+import com.google.inject.Guice;
+import com.kurtraschke.pvtagtfsrealtime.gtfs.GtfsStore;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.TripAssignment;
+import com.kurtraschke.pvtagtfsrealtime.resolvers.VehicleToTripResolver;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nnsoft.guice.sli4j.slf4j.Slf4jLoggingModule;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.NoSuchElementException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VehicleToTripResolverTest {
+
+    private static final long EIGHT_AM = ZonedDateTime.of(2019, 5, 14, 8, 0, 0, 0, ZoneId.of("America/New_York"))
+            .toEpochSecond();
+
+    private GtfsStore store;
+    private int route;
+    private int otherRoute;
+    private double stopSpacing;
+
+    /**
+     * Five trips on a straight shape, leaving every ten minutes from 8:00 and
+     * taking five minutes between stops.
+     */
+    @BeforeEach
+    void setUp() {
+        final TestGtfs gtfs = TestGtfs.straightLine(5, 5, 600);
+        gtfs.route("B79");
+
+        store = gtfs.build();
+        route = store.routeIndexOf(TestGtfs.id("B43"));
+        otherRoute = store.routeIndexOf(TestGtfs.id("B79"));
+        stopSpacing = TestGtfs.stopSpacingMeters();
+    }
+
+    @Test
+    void assignmentKeptWhileVehicleProgresses() {
+        final VehicleToTripResolver resolver = newResolver();
+
+        assertEquals("T1", tripId(resolver.resolveVehicle(vehicle(300, 1, "Amherst"), route)));
+
+        // Running late and reporting no deviation, the vehicle is now nearer T2's scheduled position...
+        final VehicleLocation late = vehicle(840, 1.5, "Amherst");
+
+        assertEquals("T2", tripId(newResolver().resolveVehicle(late, route)));
+
+        // ...but it is still on the trip it was on.
+        final TripAssignment assignment = resolver.resolveVehicle(late, route);
+
+        assertEquals("T1", tripId(assignment));
+        assertEquals(1.5 * stopSpacing, assignment.getDistanceAlongShape(), 5);
+    }
+
+    @Test
+    void progressTolerance() {
+        final VehicleToTripResolver resolver = newResolver();
+
+        resolver.resolveVehicle(vehicle(300, 1, "Amherst"), route);
+
+        // Fifty meters back is GPS noise; the vehicle stays where it was matched.
+        final TripAssignment noise = resolver.resolveVehicle(vehicle(360, 1 - 50 / stopSpacing, "Amherst"), route);
+
+        assertEquals("T1", tripId(noise));
+        assertEquals(stopSpacing - 50, noise.getDistanceAlongShape(), 5);
+
+        // Half a stop back is not, so the vehicle is matched again from scratch.
+        final TripAssignment backwards = resolver.resolveVehicle(vehicle(420, 0.5, "Amherst"), route);
+
+        assertEquals(0.5 * stopSpacing, backwards.getDistanceAlongShape(), 5);
+    }
+
+    @Test
+    void offShapeLimit() {
+        final VehicleToTripResolver near = newResolver();
+
+        near.resolveVehicle(vehicle(300, 1, "Amherst"), route);
+        assertEquals("T1", tripId(near.resolveVehicle(vehicle(840, 1.5, "Amherst", 200), route)));
+
+        final VehicleToTripResolver far = newResolver();
+
+        far.resolveVehicle(vehicle(300, 1, "Amherst"), route);
+        assertEquals("T2", tripId(far.resolveVehicle(vehicle(840, 1.5, "Amherst", 300), route)));
+    }
+
+    @Test
+    void tripEnvelopeWindow() {
+        // T1 ends at 8:20, and is kept for up to half an hour after.
+        final VehicleToTripResolver within = newResolver();
+
+        within.resolveVehicle(vehicle(300, 1, "Amherst"), route);
+        assertEquals("T1", tripId(within.resolveVehicle(vehicle(45 * 60, 4, "Amherst"), route)));
+
+        final VehicleToTripResolver beyond = newResolver();
+
+        beyond.resolveVehicle(vehicle(300, 1, "Amherst"), route);
+        assertNotEquals("T1", tripId(beyond.resolveVehicle(vehicle(51 * 60, 4, "Amherst"), route)));
+    }
+
+    @Test
+    void destinationChange() {
+        final VehicleToTripResolver resolver = newResolver();
+
+        resolver.resolveVehicle(vehicle(300, 1, "Amherst"), route);
+
+        assertThrows(NoSuchElementException.class, () -> resolver.resolveVehicle(vehicle(360, 1.1, "Northampton"), route));
+    }
+
+    @Test
+    void routeChange() {
+        final VehicleToTripResolver resolver = newResolver();
+
+        resolver.resolveVehicle(vehicle(300, 1, "Amherst"), route);
+
+        assertThrows(NoSuchElementException.class, () -> resolver.resolveVehicle(vehicle(360, 1.1, "Amherst"), otherRoute));
+    }
+
+    @Test
+    void outOfOrderReportIgnored() {
+        final VehicleToTripResolver resolver = newResolver();
+
+        final TripAssignment assignment = resolver.resolveVehicle(vehicle(300, 1, "Amherst"), route);
+
+        assertSame(assignment, resolver.resolveVehicle(vehicle(240, 0.5, "Amherst"), route));
+        assertSame(assignment, resolver.resolveVehicleByLocation(vehicle(240, 0.5, "Amherst"), -1));
+
+        final TripAssignment next = resolver.resolveVehicle(vehicle(360, 1.1, "Amherst"), route);
+
+        assertEquals("T1", tripId(next));
+        assertEquals(EIGHT_AM + 360, next.getReportEpochSecond());
+        assertEquals(1.1 * stopSpacing, next.getDistanceAlongShape(), 5);
+    }
+
+    private VehicleToTripResolver newResolver() {
+        return Guice.createInjector(new Slf4jLoggingModule(), binder -> binder.bind(GtfsStore.class).toInstance(store))
+                .getInstance(VehicleToTripResolver.class);
+    }
+
+    private String tripId(TripAssignment assignment) {
+        return store.getTripId(assignment.getTripIndex());
+    }
+
+    private static VehicleLocation vehicle(int secondsAfterEight, double stop, String destination) {
+        return vehicle(secondsAfterEight, stop, destination, 0);
+    }
+
+    /**
+     * @param stop           position along the shape, in stops from the first
+     * @param metersOffShape distance north of the shape
+     */
+    private static VehicleLocation vehicle(int secondsAfterEight, double stop, String destination, double metersOffShape) {
+        return new VehicleLocation(1, "1", 43, destination, 0, "", EIGHT_AM + secondsAfterEight,
+                TestGtfs.LAT + metersOffShape / TestGtfs.METERS_PER_DEGREE_LAT, TestGtfs.lon(stop));
+    }
+}